@@ -0,0 +1,52 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.Orm;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.robolectric.Robolectric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks database helpers.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+final class BenchmarkDatabase {
+
+  private BenchmarkDatabase() {
+  }
+
+  /**
+   * @return orm instance (robolectric application).
+   */
+  static Orm getOrm() {
+    return Orm.getInstance(Robolectric.application);
+  }
+
+  /**
+   * Create entities (not inserted).
+   *
+   * @param count entities count.
+   * @return entities.
+   */
+  static List<AllTypeEntity> createEntities(int count) {
+    List<AllTypeEntity> entities = new ArrayList<AllTypeEntity>(count);
+    for (int i = 0; i < count; i++) {
+      entities.add(AllTypeEntity.create(i));
+    }
+    return entities;
+  }
+
+  /**
+   * Remove all entities.
+   *
+   * @param orm orm.
+   */
+  static void clear(Orm orm) {
+    long[] ids = orm.queryLongColumn(AllTypeEntity.class, "id", null, null, null, null);
+    if (ids.length > 0) {
+      orm.deleteByIdInTx(AllTypeEntity.class, ids);
+    }
+  }
+}
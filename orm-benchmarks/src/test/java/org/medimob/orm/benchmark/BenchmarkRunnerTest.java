@@ -0,0 +1,37 @@
+package org.medimob.orm.benchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Run the JMH benchmarks inside the robolectric runtime (the database is the robolectric sqlite
+ * shadow), so benchmarks are executed in process (no fork).
+ *
+ * Benchmarks are skipped by default, run them with :
+ * <code>mvn test -pl orm-benchmarks -am -DskipBenchmarks=false [-Dbenchmark=regexp]</code>.
+ * Results are written as JSON in <code>target/jmh-result.json</code> (see
+ * <code>-Dbenchmark.result</code>) so they can be compared across versions.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BenchmarkRunnerTest {
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    Options options = new OptionsBuilder()
+        .include(System.getProperty("benchmark", ".*"))
+        .forks(0)
+        .warmupIterations(5)
+        .measurementIterations(10)
+        .resultFormat(ResultFormatType.JSON)
+        .result(System.getProperty("benchmark.result", "target/jmh-result.json"))
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,74 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.internal.StatementBuilder;
+import org.medimob.orm.query.Criterion;
+import org.medimob.orm.query.PropertyResolver;
+import org.medimob.orm.query.Restrictions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Criteria rendering throughput : sql, shape key and arguments of a typical restrictions tree.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CriterionBenchmark {
+
+  private Criterion criterion;
+  private PropertyResolver resolver;
+
+  @Setup
+  public void setUp() {
+    resolver = new PropertyResolver() {
+      @Override
+      public String resolveColumnForProperty(String property) {
+        return property.toUpperCase();
+      }
+
+      @Override
+      public String resolveIdColumn() {
+        return "_id";
+      }
+    };
+    criterion = Restrictions.conjunction()
+        .add(Restrictions.eq("primitiveInt", 42))
+        .add(Restrictions.like("string", "entity-%"))
+        .add(Restrictions.between("primitiveLong", 0, 1000))
+        .add(Restrictions.disjunction()
+                 .add(Restrictions.isNull("objectInt"))
+                 .add(Restrictions.in("objectShort", 1, 2, 3, 4, 5)))
+        .add(Restrictions.idEqual(7));
+  }
+
+  @Benchmark
+  public String toSql() {
+    StatementBuilder builder = new StatementBuilder();
+    criterion.toSql(builder, resolver);
+    return builder.toString();
+  }
+
+  @Benchmark
+  public String appendKey() {
+    StringBuilder key = new StringBuilder();
+    criterion.appendKey(key);
+    return key.toString();
+  }
+
+  @Benchmark
+  public ArrayList<String> collectArgs() {
+    ArrayList<String> args = new ArrayList<String>(criterion.getArgsCount());
+    criterion.collectArgs(args);
+    return args;
+  }
+}
@@ -0,0 +1,56 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.CursorIterator;
+import org.medimob.orm.Orm;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cursor hydration throughput of 10k all types entities (read cursor).
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HydrationBenchmark {
+
+  private static final int ROWS = 10000;
+
+  private Orm orm;
+
+  @Setup
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+    BenchmarkDatabase.clear(orm);
+    orm.insertBatchInTx(AllTypeEntity.class, BenchmarkDatabase.createEntities(ROWS));
+  }
+
+  @Benchmark
+  public List<AllTypeEntity> queryList() {
+    return orm.createQuery(AllTypeEntity.class).query();
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    CursorIterator<AllTypeEntity> iterator = orm.createQuery(AllTypeEntity.class).iterate();
+    for (AllTypeEntity entity : iterator) {
+      blackhole.consume(entity);
+    }
+  }
+
+  @Benchmark
+  public long[] longColumn() {
+    return orm.queryLongColumn(AllTypeEntity.class, "primitiveLong", null, null, null, null);
+  }
+}
@@ -0,0 +1,63 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.Orm;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput : single row inserts vs inserts inside one transaction vs multi rows inserts.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InsertBenchmark {
+
+  @Param({"100", "1000"})
+  int rows;
+
+  private Orm orm;
+  private List<AllTypeEntity> entities;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+  }
+
+  @Setup(Level.Invocation)
+  public void prepare() {
+    BenchmarkDatabase.clear(orm);
+    entities = BenchmarkDatabase.createEntities(rows);
+  }
+
+  @Benchmark
+  public long[] insertSingle() {
+    long[] ids = new long[rows];
+    for (int i = 0; i < rows; i++) {
+      ids[i] = orm.insert(AllTypeEntity.class, entities.get(i));
+    }
+    return ids;
+  }
+
+  @Benchmark
+  public long[] insertInTx() {
+    return orm.insertInTx(AllTypeEntity.class, entities);
+  }
+
+  @Benchmark
+  public long[] insertBatchInTx() {
+    return orm.insertBatchInTx(AllTypeEntity.class, entities);
+  }
+}
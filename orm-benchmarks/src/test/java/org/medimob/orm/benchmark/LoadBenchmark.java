@@ -0,0 +1,82 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.CacheConfig;
+import org.medimob.orm.Orm;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load by id throughput : session hits vs database reads.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadBenchmark {
+
+  private static final int ROWS = 1000;
+
+  private Orm orm;
+  private long[] ids;
+  private List<AllTypeEntity> cached;
+
+  @Setup
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+    BenchmarkDatabase.clear(orm);
+    ids = orm.insertBatchInTx(AllTypeEntity.class, BenchmarkDatabase.createEntities(ROWS));
+    // Keep all entities in session.
+    orm.configureCache(AllTypeEntity.class, new CacheConfig<AllTypeEntity>().setMaxSize(ROWS));
+    cached = orm.loadByIds(AllTypeEntity.class, ids);
+  }
+
+  @TearDown
+  public void tearDown() {
+    orm.configureCache(AllTypeEntity.class, new CacheConfig<AllTypeEntity>());
+    cached = null;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int loadByIdCached() {
+    int found = 0;
+    for (long id : ids) {
+      if (orm.loadById(AllTypeEntity.class, id) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public int loadByIdUncached() {
+    // Session is cleared before each load : every
+    // load is a session miss read from the database.
+    int found = 0;
+    for (long id : ids) {
+      orm.clearSession(AllTypeEntity.class);
+      if (orm.loadById(AllTypeEntity.class, id) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  public List<AllTypeEntity> loadByIdsCached() {
+    return orm.loadByIds(AllTypeEntity.class, ids);
+  }
+}
@@ -0,0 +1,75 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.Orm;
+import org.medimob.orm.Page;
+import org.medimob.orm.Query;
+import org.medimob.orm.benchmark.models.PageEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page latency by page number when ordering by an indexed key with ties (id breaks them) :
+ * <code>LIMIT offset,count</code> vs keyset pagination ({@link Query#page(String, int)}), whose
+ * leading key range starts the index scan at the page.
+ *
+ * Created by Poopaou on 20/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderedPageBenchmark {
+
+  private static final int ROWS = 20000;
+  private static final int SCORES = 500;
+  private static final int PAGE_SIZE = 50;
+
+  @Param({"0", "100", "399"})
+  public int pageNumber;
+
+  private Orm orm;
+  private Query<PageEntity> query;
+  private String token;
+  private String offsetLimit;
+
+  @Setup
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+    long[] ids = orm.queryLongColumn(PageEntity.class, "id", null, null, null, null);
+    if (ids.length > 0) {
+      orm.deleteByIdInTx(PageEntity.class, ids);
+    }
+    List<PageEntity> entities = new ArrayList<PageEntity>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      entities.add(PageEntity.create(i, SCORES));
+    }
+    orm.insertBatchInTx(PageEntity.class, entities);
+    query = orm.createQuery(PageEntity.class).orderAsc("score");
+    // Walk to the previous page's token.
+    token = null;
+    for (int i = 0; i < pageNumber; i++) {
+      token = query.page(token, PAGE_SIZE).getNextToken();
+    }
+    // "offset,count" : SQLiteQueryBuilder rejects OFFSET limits.
+    offsetLimit = pageNumber * PAGE_SIZE + "," + PAGE_SIZE;
+  }
+
+  @Benchmark
+  public List<PageEntity> offset() {
+    return orm.rawQuery(PageEntity.class, "1", null, "SCORE ASC, _id ASC", offsetLimit);
+  }
+
+  @Benchmark
+  public Page<PageEntity> keyset() {
+    return query.page(token, PAGE_SIZE);
+  }
+}
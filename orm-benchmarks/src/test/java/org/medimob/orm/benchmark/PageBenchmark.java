@@ -0,0 +1,65 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.Orm;
+import org.medimob.orm.Page;
+import org.medimob.orm.Query;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page latency by page number : <code>LIMIT offset,count</code> vs keyset pagination
+ * ({@link Query#page(String, int)}).
+ *
+ * Created by Poopaou on 19/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PageBenchmark {
+
+  private static final int ROWS = 20000;
+  private static final int PAGE_SIZE = 50;
+
+  @Param({"0", "100", "399"})
+  public int pageNumber;
+
+  private Orm orm;
+  private Query<AllTypeEntity> query;
+  private String token;
+  private String offsetLimit;
+
+  @Setup
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+    BenchmarkDatabase.clear(orm);
+    orm.insertBatchInTx(AllTypeEntity.class, BenchmarkDatabase.createEntities(ROWS));
+    query = orm.createQuery(AllTypeEntity.class);
+    // Walk to the previous page's token.
+    token = null;
+    for (int i = 0; i < pageNumber; i++) {
+      token = query.page(token, PAGE_SIZE).getNextToken();
+    }
+    // "offset,count" : SQLiteQueryBuilder rejects OFFSET limits.
+    offsetLimit = pageNumber * PAGE_SIZE + "," + PAGE_SIZE;
+  }
+
+  @Benchmark
+  public List<AllTypeEntity> offset() {
+    return orm.rawQuery(AllTypeEntity.class, "1", null, "_id ASC", offsetLimit);
+  }
+
+  @Benchmark
+  public Page<AllTypeEntity> keyset() {
+    return query.page(token, PAGE_SIZE);
+  }
+}
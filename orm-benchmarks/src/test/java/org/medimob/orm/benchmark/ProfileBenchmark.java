@@ -0,0 +1,127 @@
+package org.medimob.orm.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.medimob.orm.DatabaseConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.Robolectric;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scan and point lookup latency of each {@link DatabaseConfig.Profile} (NONE keeps the
+ * defaults) on a local database file. Each profile has its own database, configured like
+ * <code>OpenHelper.onConfigure</code> does.
+ *
+ * The in process sqlite is not the device one : run it with the device database size
+ * (<code>-Dbenchmark=ProfileBenchmark</code>, raise {@link #ROWS}) before changing profiles. It
+ * uses a single connection : the write-ahead logging benefit (readers not blocked by writers, on
+ * their own connections) is not measured, the profiles values are not backed by these results.
+ *
+ * Created by Poopaou on 15/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProfileBenchmark {
+
+  private static final int ROWS = 100000;
+  private static final int LOOKUPS = 1000;
+  private static final int PAYLOAD_SIZE = 256;
+
+  @Param({"NONE", "READ_HEAVY", "WRITE_HEAVY", "LOW_MEMORY"})
+  public String profile;
+
+  private File file;
+  private SQLiteDatabase db;
+  private String[][] lookupArgs;
+
+  @Setup
+  public void setUp() {
+    file = Robolectric.application.getDatabasePath("profile-" + profile + ".db");
+    file.getParentFile().mkdirs();
+    SQLiteDatabase.deleteDatabase(file);
+    db = SQLiteDatabase.openOrCreateDatabase(file, null);
+    DatabaseConfig config = new DatabaseConfig();
+    if (!"NONE".equals(profile)) {
+      config.setProfile(DatabaseConfig.Profile.valueOf(profile));
+    }
+    config.configure(db);
+
+    db.execSQL("CREATE TABLE scan (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER, "
+               + "payload BLOB)");
+    Random random = new Random(42);
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    db.beginTransaction();
+    try {
+      SQLiteStatement insert =
+          db.compileStatement("INSERT INTO scan (name, value, payload) VALUES (?, ?, ?)");
+      for (int i = 0; i < ROWS; i++) {
+        random.nextBytes(payload);
+        insert.bindString(1, "name" + i);
+        insert.bindLong(2, random.nextLong());
+        insert.bindBlob(3, payload);
+        insert.executeInsert();
+      }
+      insert.close();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    lookupArgs = new String[LOOKUPS][];
+    for (int i = 0; i < LOOKUPS; i++) {
+      lookupArgs[i] = new String[]{String.valueOf(random.nextInt(ROWS) + 1)};
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    db.close();
+    SQLiteDatabase.deleteDatabase(file);
+  }
+
+  @Benchmark
+  public long fullScan() {
+    long sum = 0;
+    Cursor cursor = db.rawQuery("SELECT _id, name, value, payload FROM scan", null);
+    try {
+      while (cursor.moveToNext()) {
+        sum += cursor.getLong(2) + cursor.getBlob(3).length;
+      }
+    } finally {
+      cursor.close();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LOOKUPS)
+  public long pointLookup() {
+    long sum = 0;
+    for (String[] args : lookupArgs) {
+      Cursor cursor = db.rawQuery("SELECT _id, name, value, payload FROM scan WHERE _id=?", args);
+      try {
+        if (cursor.moveToFirst()) {
+          sum += cursor.getLong(2);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,57 @@
+package org.medimob.orm.benchmark;
+
+import org.medimob.orm.Orm;
+import org.medimob.orm.benchmark.models.AllTypeEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update and delete throughput inside one transaction.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UpdateDeleteBenchmark {
+
+  @Param({"100", "1000"})
+  int rows;
+
+  private Orm orm;
+  private long[] ids;
+  private List<AllTypeEntity> entities;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    orm = BenchmarkDatabase.getOrm();
+  }
+
+  @Setup(Level.Invocation)
+  public void prepare() {
+    // Updated entities version is outdated : reload entities before each invocation.
+    BenchmarkDatabase.clear(orm);
+    ids = orm.insertBatchInTx(AllTypeEntity.class, BenchmarkDatabase.createEntities(rows));
+    entities = orm.createQuery(AllTypeEntity.class).query();
+  }
+
+  @Benchmark
+  public int updateInTx() {
+    return orm.updateInTx(AllTypeEntity.class, entities);
+  }
+
+  @Benchmark
+  public int deleteByIdInTx() {
+    return orm.deleteByIdInTx(AllTypeEntity.class, ids);
+  }
+}
@@ -0,0 +1,106 @@
+package org.medimob.orm.benchmark.models;
+
+import org.medimob.orm.annotation.DateField;
+import org.medimob.orm.annotation.Id;
+import org.medimob.orm.annotation.Model;
+import org.medimob.orm.annotation.Property;
+import org.medimob.orm.annotation.Version;
+
+import java.util.Date;
+
+/**
+ * Benchmark entity mapping all supported property types.
+ *
+ * Created by Poopaou on 09/02/2015.
+ */
+@Model
+public class AllTypeEntity {
+
+  @Id
+  long id;
+  @Property
+  Boolean objectBoolean;
+  @Property
+  boolean primitiveBoolean;
+  @Property
+  Character objectCharacter;
+  @Property
+  char primitiveCharacter;
+  @Property
+  Byte objectByte;
+  @Property
+  byte primitiveByte;
+  @Property
+  Short objectShort;
+  @Property
+  short primitiveShort;
+  @Property
+  Integer objectInt;
+  @Property
+  int primitiveInt;
+  @Property
+  Long objectLong;
+  @Property
+  long primitiveLong;
+  @Property
+  Float objectFloat;
+  @Property
+  float primitiveFloat;
+  @Property
+  Double objectDouble;
+  @Property
+  double primitiveDouble;
+  @Property
+  String string;
+  @Property(dateType = DateField.DATE_STRING)
+  Date stringDate;
+  @Property(dateType = DateField.DATE_LONG)
+  Date longDate;
+  @Property
+  byte[] bytesArray;
+  @Version
+  long version;
+
+  /**
+   * Create a new entity with all properties set.
+   *
+   * @param seed values seed.
+   * @return entity.
+   */
+  public static AllTypeEntity create(int seed) {
+    AllTypeEntity entity = new AllTypeEntity();
+    entity.objectBoolean = seed % 2 == 0;
+    entity.primitiveBoolean = seed % 2 == 1;
+    entity.objectCharacter = (char) ('a' + seed % 26);
+    entity.primitiveCharacter = (char) ('A' + seed % 26);
+    entity.objectByte = (byte) seed;
+    entity.primitiveByte = (byte) -seed;
+    entity.objectShort = (short) seed;
+    entity.primitiveShort = (short) -seed;
+    entity.objectInt = seed;
+    entity.primitiveInt = -seed;
+    entity.objectLong = (long) seed * 31;
+    entity.primitiveLong = (long) -seed * 31;
+    entity.objectFloat = seed / 3f;
+    entity.primitiveFloat = -seed / 3f;
+    entity.objectDouble = seed / 7d;
+    entity.primitiveDouble = -seed / 7d;
+    entity.string = "entity-" + seed;
+    entity.stringDate = new Date(seed * 1000L);
+    entity.longDate = new Date(seed * 1000L);
+    entity.bytesArray = new byte[]{(byte) seed, (byte) (seed >> 8), (byte) (seed >> 16)};
+    return entity;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public String getString() {
+    return string;
+  }
+}
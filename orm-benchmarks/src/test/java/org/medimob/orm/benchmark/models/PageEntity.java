@@ -0,0 +1,44 @@
+package org.medimob.orm.benchmark.models;
+
+import org.medimob.orm.annotation.Id;
+import org.medimob.orm.annotation.Model;
+import org.medimob.orm.annotation.Property;
+
+/**
+ * Benchmark entity ordered by an indexed, non unique, score.
+ *
+ * Created by Poopaou on 20/02/2015.
+ */
+@Model
+public class PageEntity {
+
+  @Id
+  long id;
+  @Property(indexed = true)
+  int score;
+  @Property
+  String name;
+
+  /**
+   * Create a new entity.
+   *
+   * @param seed   values seed.
+   * @param scores distinct scores count.
+   * @return entity.
+   */
+  public static PageEntity create(int seed, int scores) {
+    PageEntity entity = new PageEntity();
+    // Scrambled : score order is not insertion order.
+    entity.score = (seed * 7919) % scores;
+    entity.name = "entity-" + seed;
+    return entity;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public int getScore() {
+    return score;
+  }
+}
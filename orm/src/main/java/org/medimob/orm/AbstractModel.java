@@ -4,30 +4,42 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import org.medimob.orm.internal.Session;
 import org.medimob.orm.internal.SqlUtils;
+import org.medimob.orm.internal.TypeUtils;
+import org.medimob.orm.query.PropertyResolver;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Entity model. Created by Poopaou on 23/01/2015.
  */
-public abstract class AbstractModel<T> {
+public abstract class AbstractModel<T> implements PropertyResolver {
+
+  // Max number of query shapes for which the rendered sql is kept.
+  private static final int QUERY_CACHE_SIZE = 32;
+  // Max number of dirty columns masks for which the update sql is kept.
+  private static final int DIRTY_UPDATE_CACHE_SIZE = 16;
+  private static final String[] NO_REFERENCES = new String[0];
+  // Multi rows VALUES requires SQLite 3.7.11.
+  private static final boolean MULTI_ROWS_INSERT =
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
 
   private final Session<T> session;
-  // Statements locks :
-  // ensure that database statements
-  // and binding are executed
-  // synchronously.
-  private final Object insertLock = new Object();
-  private final Object updateLock = new Object();
-  private final Object deleteLock = new Object();
+  private final Object schemaLock = new Object();
   // Entity attributes.
   private final String tableName;
   private final String[] queryColumns;
@@ -36,25 +48,40 @@ public abstract class AbstractModel<T> {
   private final String idColumn;
   private final String versionColumn;
   private final String idSelection;
+  private final String deleteByIdSql;
+  private final String existsByIdSql;
   private final ThreadLocal<String[]> selectArgsLocal;
-  // Database lazy compiled statements.
-  private SQLiteStatement insertStatement;
-  private SQLiteStatement updateStatement;
-  private SQLiteStatement deleteStatement;
-  private SQLiteStatement deleteByIdStatement;
+  private final Map<String, String> propertyColumns;
+  // Rendered criteria queries sql by query shape.
+  private final LruCache<String, String> queryCache;
+  // Dirty columns update sql by dirty mask.
+  private final LruCache<Long, String> dirtyUpdateSql;
+  // Full chunk batch insert sql.
+  private volatile String insertBatchSql;
   private OpenHelper helper;
+  private ChangeBus changeBus;
+  private volatile OrmMetrics metrics = OrmMetrics.NONE;
+  private volatile boolean schemaReady;
 
   protected AbstractModel(String tableName, String idColumn, String versionColumn,
-                          String[] queryColumns) {
+                          String[] queryColumns, Property[] properties) {
     this.tableName = tableName;
     this.idColumn = idColumn;
     this.idSelection = idColumn + "=?";
+    this.deleteByIdSql = SqlUtils.createSqlDelete(tableName, idColumn, null);
+    this.existsByIdSql = "SELECT count(*) FROM " + tableName + " WHERE " + idSelection;
     this.versionColumn = versionColumn;
 
     this.queryColumns = queryColumns;
+    this.propertyColumns = new HashMap<String, String>(properties.length);
+    for (Property property : properties) {
+      propertyColumns.put(property.getName(), property.getColumn());
+    }
 
     this.session = new Session<T>();
     this.selectArgsLocal = new ThreadLocal<String[]>();
+    this.queryCache = new LruCache<String, String>(QUERY_CACHE_SIZE);
+    this.dirtyUpdateSql = new LruCache<Long, String>(DIRTY_UPDATE_CACHE_SIZE);
   }
 
   private static long[] toPrimitive(List<Long> longs) {
@@ -67,12 +94,60 @@ public abstract class AbstractModel<T> {
 
   void attach(OpenHelper helper) {
     this.helper = helper;
+    this.changeBus = helper.getOrm().getChangeBus();
+  }
+
+  ChangeBus getChangeBus() {
+    return changeBus;
+  }
+
+  void setMetrics(OrmMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return model's table name.
+   */
+  @NonNull
+  public String getTableName() {
+    return tableName;
+  }
+
+  private long beginTransaction(SQLiteDatabase db) {
+    db.beginTransactionNonExclusive();
+    changeBus.beginTransaction();
+    metrics.onTransactionBegin(tableName);
+    return System.nanoTime();
+  }
+
+  private void setTransactionSuccessful(SQLiteDatabase db) {
+    db.setTransactionSuccessful();
+    changeBus.setTransactionSuccessful();
+  }
+
+  // Changes are published once the outermost transaction is committed.
+  private void endTransaction(SQLiteDatabase db, long start) {
+    boolean ended = false;
+    try {
+      db.endTransaction();
+      ended = true;
+    } finally {
+      changeBus.endTransaction(ended);
+      metrics.onTransactionEnd(tableName, System.nanoTime() - start);
+    }
+  }
+
+  private void onStatement(OrmMetrics.Operation operation, String sql, int rows, long start) {
+    metrics.onStatement(operation, tableName, sql, rows, System.nanoTime() - start);
   }
 
   private SQLiteDatabase getWritableDatabase() {
     if (helper == null) {
       throw new IllegalStateException("Model must be get through Orm instance.");
     }
+    if (!schemaReady) {
+      ensureSchema();
+    }
     return helper.getWritableDatabase();
   }
 
@@ -80,9 +155,63 @@ public abstract class AbstractModel<T> {
     if (helper == null) {
       throw new IllegalStateException("Model must be get through Orm instance.");
     }
+    if (!schemaReady) {
+      ensureSchema();
+    }
     return helper.getReadableDatabase();
   }
 
+  // Lazy schema : create the table on first use.
+  private void ensureSchema() {
+    synchronized (schemaLock) {
+      if (schemaReady) {
+        return;
+      }
+      if (helper.isLazySchema()) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (!SchemaMigrator.tableExists(db, tableName)) {
+          db.beginTransactionNonExclusive();
+          try {
+            helper.createTable(db, this);
+            db.setTransactionSuccessful();
+          } finally {
+            db.endTransaction();
+          }
+        }
+      }
+      schemaReady = true;
+    }
+  }
+
+  /**
+   * Open the database, create the table if needed, compile the calling thread's write statements
+   * and fill the session with the most recent rows if a strong cache tier is configured.
+   */
+  void warmup() {
+    SQLiteDatabase db = getWritableDatabase();
+    helper.getStatement(db, getInsertStatement());
+    helper.getStatement(db, getUpdateStatement());
+    helper.getStatement(db, getDeleteStatement());
+    helper.getStatement(db, deleteByIdSql);
+    int limit = session.getMaxSize();
+    if (limit > 0) {
+      long start = System.nanoTime();
+      // Most recent rows first.
+      Cursor cursor = db.query(tableName, queryColumns, null, null, null, null,
+                               idColumn + " DESC", String.valueOf(limit));
+      try {
+        while (cursor.moveToNext()) {
+          T entity = newInstance();
+          readCursor(entity, cursor);
+          session.put(getId(entity), entity, snapshot(entity));
+        }
+      } finally {
+        onStatement(OrmMetrics.Operation.QUERY, null, cursor.getCount(), start);
+        cursor.close();
+      }
+    }
+  }
+
   /**
    * Raw query for single result (result will not be cached).
    *
@@ -105,18 +234,20 @@ public abstract class AbstractModel<T> {
    */
   public T rawQuerySingle(@NonNull String selection,
                           @Nullable String[] selectionArg, @Nullable String having) {
+    long start = System.nanoTime();
     SQLiteDatabase db = getReadableDatabase();
     Cursor cursor =
         db.query(tableName, queryColumns, selection, selectionArg, null, having, null, "1");
+    T entity = null;
     try {
       if (cursor.moveToFirst()) {
-        T entity = newInstance();
+        entity = newInstance();
         readCursor(entity, cursor);
-        return entity;
       }
-      return null;
+      return entity;
     } finally {
       cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, selection, entity != null ? 1 : 0, start);
     }
   }
 
@@ -150,27 +281,439 @@ public abstract class AbstractModel<T> {
                           @Nullable String[] selectionArg, @Nullable String groupBy,
                           @Nullable String having, @Nullable String orderBy,
                           @Nullable String limit) {
+    long start = System.nanoTime();
     SQLiteDatabase db = getReadableDatabase();
     Cursor cursor =
         db.query(tableName, queryColumns, selection, selectionArg, groupBy, having, orderBy, limit);
+    return readAll(cursor, selection, start);
+  }
+
+  /**
+   * Raw query returning a lazy cursor iterator (result will not be cached). Entities are read one
+   * row at a time, the iterator must be closed if it is not fully consumed.
+   *
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @return result iterator.
+   */
+  @NonNull
+  public CursorIterator<T> rawQueryIterator(@NonNull String selection,
+                                            @Nullable String[] selectionArg,
+                                            @Nullable String orderBy, @Nullable String limit) {
+    return rawQueryIterator(selection, selectionArg, null, null, orderBy, limit);
+  }
+
+  /**
+   * Raw query returning a lazy cursor iterator (result will not be cached). Entities are read one
+   * row at a time, the iterator must be closed if it is not fully consumed.
+   *
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param groupBy      groupBy clause.
+   * @param having       having clause.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @return result iterator.
+   */
+  @NonNull
+  public CursorIterator<T> rawQueryIterator(@NonNull String selection,
+                                            @Nullable String[] selectionArg,
+                                            @Nullable String groupBy, @Nullable String having,
+                                            @Nullable String orderBy, @Nullable String limit) {
+    long start = System.nanoTime();
+    SQLiteDatabase db = getReadableDatabase();
+    Cursor cursor =
+        db.query(tableName, queryColumns, selection, selectionArg, groupBy, having, orderBy, limit);
+    return new CursorIterator<T>(this, cursor, selection, start, null);
+  }
+
+  /**
+   * Columnar query : read a single property of all matching rows into a primitive array.
+   *
+   * @param property     property name.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @return values (null values are read as 0).
+   */
+  @NonNull
+  public long[] queryLongColumn(@NonNull String property, @Nullable String selection,
+                                @Nullable String[] selectionArg, @Nullable String orderBy,
+                                @Nullable String limit) {
+    long start = System.nanoTime();
+    Cursor cursor = queryColumn(property, selection, selectionArg, orderBy, limit);
+    long[] values = null;
+    try {
+      values = TypeUtils.getLongColumn(cursor, 0);
+      return values;
+    } finally {
+      cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, selection, values != null ? values.length : 0,
+                  start);
+    }
+  }
+
+  /**
+   * Columnar query : read a single property of all matching rows into a primitive array.
+   *
+   * @param property     property name.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @return values (null values are read as 0).
+   */
+  @NonNull
+  public double[] queryDoubleColumn(@NonNull String property, @Nullable String selection,
+                                    @Nullable String[] selectionArg, @Nullable String orderBy,
+                                    @Nullable String limit) {
+    long start = System.nanoTime();
+    Cursor cursor = queryColumn(property, selection, selectionArg, orderBy, limit);
+    double[] values = null;
+    try {
+      values = TypeUtils.getDoubleColumn(cursor, 0);
+      return values;
+    } finally {
+      cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, selection, values != null ? values.length : 0,
+                  start);
+    }
+  }
+
+  private Cursor queryColumn(String property, String selection, String[] selectionArg,
+                             String orderBy, String limit) {
+    String[] columns = new String[]{resolveColumnForProperty(property)};
+    SQLiteDatabase db = getReadableDatabase();
+    return db.query(tableName, columns, selection, selectionArg, null, null, orderBy, limit);
+  }
+
+  /**
+   * Create a new criteria query.
+   *
+   * @return query.
+   */
+  @NonNull
+  public Query<T> createQuery() {
+    return new Query<T>(this);
+  }
+
+  List<T> query(Query<T> query) {
+    return query(query, (CancellationSignal) null);
+  }
+
+  List<T> query(Query<T> query, @Nullable CancellationSignal signal) {
+    return query(query, query.getLimit(), signal);
+  }
+
+  /**
+   * @param query  query.
+   * @param limit  limit replacing the query's one (the query is not modified), or null.
+   * @param signal cancellation signal or null.
+   * @return results.
+   */
+  List<T> query(Query<T> query, @Nullable String limit, @Nullable CancellationSignal signal) {
+    long start = System.nanoTime();
+    String sql = getQuerySql(query, limit);
+    return readAll(getReadableDatabase().rawQuery(sql, query.getArgs(), signal), sql, start);
+  }
+
+  CursorIterator<T> iterate(Query<T> query, @Nullable CancellationSignal signal) {
+    long start = System.nanoTime();
+    String sql = getQuerySql(query, query.getLimit());
+    Cursor cursor = getReadableDatabase().rawQuery(sql, query.getArgs(), signal);
+    return new CursorIterator<T>(this, cursor, sql, start, signal);
+  }
+
+  <P> List<P> query(Query<T> query, Class<P> clazz) {
+    AbstractProjection<P> projection = getProjection(clazz);
+    long start = System.nanoTime();
+    String key = clazz.getName() + '|' + query.getKey();
+    String sql = queryCache.get(key);
+    if (sql == null) {
+      sql = query.toSql(tableName, projection.getColumns(), this);
+      queryCache.put(key, sql);
+    }
+    Cursor cursor = getReadableDatabase().rawQuery(sql, query.getArgs());
+    return readAll(projection, cursor, sql, start);
+  }
+
+  Page<T> page(Query<T> query, @Nullable String token, int size,
+               @Nullable CancellationSignal signal) {
+    if (size <= 0) {
+      throw new OrmException("Page size must be positive");
+    }
+    if (!query.isPageable()) {
+      throw new OrmException("Paged queries cannot have a limit nor group rows");
+    }
+    long start = System.nanoTime();
+    List<String> order = query.getOrderBy();
+    int keyCount = order.size() / 2;
+    Object[] last = token != null ? Page.decodeToken(token, keyCount + 1) : null;
+
+    // Sql depends on the query shape, the page size and the null keys of the token.
+    StringBuilder key = new StringBuilder("page|").append(size).append('|');
+    if (last != null) {
+      for (int i = 0; i < keyCount; i++) {
+        key.append(last[i] == null ? 'n' : 'v');
+      }
+    }
+    key.append('|').append(query.getKey());
+    String sql = queryCache.get(key.toString());
+    if (sql == null) {
+      String[] columns = Arrays.copyOf(queryColumns, queryColumns.length + keyCount);
+      for (int i = 0; i < keyCount; i++) {
+        columns[queryColumns.length + i] = resolveColumnForProperty(order.get(i * 2));
+      }
+      // Fetch one more row to know if there is a next page.
+      sql = query.toSql(tableName, columns, this, last != null ? getSeekSql(order, last) : null,
+                        idColumn + " ASC", String.valueOf(size + 1));
+      queryCache.put(key.toString(), sql);
+    }
+    String[] args = query.getArgs();
+    if (last != null) {
+      args = getSeekArgs(args, order, last);
+    }
+
+    List<T> results = new ArrayList<T>(size);
+    String nextToken = null;
+    Cursor cursor = getReadableDatabase().rawQuery(sql, args, signal);
+    try {
+      while (results.size() < size && cursor.moveToNext()) {
+        T entity = newInstance();
+        readCursor(entity, cursor);
+        results.add(entity);
+      }
+      if (cursor.getCount() > size) {
+        Object[] values = new Object[keyCount + 1];
+        for (int i = 0; i < keyCount; i++) {
+          values[i] = getSortKey(cursor, queryColumns.length + i);
+        }
+        values[keyCount] = getId(results.get(size - 1));
+        nextToken = Page.encodeToken(values);
+      }
+    } finally {
+      cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, sql, results.size(), start);
+    }
+    return new Page<T>(results, nextToken);
+  }
+
+  // Rows after the last row : (k1 > ?) OR (k1 = ? AND k2 > ?) ... OR (k1 = ? ... AND id > ?).
+  // SQLite of older Android versions does not support row values comparisons.
+  private String getSeekSql(List<String> order, Object[] last) {
+    int keyCount = order.size() / 2;
+    StringBuilder sql = new StringBuilder();
+    if (keyCount > 0) {
+      // Leading key range (index usable), the disjunction below only refines it.
+      String column = resolveColumnForProperty(order.get(0));
+      boolean desc = "DESC".equals(order.get(1));
+      if (desc) {
+        sql.append(last[0] == null ? column + " IS NULL"
+                                   : "(" + column + "<=? OR " + column + " IS NULL)")
+            .append(" AND ");
+      } else if (last[0] != null) {
+        sql.append(column).append(">=? AND ");
+      }
+    }
+    sql.append('(');
+    boolean first = true;
+    for (int i = 0; i <= keyCount; i++) {
+      String after;
+      if (i == keyCount) {
+        after = idColumn + ">?";
+      } else {
+        String column = resolveColumnForProperty(order.get(i * 2));
+        boolean desc = "DESC".equals(order.get(i * 2 + 1));
+        if (last[i] == null) {
+          // Nulls sort first : after null are not null values (ascending) or nothing (descending).
+          if (desc) {
+            continue;
+          }
+          after = column + " IS NOT NULL";
+        } else {
+          after = desc ? "(" + column + "<? OR " + column + " IS NULL)" : column + ">?";
+        }
+      }
+      if (!first) {
+        sql.append(" OR ");
+      }
+      first = false;
+      sql.append('(');
+      for (int j = 0; j < i; j++) {
+        String column = resolveColumnForProperty(order.get(j * 2));
+        sql.append(column).append(last[j] == null ? " IS NULL" : "=?").append(" AND ");
+      }
+      sql.append(after).append(')');
+    }
+    return sql.append(')').toString();
+  }
+
+  // Arguments in getSeekSql order.
+  private static String[] getSeekArgs(String[] queryArgs, List<String> order, Object[] last) {
+    int keyCount = order.size() / 2;
+    List<String> args = new ArrayList<String>(Arrays.asList(queryArgs));
+    if (keyCount > 0 && last[0] != null) {
+      // Leading key range.
+      args.add(last[0].toString());
+    }
+    for (int i = 0; i <= keyCount; i++) {
+      if (i < keyCount && last[i] == null && "DESC".equals(order.get(i * 2 + 1))) {
+        continue;
+      }
+      for (int j = 0; j < i; j++) {
+        if (last[j] != null) {
+          args.add(last[j].toString());
+        }
+      }
+      if (last[i] != null) {
+        args.add(last[i].toString());
+      }
+    }
+    return args.toArray(new String[args.size()]);
+  }
+
+  private static Object getSortKey(Cursor cursor, int index) {
+    switch (cursor.getType(index)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return null;
+      case Cursor.FIELD_TYPE_INTEGER:
+        return cursor.getLong(index);
+      case Cursor.FIELD_TYPE_FLOAT:
+        return cursor.getDouble(index);
+      case Cursor.FIELD_TYPE_STRING:
+        return cursor.getString(index);
+      default:
+        throw new OrmException("Cannot page on blob property");
+    }
+  }
+
+  long[] queryIds(Query<T> query) {
+    long start = System.nanoTime();
+    String key = "ids|" + query.getKey();
+    String sql = queryCache.get(key);
+    if (sql == null) {
+      sql = query.toSql(tableName, new String[]{idColumn}, this);
+      queryCache.put(key, sql);
+    }
+    Cursor cursor = getReadableDatabase().rawQuery(sql, query.getArgs());
+    try {
+      long[] ids = new long[cursor.getCount()];
+      int i = 0;
+      while (cursor.moveToNext()) {
+        ids[i++] = cursor.getLong(0);
+      }
+      return ids;
+    } finally {
+      onStatement(OrmMetrics.Operation.QUERY, sql, cursor.getCount(), start);
+      cursor.close();
+    }
+  }
+
+  /**
+   * Projection query : only the projection's columns are selected and hydrated (see
+   * {@link org.medimob.orm.annotation.Projection}, results will not be cached).
+   *
+   * @param clazz        projection class.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <P>          projection type.
+   * @return results.
+   */
+  @NonNull
+  public <P> List<P> queryProjection(@NonNull Class<P> clazz, @Nullable String selection,
+                                     @Nullable String[] selectionArg, @Nullable String orderBy,
+                                     @Nullable String limit) {
+    AbstractProjection<P> projection = getProjection(clazz);
+    long start = System.nanoTime();
+    SQLiteDatabase db = getReadableDatabase();
+    Cursor cursor = db.query(tableName, projection.getColumns(), selection, selectionArg, null,
+                             null, orderBy, limit);
+    return readAll(projection, cursor, selection, start);
+  }
+
+  private <P> AbstractProjection<P> getProjection(Class<P> clazz) {
+    if (helper == null) {
+      throw new IllegalStateException("Model must be get through Orm instance.");
+    }
+    AbstractProjection<P> projection = helper.getOrm().getProjection(clazz);
+    if (!tableName.equals(projection.getTableName())) {
+      throw new OrmException(clazz.getName() + " is not a projection of table " + tableName);
+    }
+    return projection;
+  }
+
+  private <P> List<P> readAll(AbstractProjection<P> projection, Cursor cursor, String sql,
+                              long start) {
+    List<P> results = Collections.emptyList();
+    try {
+      if (cursor.moveToFirst()) {
+        results = new ArrayList<P>(cursor.getCount());
+        do {
+          P entity = projection.newInstance();
+          projection.readCursor(entity, cursor);
+          results.add(entity);
+        }
+        while (cursor.moveToNext());
+      }
+      return results;
+    } finally {
+      cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, sql, results.size(), start);
+    }
+  }
+
+  private String getQuerySql(Query<T> query, @Nullable String limit) {
+    String key = query.getKey(limit);
+    String sql = queryCache.get(key);
+    if (sql == null) {
+      sql = query.toSql(tableName, queryColumns, this, null, null, limit);
+      queryCache.put(key, sql);
+    }
+    return sql;
+  }
+
+  private List<T> readAll(Cursor cursor, String sql, long start) {
+    List<T> results = Collections.emptyList();
     try {
       if (cursor.moveToFirst()) {
-        List<T> results = new ArrayList<T>(cursor.getCount());
+        results = new ArrayList<T>(cursor.getCount());
         do {
           T entity = newInstance();
           readCursor(entity, cursor);
           results.add(entity);
         }
         while (cursor.moveToNext());
-
-        return results;
       }
-      return Collections.emptyList();
+      return results;
     } finally {
       cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, sql, results.size(), start);
     }
   }
 
+  void onIteratorClosed(String sql, int rows, long start) {
+    onStatement(OrmMetrics.Operation.QUERY, sql, rows, start);
+  }
+
+  @Override
+  public String resolveColumnForProperty(String property) {
+    String column = propertyColumns.get(property);
+    if (column == null) {
+      throw new OrmException("Unknown property " + property + " for table " + tableName);
+    }
+    return column;
+  }
+
+  @Override
+  public String resolveIdColumn() {
+    return idColumn;
+  }
+
   /**
    * Load entity by id (result will be cached).
    *
@@ -180,9 +723,12 @@ public abstract class AbstractModel<T> {
   public T loadById(long id) {
     T entity = session.get(id);
     if (entity != null) {
+      metrics.onSessionHit(tableName);
       return entity;
     }
+    metrics.onSessionMiss(tableName);
     // Cache miss. Load entity from db.
+    long start = System.nanoTime();
     String[] args = getIdSelectArgs();
     args[0] = String.valueOf(id);
     SQLiteDatabase db = getReadableDatabase();
@@ -191,12 +737,165 @@ public abstract class AbstractModel<T> {
       if (cursor.moveToFirst()) {
         entity = newInstance();
         readCursor(entity, cursor);
-        session.put(id, entity);
+        session.put(id, entity, snapshot(entity));
       }
       return entity;
     } finally {
       cursor.close();
+      onStatement(OrmMetrics.Operation.QUERY, idSelection, entity != null ? 1 : 0, start);
+    }
+  }
+
+  /**
+   * Load entities by ids (results will be cached). Cached entities are served from the session,
+   * the others are fetched with <code>IN (...)</code> queries of at most
+   * {@link SqlUtils#MAX_BIND_ARGS} ids.
+   *
+   * @param ids entities ids.
+   * @return entities in ids order, null for not found entities.
+   */
+  @NonNull
+  public List<T> loadByIds(@NonNull long... ids) {
+    List<T> results = new ArrayList<T>(ids.length);
+    long[] misses = new long[ids.length];
+    int missCount = 0;
+    for (long id : ids) {
+      T entity = session.get(id);
+      results.add(entity);
+      if (entity == null) {
+        metrics.onSessionMiss(tableName);
+        misses[missCount++] = id;
+      } else {
+        metrics.onSessionHit(tableName);
+      }
+    }
+    if (missCount == 0) {
+      return results;
+    }
+    // Cache misses. Load entities from db.
+    LongSparseArray<T> loaded = new LongSparseArray<T>(missCount);
+    SQLiteDatabase db = getReadableDatabase();
+    for (int start = 0; start < missCount; start += SqlUtils.MAX_BIND_ARGS) {
+      int count = Math.min(SqlUtils.MAX_BIND_ARGS, missCount - start);
+      String[] args = new String[count];
+      for (int i = 0; i < count; i++) {
+        args[i] = String.valueOf(misses[start + i]);
+      }
+      long queryStart = System.nanoTime();
+      String sql = getSelectInSql(count);
+      Cursor cursor = db.rawQuery(sql, args);
+      try {
+        while (cursor.moveToNext()) {
+          T entity = newInstance();
+          readCursor(entity, cursor);
+          long id = getId(entity);
+          session.put(id, entity, snapshot(entity));
+          loaded.put(id, entity);
+        }
+      } finally {
+        onStatement(OrmMetrics.Operation.QUERY, sql, cursor.getCount(), queryStart);
+        cursor.close();
+      }
+    }
+    for (int i = 0; i < ids.length; i++) {
+      if (results.get(i) == null) {
+        results.set(i, loaded.get(ids[i]));
+      }
     }
+    return results;
+  }
+
+  /**
+   * Load entities by ids (see {@link #loadByIds(long...)}), refreshed entities are re-fetched
+   * whether they are cached or not.
+   *
+   * @param ids       entities ids.
+   * @param refreshed changed entities ids.
+   * @return entities in ids order, null for not found entities.
+   */
+  List<T> reloadByIds(long[] ids, Collection<Long> refreshed) {
+    session.remove(refreshed);
+    return loadByIds(ids);
+  }
+
+  /**
+   * Fetch entities references (see {@link org.medimob.orm.annotation.Reference#field()}) :
+   * referenced ids are collected per referenced model and loaded with
+   * {@link #loadByIds(long...)} (session hits, then one <code>IN (...)</code> query per
+   * {@link SqlUtils#MAX_BIND_ARGS} misses), then set on the entities. Ids 0 are not references.
+   *
+   * @param entities   entities.
+   * @param properties references properties (all fetched references if empty).
+   * @throws OrmException if a property is not a fetched reference.
+   */
+  public void fetchReferences(@NonNull List<T> entities, @NonNull String... properties) {
+    String[] references = getReferenceProperties();
+    int[] indexes;
+    if (properties.length == 0) {
+      indexes = new int[references.length];
+      for (int i = 0; i < indexes.length; i++) {
+        indexes[i] = i;
+      }
+    } else {
+      indexes = new int[properties.length];
+      for (int i = 0; i < properties.length; i++) {
+        indexes[i] = Arrays.asList(references).indexOf(properties[i]);
+        if (indexes[i] < 0) {
+          throw new OrmException(
+              "Property " + properties[i] + " is not a fetched reference of table " + tableName);
+        }
+      }
+    }
+    if (indexes.length == 0 || entities.isEmpty()) {
+      return;
+    }
+
+    // Distinct referenced ids per model.
+    Class<?>[] models = getReferenceModels();
+    Map<Class<?>, LongSparseArray<Object>> referenced =
+        new HashMap<Class<?>, LongSparseArray<Object>>();
+    for (int index : indexes) {
+      LongSparseArray<Object> ids = referenced.get(models[index]);
+      if (ids == null) {
+        ids = new LongSparseArray<Object>();
+        referenced.put(models[index], ids);
+      }
+      for (T entity : entities) {
+        long id = getReferenceId(entity, index);
+        if (id != 0) {
+          ids.put(id, null);
+        }
+      }
+    }
+    for (Map.Entry<Class<?>, LongSparseArray<Object>> entry : referenced.entrySet()) {
+      LongSparseArray<Object> ids = entry.getValue();
+      long[] keys = new long[ids.size()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = ids.keyAt(i);
+      }
+      List<?> loaded = helper.getOrm().getRepository(entry.getKey()).loadByIds(keys);
+      for (int i = 0; i < keys.length; i++) {
+        ids.setValueAt(i, loaded.get(i));
+      }
+    }
+
+    for (int index : indexes) {
+      LongSparseArray<Object> ids = referenced.get(models[index]);
+      for (T entity : entities) {
+        long id = getReferenceId(entity, index);
+        setReference(entity, index, id != 0 ? ids.get(id) : null);
+      }
+    }
+  }
+
+  private String getSelectInSql(int count) {
+    String key = "loadByIds|" + count;
+    String sql = queryCache.get(key);
+    if (sql == null) {
+      sql = SqlUtils.createSqlSelectIn(tableName, queryColumns, idColumn, count);
+      queryCache.put(key, sql);
+    }
+    return sql;
   }
 
   private String[] getIdSelectArgs() {
@@ -227,29 +926,25 @@ public abstract class AbstractModel<T> {
   public long[] insertInTx(@NonNull Iterable<T> entities) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (insertLock) {
+      ArrayList<Long> ids = new ArrayList<Long>();
+      for (T entity : entities) {
+        ids.add(insertInternal(db, entity));
+      }
+      return toPrimitive(ids);
+    } else {
+      long txStart = beginTransaction(db);
+      try {
         ArrayList<Long> ids = new ArrayList<Long>();
         for (T entity : entities) {
-          ids.add(insertInsideSynchronized(db, entity));
+          ids.add(insertInternal(db, entity));
         }
+        setTransactionSuccessful(db);
         return toPrimitive(ids);
-      }
-    } else {
-      db.beginTransaction();
-      synchronized (insertLock) {
-        try {
-          ArrayList<Long> ids = new ArrayList<Long>();
-          for (T entity : entities) {
-            ids.add(insertInsideSynchronized(db, entity));
-          }
-          db.setTransactionSuccessful();
-          return toPrimitive(ids);
-        } catch (SQLiteException e) {
-          OrmLog.e("Insert failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
-        }
+      } catch (SQLiteException e) {
+        OrmLog.e("Insert failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
@@ -263,22 +958,18 @@ public abstract class AbstractModel<T> {
   public long insertInTx(@NonNull T entity) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (insertLock) {
-        return insertInsideSynchronized(db, entity);
-      }
+      return insertInternal(db, entity);
     } else {
-      db.beginTransaction();
-      synchronized (insertLock) {
-        try {
-          long id = insertInsideSynchronized(db, entity);
-          db.setTransactionSuccessful();
-          return id;
-        } catch (SQLiteException e) {
-          OrmLog.e("Insert failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
-        }
+      long txStart = beginTransaction(db);
+      try {
+        long id = insertInternal(db, entity);
+        setTransactionSuccessful(db);
+        return id;
+      } catch (SQLiteException e) {
+        OrmLog.e("Insert failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
@@ -290,21 +981,193 @@ public abstract class AbstractModel<T> {
    * @return entity ids.
    */
   public long insert(@NonNull T entity) {
-    synchronized (insertLock) {
-      SQLiteDatabase db = getWritableDatabase();
-      return insertInsideSynchronized(db, entity);
-    }
+    SQLiteDatabase db = getWritableDatabase();
+    return insertInternal(db, entity);
   }
 
-  private long insertInsideSynchronized(SQLiteDatabase db, T entity) {
+  private long insertInternal(SQLiteDatabase db, T entity) {
     if (getId(entity) > 0) {
       throw new OrmException("Entity is not new");
     }
-    if (insertStatement == null) {
-      insertStatement = db.compileStatement(getInsertStatement());
+    long start = System.nanoTime();
+    SQLiteStatement statement = helper.getStatement(db, getInsertStatement());
+    bindInsert(statement, entity);
+    long id = statement.executeInsert();
+    onStatement(OrmMetrics.Operation.INSERT, getInsertStatement(), 1, start);
+    changeBus.onWrite(tableName, id);
+    return id;
+  }
+
+  /**
+   * Insert or update entities inside transaction : new entities (id not set) are inserted,
+   * entities with an id are inserted or, if the row exists, updated (without version check, the
+   * version is incremented). Updated entities are removed from the session.
+   *
+   * One statement is executed per entity with SQLite 3.24+ (<code>INSERT ... ON CONFLICT DO
+   * UPDATE</code>), an update then, if no row is updated, an insert with older versions.
+   *
+   * @param entities entities to upsert.
+   * @return entities ids.
+   */
+  public long[] upsertInTx(@NonNull Iterable<T> entities) {
+    SQLiteDatabase db = getWritableDatabase();
+    if (db.isDbLockedByCurrentThread()) {
+      ArrayList<Long> ids = new ArrayList<Long>();
+      for (T entity : entities) {
+        ids.add(upsertInternal(db, entity));
+      }
+      return toPrimitive(ids);
+    } else {
+      long txStart = beginTransaction(db);
+      try {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        for (T entity : entities) {
+          ids.add(upsertInternal(db, entity));
+        }
+        setTransactionSuccessful(db);
+        return toPrimitive(ids);
+      } catch (SQLiteException e) {
+        OrmLog.e("Upsert failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
+      }
+    }
+  }
+
+  /**
+   * Insert or update entity without transaction (see {@link #upsertInTx(Iterable)}).
+   *
+   * @param entity entity to upsert.
+   * @return entity id.
+   */
+  public long upsert(@NonNull T entity) {
+    SQLiteDatabase db = getWritableDatabase();
+    return upsertInternal(db, entity);
+  }
+
+  private long upsertInternal(SQLiteDatabase db, T entity) {
+    long id = getId(entity);
+    if (id <= 0) {
+      return insertInternal(db, entity);
+    }
+    long start = System.nanoTime();
+    if (helper.isUpsertSupported(db)) {
+      SQLiteStatement statement = helper.getStatement(db, getUpsertStatement());
+      bindUpsert(statement, entity, true);
+      statement.executeInsert();
+      onStatement(OrmMetrics.Operation.INSERT, getUpsertStatement(), 1, start);
+    } else {
+      SQLiteStatement statement = helper.getStatement(db, getUpsertUpdateStatement());
+      bindUpsert(statement, entity, false);
+      int rows = statement.executeUpdateDelete();
+      onStatement(OrmMetrics.Operation.UPDATE, getUpsertUpdateStatement(), rows, start);
+      if (rows == 0) {
+        start = System.nanoTime();
+        statement = helper.getStatement(db, getUpsertInsertStatement());
+        bindUpsert(statement, entity, true);
+        statement.executeInsert();
+        onStatement(OrmMetrics.Operation.INSERT, getUpsertInsertStatement(), 1, start);
+      }
+    }
+    // The cached entity (if any) is stale : its version is not the database's one.
+    session.remove(id);
+    changeBus.onWrite(tableName, id);
+    return id;
+  }
+
+  /**
+   * Insert entities inside transaction using multi rows insert statements. Entities are inserted
+   * by chunks of {@link #getInsertBatchSize()} rows, ids are resolved from the last inserted row
+   * id of each chunk.
+   * <p>
+   * A single insert statement allocates consecutive row ids (max(rowid) + 1, or the sqlite
+   * sequence with AUTOINCREMENT) as the entities are new (no explicit id) and the database is
+   * write locked. Tables having an <code>ON CONFLICT IGNORE</code> or <code>REPLACE</code> clause
+   * (on a column or a table constraint) would skip ids, they are inserted row by row and ignored
+   * rows get -1, as with {@link #insert(Object)}. Ids are
+   * not resolvable once the max rowid has been used (sqlite then picks random row ids).
+   * <p>
+   * Multi rows <code>VALUES</code> requires SQLite 3.7.11 (API 16), entities are inserted row by
+   * row on older platforms.
+   *
+   * @param entities entities to insert.
+   * @return entities ids.
+   */
+  public long[] insertBatchInTx(@NonNull Iterable<T> entities) {
+    List<T> list = new ArrayList<T>();
+    for (T entity : entities) {
+      list.add(entity);
+    }
+    SQLiteDatabase db = getWritableDatabase();
+    if (db.isDbLockedByCurrentThread()) {
+      return insertBatchInternal(db, list);
+    } else {
+      long txStart = beginTransaction(db);
+      try {
+        long[] ids = insertBatchInternal(db, list);
+        setTransactionSuccessful(db);
+        return ids;
+      } catch (SQLiteException e) {
+        OrmLog.e("Batch insert failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
+      }
+    }
+  }
+
+  private long[] insertBatchInternal(SQLiteDatabase db, List<T> entities) {
+    final int batchSize = MULTI_ROWS_INSERT ? getInsertBatchSize() : 1;
+    final int size = entities.size();
+    long[] ids = new long[size];
+    int offset = 0;
+    while (offset < size) {
+      int rows = Math.min(batchSize, size - offset);
+      // Full chunks statement is pooled, the last
+      // (smaller) chunk statement is compiled once.
+      boolean full = rows == batchSize;
+      long start = System.nanoTime();
+      String sql;
+      SQLiteStatement statement;
+      if (full) {
+        sql = insertBatchSql;
+        if (sql == null) {
+          sql = getInsertBatchStatement(batchSize);
+          insertBatchSql = sql;
+        }
+        statement = helper.getStatement(db, sql);
+      } else {
+        sql = getInsertBatchStatement(rows);
+        statement = db.compileStatement(sql);
+      }
+      try {
+        for (int row = 0; row < rows; row++) {
+          T entity = entities.get(offset + row);
+          if (getId(entity) > 0) {
+            throw new OrmException("Entity is not new");
+          }
+          bindInsertBatch(statement, entity, row);
+        }
+        long lastId = statement.executeInsert();
+        if (rows == 1) {
+          // -1 when the row has been ignored.
+          ids[offset] = lastId;
+        } else {
+          for (int row = 0; row < rows; row++) {
+            ids[offset + row] = lastId - rows + 1 + row;
+          }
+        }
+        onStatement(OrmMetrics.Operation.INSERT, sql, rows, start);
+      } finally {
+        if (!full) {
+          statement.close();
+        }
+      }
+      offset += rows;
     }
-    bindInsert(insertStatement, entity);
-    return insertStatement.executeInsert();
+    changeBus.onWrite(tableName, ids);
+    return ids;
   }
 
   /**
@@ -326,89 +1189,122 @@ public abstract class AbstractModel<T> {
   public int updateInTx(@NonNull Iterable<T> entities) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (updateLock) {
+      int count = 0;
+      for (T entity : entities) {
+        updateInternal(db, entity);
+        count++;
+      }
+      return count;
+    } else {
+      long txStart = beginTransaction(db);
+      try {
         int count = 0;
         for (T entity : entities) {
-          updateInsideSynchronized(db, entity);
+          updateInternal(db, entity);
           count++;
         }
+        setTransactionSuccessful(db);
         return count;
-      }
-    } else {
-      db.beginTransaction();
-      synchronized (updateLock) {
-        try {
-          int count = 0;
-          for (T entity : entities) {
-            updateInsideSynchronized(db, entity);
-            count++;
-          }
-          db.setTransactionSuccessful();
-          return count;
-        } catch (SQLiteException e) {
-          OrmLog.e("Update failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
-        }
+      } catch (SQLiteException e) {
+        OrmLog.e("Update failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
 
   /**
-   * Update entity inside transaction.
+   * Update entity inside transaction. If a transaction is already open on db, the update joins
+   * it : use {@link Orm#runInTransaction(Runnable)} to open it, so that the change is published
+   * on commit only (see {@link ChangeBus}).
    *
    * @param db     database.
    * @param entity entity to update.
    * @return true if entity has been updated.
+   * @throws OrmException if the row doesn't exist or its version changed.
    */
   public boolean updateInTx(SQLiteDatabase db, T entity) {
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (updateLock) {
-        return updateInsideSynchronized(db, entity);
-      }
+      return updateInternal(db, entity);
     } else {
-      db.beginTransaction();
-      synchronized (updateLock) {
-        try {
-          if (updateInsideSynchronized(db, entity)) {
-            db.setTransactionSuccessful();
-            return true;
-          }
-          return false;
-        } catch (SQLiteException e) {
-          OrmLog.e("update error", e);
-          throw e;
-        } finally {
-          db.endTransaction();
+      long txStart = beginTransaction(db);
+      try {
+        if (updateInternal(db, entity)) {
+          setTransactionSuccessful(db);
+          return true;
         }
+        return false;
+      } catch (SQLiteException e) {
+        OrmLog.e("update error", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
 
   /**
-   * Update entity without transaction.
+   * Update entity without transaction. Session entities of dirty tracking models only write
+   * their changed columns, and unchanged entities of unversioned models write nothing (the row
+   * existence is still checked). The updated session entity stays cached, unless the model is
+   * versioned : its version is incremented in the database only, reload it to update it again.
    *
    * @param entity entity to update.
    * @return true if entity has been updated.
+   * @throws OrmException if the row doesn't exist or its version changed.
    */
   public boolean update(@NonNull T entity) {
-    synchronized (updateLock) {
-      SQLiteDatabase db = getWritableDatabase();
-      return updateInsideSynchronized(db, entity);
-    }
+    SQLiteDatabase db = getWritableDatabase();
+    return updateInternal(db, entity);
   }
 
-  private boolean updateInsideSynchronized(SQLiteDatabase db, T entity) {
-    if (updateStatement == null) {
-      updateStatement = db.compileStatement(getUpdateStatement());
+  private boolean updateInternal(SQLiteDatabase db, T entity) {
+    long start = System.nanoTime();
+    long id = getId(entity);
+    // Dirty tracking : only changed columns of session loaded entities are written.
+    Object[] snapshot = session.getSnapshot(id, entity);
+    long mask = snapshot != null ? getDirtyMask(entity, snapshot) : -1L;
+    if (mask == 0 && versionColumn == null) {
+      // Nothing to write, the row must still exist.
+      SQLiteStatement exists = helper.getStatement(db, existsByIdSql);
+      exists.bindLong(1, id);
+      long count = exists.simpleQueryForLong();
+      onStatement(OrmMetrics.Operation.QUERY, existsByIdSql, (int) count, start);
+      if (count == 0) {
+        throw new OrmException("Wrong id or model version, cannot update");
+      }
+      return true;
     }
 
-    bindUpdate(updateStatement, entity);
-    if (updateStatement.executeUpdateDelete() == 0) {
+    SQLiteStatement statement;
+    String sql;
+    if (snapshot == null || Long.bitCount(mask) == getUpdateColumns().length) {
+      sql = getUpdateStatement();
+      statement = helper.getStatement(db, sql);
+      bindUpdate(statement, entity);
+    } else {
+      sql = dirtyUpdateSql.get(mask);
+      if (sql == null) {
+        sql = SqlUtils.createSqlUpdate(tableName, getUpdateColumns(), mask, idColumn,
+                                       versionColumn);
+        dirtyUpdateSql.put(mask, sql);
+      }
+      statement = helper.getStatement(db, sql);
+      bindUpdate(statement, entity, mask);
+    }
+    int rows = statement.executeUpdateDelete();
+    onStatement(OrmMetrics.Operation.UPDATE, sql, rows, start);
+    if (rows == 0) {
       throw new OrmException("Wrong id or model version, cannot update");
     }
-    session.remove(getId(entity));
+    // The session entity holds the written values and keeps its loaded snapshot : if the
+    // transaction is rolled back, its next update still writes the changed columns.
+    if (versionColumn != null || !session.contains(id, entity)) {
+      // Stale cached entity, or versioned entity whose version has been incremented.
+      session.remove(id);
+    }
+    changeBus.onWrite(tableName, id);
     return true;
   }
 
@@ -420,14 +1316,12 @@ public abstract class AbstractModel<T> {
    */
   public int deleteById(@NonNull long... ids) {
     SQLiteDatabase db = getWritableDatabase();
-    synchronized (deleteLock) {
-      int count = 0;
-      for (long id : ids) {
-        deleteInsideSynchronized(db, id);
-        count++;
-      }
-      return count;
+    int count = 0;
+    for (long id : ids) {
+      deleteInternal(db, id);
+      count++;
     }
+    return count;
   }
 
   /**
@@ -439,31 +1333,27 @@ public abstract class AbstractModel<T> {
   public int deleteByIdInTx(@NonNull long... ids) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (deleteLock) {
+      int count = 0;
+      for (long id : ids) {
+        deleteInternal(db, id);
+        count++;
+      }
+      return count;
+    } else {
+      long txStart = beginTransaction(db);
+      try {
         int count = 0;
         for (long id : ids) {
-          deleteInsideSynchronized(db, id);
+          deleteInternal(db, id);
           count++;
         }
+        setTransactionSuccessful(db);
         return count;
-      }
-    } else {
-      db.beginTransaction();
-      synchronized (deleteLock) {
-        try {
-          int count = 0;
-          for (long id : ids) {
-            deleteInsideSynchronized(db, id);
-            count++;
-          }
-          db.setTransactionSuccessful();
-          return count;
-        } catch (SQLiteException e) {
-          OrmLog.e("Delete failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
-        }
+      } catch (SQLiteException e) {
+        OrmLog.e("Delete failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
@@ -487,31 +1377,27 @@ public abstract class AbstractModel<T> {
   public int deleteInTx(@NonNull Iterable<T> entities) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (deleteLock) {
+      int count = 0;
+      for (T entity : entities) {
+        deleteInternal(db, entity);
+        count++;
+      }
+      return count;
+    } else {
+      long txStart = beginTransaction(db);
+      try {
         int count = 0;
         for (T entity : entities) {
-          deleteInsideSynchronized(db, entity);
+          deleteInternal(db, entity);
           count++;
         }
+        setTransactionSuccessful(db);
         return count;
-      }
-    } else {
-      db.beginTransaction();
-      synchronized (deleteLock) {
-        try {
-          int count = 0;
-          for (T entity : entities) {
-            deleteInsideSynchronized(db, entity);
-            count++;
-          }
-          db.setTransactionSuccessful();
-          return count;
-        } catch (SQLiteException e) {
-          OrmLog.e("Delete failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
-        }
+      } catch (SQLiteException e) {
+        OrmLog.e("Delete failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
@@ -525,24 +1411,20 @@ public abstract class AbstractModel<T> {
   public boolean deleteInTx(@NonNull T entity) {
     SQLiteDatabase db = getWritableDatabase();
     if (db.isDbLockedByCurrentThread()) {
-      synchronized (deleteLock) {
-        return deleteInsideSynchronized(db, entity);
-      }
+      return deleteInternal(db, entity);
     } else {
-      db.beginTransaction();
-      synchronized (deleteLock) {
-        try {
-          if (deleteInsideSynchronized(db, entity)) {
-            db.setTransactionSuccessful();
-            return true;
-          }
-          return false;
-        } catch (SQLiteException e) {
-          OrmLog.e("Delete failed, transaction failed", e);
-          throw e;
-        } finally {
-          db.endTransaction();
+      long txStart = beginTransaction(db);
+      try {
+        if (deleteInternal(db, entity)) {
+          setTransactionSuccessful(db);
+          return true;
         }
+        return false;
+      } catch (SQLiteException e) {
+        OrmLog.e("Delete failed, transaction failed", e);
+        throw e;
+      } finally {
+        endTransaction(db, txStart);
       }
     }
   }
@@ -555,36 +1437,62 @@ public abstract class AbstractModel<T> {
    */
   public boolean delete(@NonNull T entity) {
     SQLiteDatabase db = getWritableDatabase();
-    synchronized (deleteLock) {
-      return deleteInsideSynchronized(db, entity);
-    }
+    return deleteInternal(db, entity);
   }
 
-  private boolean deleteInsideSynchronized(SQLiteDatabase db, T entity) {
-    if (deleteStatement == null) {
-      deleteStatement = db.compileStatement(getDeleteStatement());
-    }
-    bindDelete(deleteStatement, entity);
-    if (deleteStatement.executeUpdateDelete() == 1) {
-      session.remove(getId(entity));
+  private boolean deleteInternal(SQLiteDatabase db, T entity) {
+    long start = System.nanoTime();
+    SQLiteStatement statement = helper.getStatement(db, getDeleteStatement());
+    bindDelete(statement, entity);
+    int rows = statement.executeUpdateDelete();
+    onStatement(OrmMetrics.Operation.DELETE, getDeleteStatement(), rows, start);
+    if (rows == 1) {
+      long id = getId(entity);
+      session.remove(id);
+      changeBus.onWrite(tableName, id);
       return true;
     }
     return false;
   }
 
-  private boolean deleteInsideSynchronized(SQLiteDatabase db, long id) {
-    if (deleteByIdStatement == null) {
-      final String sql = SqlUtils.createSqlDelete(tableName, idColumn, null);
-      deleteByIdStatement = db.compileStatement(sql);
-    }
-    deleteStatement.bindLong(1, id);
-    if (deleteStatement.executeUpdateDelete() == 1) {
+  private boolean deleteInternal(SQLiteDatabase db, long id) {
+    long start = System.nanoTime();
+    SQLiteStatement statement = helper.getStatement(db, deleteByIdSql);
+    statement.bindLong(1, id);
+    int rows = statement.executeUpdateDelete();
+    onStatement(OrmMetrics.Operation.DELETE, deleteByIdSql, rows, start);
+    if (rows == 1) {
       session.remove(id);
+      changeBus.onWrite(tableName, id);
       return true;
     }
     return false;
   }
 
+  /**
+   * Configure the entity session cache.
+   *
+   * @param config cache configuration.
+   */
+  public void configureCache(@NonNull CacheConfig<T> config) {
+    session.configure(config);
+  }
+
+  /**
+   * Remove all entities from the session : next loads read the database.
+   */
+  public void clearSession() {
+    session.clear();
+  }
+
+  /**
+   * @return entity session cache statistics.
+   */
+  @NonNull
+  public CacheStats getCacheStats() {
+    return session.getStats();
+  }
+
   /**
    * @return true if version is enabled.
    */
@@ -604,14 +1512,123 @@ public abstract class AbstractModel<T> {
 
   protected abstract void onCreate(SQLiteDatabase db);
 
+  /**
+   * @return table columns definitions (id column first).
+   */
+  protected abstract String[] getColumnDefinitions();
+
+  /**
+   * @return table indexes and triggers statements.
+   */
+  protected abstract String[] getSchemaStatements();
+
+  /**
+   * @return generated schema fingerprint (changes with the table, indexes or triggers statements).
+   */
+  protected abstract String getSchemaFingerprint();
+
   protected abstract String getInsertStatement();
 
   protected abstract void bindInsert(SQLiteStatement statement, T entity);
 
+  /**
+   * @return max rows count of a multi rows insert statement.
+   */
+  protected abstract int getInsertBatchSize();
+
+  protected abstract String getInsertBatchStatement(int rows);
+
+  protected abstract void bindInsertBatch(SQLiteStatement statement, T entity, int row);
+
   protected abstract String getUpdateStatement();
 
+  protected abstract String getUpsertStatement();
+
+  protected abstract String getUpsertInsertStatement();
+
+  protected abstract String getUpsertUpdateStatement();
+
+  /**
+   * Bind upsert arguments : id, inserted and updated columns then, if insert is true, inserted
+   * only columns.
+   *
+   * @param statement upsert statement.
+   * @param entity    entity.
+   * @param insert    true for insert statements.
+   */
+  protected abstract void bindUpsert(SQLiteStatement statement, T entity, boolean insert);
+
+  /**
+   * @return update statement's columns (dirty tracking models only).
+   */
+  protected String[] getUpdateColumns() {
+    return null;
+  }
+
+  /**
+   * Snapshot entity's update columns values (dirty tracking models only).
+   *
+   * @param entity loaded entity.
+   * @return values or null if dirty tracking is disabled.
+   */
+  protected Object[] snapshot(T entity) {
+    return null;
+  }
+
+  /**
+   * @param entity   entity.
+   * @param snapshot entity's loaded values.
+   * @return changed update columns mask (bit i is set if update column i changed).
+   */
+  protected long getDirtyMask(T entity, Object[] snapshot) {
+    return -1L;
+  }
+
+  /**
+   * Bind dirty update columns then id and version arguments.
+   *
+   * @param statement dirty columns update statement.
+   * @param entity    entity.
+   * @param mask      dirty columns mask.
+   */
+  protected void bindUpdate(SQLiteStatement statement, T entity, long mask) {
+    bindUpdate(statement, entity);
+  }
+
   protected abstract void bindUpdate(SQLiteStatement statement, T entity);
 
+  /**
+   * @return fetched references properties (see {@link org.medimob.orm.annotation.Reference}).
+   */
+  protected String[] getReferenceProperties() {
+    return NO_REFERENCES;
+  }
+
+  /**
+   * @return fetched references models (same order as {@link #getReferenceProperties()}).
+   */
+  protected Class<?>[] getReferenceModels() {
+    return null;
+  }
+
+  /**
+   * @param entity entity.
+   * @param index  fetched reference index.
+   * @return referenced entity id (0 if none).
+   */
+  protected long getReferenceId(T entity, int index) {
+    throw new IndexOutOfBoundsException(String.valueOf(index));
+  }
+
+  /**
+   * @param entity    entity.
+   * @param index     fetched reference index.
+   * @param reference referenced entity or null.
+   */
+  protected void setReference(T entity, int index, Object reference) {
+    throw new IndexOutOfBoundsException(String.valueOf(index));
+  }
+
   protected abstract String getDeleteStatement();
 
   protected abstract void bindDelete(SQLiteStatement statement, T entity);
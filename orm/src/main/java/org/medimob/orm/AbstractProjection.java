@@ -0,0 +1,47 @@
+package org.medimob.orm;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+/**
+ * Projection reader (see {@link org.medimob.orm.annotation.Projection}) : only the projection's
+ * columns are selected and hydrated. Projections are not cached in the model's session.
+ *
+ * Created by Poopaou on 13/02/2015.
+ */
+public abstract class AbstractProjection<P> {
+
+  private final Class<?> modelClass;
+  private final String tableName;
+  private final String[] columns;
+
+  protected AbstractProjection(Class<?> modelClass, String tableName, String[] columns) {
+    this.modelClass = modelClass;
+    this.tableName = tableName;
+    this.columns = columns;
+  }
+
+  /**
+   * @return projected model's entity class.
+   */
+  @NonNull
+  public Class<?> getModelClass() {
+    return modelClass;
+  }
+
+  /**
+   * @return projected model's table name.
+   */
+  @NonNull
+  public String getTableName() {
+    return tableName;
+  }
+
+  String[] getColumns() {
+    return columns;
+  }
+
+  protected abstract P newInstance();
+
+  protected abstract void readCursor(P projection, Cursor cursor);
+}
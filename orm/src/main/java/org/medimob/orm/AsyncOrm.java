@@ -0,0 +1,432 @@
+package org.medimob.orm;
+
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of {@link Orm}. Tasks are executed on the executor of their lane :
+ * <ul>
+ * <li>{@link Lane#INTERACTIVE} : user visible reads (loads, queries, pages);</li>
+ * <li>{@link Lane#BULK} : background writes and iterations.</li>
+ * </ul>
+ * Interactive tasks get ahead of bulk tasks by delaying them only : a bulk task waits before
+ * starting while interactive tasks are pending or running, at most
+ * {@link #MAX_BULK_DELAY_MILLIS} milliseconds, and blocks the bulk thread while waiting. Bulk tasks
+ * are neither preempted nor reordered, and a running bulk transaction still blocks readers unless
+ * write ahead logging is enabled (see {@link DatabaseConfig#setWriteAheadLogging(Boolean)}).
+ *
+ * Futures are cancellable : a cancelled task is never started, or its cancellation signal aborts
+ * the running query or cursor iteration.
+ *
+ * Created by Poopaou on 20/02/2015.
+ */
+public final class AsyncOrm {
+
+  public static final long MAX_BULK_DELAY_MILLIS = 100;
+  public static final int DEFAULT_INTERACTIVE_THREADS = 2;
+
+  private final Orm orm;
+  private final Executor interactiveExecutor;
+  private final Executor bulkExecutor;
+  // Default executors, shutdown with the orm.
+  private final ThreadPoolExecutor[] ownedExecutors;
+  private final Object gate = new Object();
+  // Pending or running interactive tasks (guarded by gate).
+  private int interactiveCount;
+
+  /**
+   * @param orm                 orm.
+   * @param interactiveExecutor interactive lane executor.
+   * @param bulkExecutor        bulk lane executor.
+   */
+  public AsyncOrm(@NonNull Orm orm, @NonNull Executor interactiveExecutor,
+                  @NonNull Executor bulkExecutor) {
+    this(orm, interactiveExecutor, bulkExecutor, new ThreadPoolExecutor[0]);
+  }
+
+  private AsyncOrm(Orm orm, Executor interactiveExecutor, Executor bulkExecutor,
+                   ThreadPoolExecutor[] ownedExecutors) {
+    this.orm = orm;
+    this.interactiveExecutor = interactiveExecutor;
+    this.bulkExecutor = bulkExecutor;
+    this.ownedExecutors = ownedExecutors;
+  }
+
+  /**
+   * Create the default executors : {@link #DEFAULT_INTERACTIVE_THREADS} interactive threads and
+   * one low priority bulk thread.
+   *
+   * @param orm orm.
+   * @return async facade.
+   */
+  static AsyncOrm withDefaultExecutors(Orm orm) {
+    ThreadPoolExecutor interactive = newLaneExecutor(
+        DEFAULT_INTERACTIVE_THREADS,
+        new LaneThreadFactory("orm-interactive", Thread.NORM_PRIORITY));
+    ThreadPoolExecutor bulk =
+        newLaneExecutor(1, new LaneThreadFactory("orm-bulk", Thread.MIN_PRIORITY));
+    return new AsyncOrm(orm, interactive, bulk, new ThreadPoolExecutor[]{interactive, bulk});
+  }
+
+  private static ThreadPoolExecutor newLaneExecutor(int threads, ThreadFactory factory) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                  new LinkedBlockingQueue<Runnable>(), factory);
+  }
+
+  /**
+   * Shutdown the default executors (see {@link Orm#close()}) : running tasks complete, queued
+   * tasks are cancelled. Custom executors are left to their owner.
+   */
+  void shutdown() {
+    for (ThreadPoolExecutor executor : ownedExecutors) {
+      executor.shutdown();
+      // Cancelled tasks are dequeued without running.
+      for (Runnable task : executor.getQueue()) {
+        if (task instanceof Future) {
+          ((Future<?>) task).cancel(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for the running tasks of the default executors to complete, after {@link #shutdown()}.
+   *
+   * @param timeout max wait time.
+   * @param unit    timeout unit.
+   * @return true if the default executors are terminated.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ThreadPoolExecutor executor : ownedExecutors) {
+      long remaining = deadline - System.nanoTime();
+      if (!executor.awaitTermination(Math.max(0L, remaining), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Submit a task.
+   *
+   * @param lane task lane.
+   * @param task task.
+   * @param <V>  result type.
+   * @return cancellable future.
+   */
+  @NonNull
+  public <V> Future<V> submit(@NonNull final Lane lane, @NonNull final Task<V> task) {
+    final CancellationSignal signal = new CancellationSignal();
+    OrmFuture<V> future = new OrmFuture<V>(new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        if (lane == Lane.BULK) {
+          awaitInteractiveTasks();
+        }
+        signal.throwIfCanceled();
+        return task.run(orm, signal);
+      }
+    }, lane, signal);
+    if (lane == Lane.INTERACTIVE) {
+      synchronized (gate) {
+        interactiveCount++;
+      }
+      try {
+        interactiveExecutor.execute(future);
+      } catch (RejectedExecutionException e) {
+        onInteractiveTaskDone();
+        throw e;
+      }
+    } else {
+      bulkExecutor.execute(future);
+    }
+    return future;
+  }
+
+  /**
+   * Load entity by id on the interactive lane (see {@link Orm#loadById(Class, long)}).
+   *
+   * @param clazz data class.
+   * @param id    entity id.
+   * @param <T>   class type
+   * @return future completed with the entity or null.
+   */
+  @NonNull
+  public <T> Future<T> loadById(@NonNull final Class<T> clazz, final long id) {
+    return submit(Lane.INTERACTIVE, new Task<T>() {
+      @Override
+      public T run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return orm.loadById(clazz, id);
+      }
+    });
+  }
+
+  /**
+   * Load entities by ids on the interactive lane (see {@link Orm#loadByIds(Class, long...)}).
+   *
+   * @param clazz data class.
+   * @param ids   entities ids.
+   * @param <T>   class type
+   * @return future completed with the entities in ids order.
+   */
+  @NonNull
+  public <T> Future<List<T>> loadByIds(@NonNull final Class<T> clazz,
+                                       @NonNull final long... ids) {
+    return submit(Lane.INTERACTIVE, new Task<List<T>>() {
+      @Override
+      public List<T> run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return orm.loadByIds(clazz, ids);
+      }
+    });
+  }
+
+  /**
+   * Execute query on the interactive lane (see {@link Query#query(CancellationSignal)}).
+   *
+   * @param query query (not to be modified until completion).
+   * @param <T>   class type
+   * @return future completed with the results.
+   */
+  @NonNull
+  public <T> Future<List<T>> query(@NonNull final Query<T> query) {
+    return submit(Lane.INTERACTIVE, new Task<List<T>>() {
+      @Override
+      public List<T> run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return query.query(signal);
+      }
+    });
+  }
+
+  /**
+   * Execute a query page on the interactive lane (see
+   * {@link Query#page(String, int, CancellationSignal)}).
+   *
+   * @param query query (not to be modified until completion).
+   * @param token previous page's next token or null.
+   * @param size  page size.
+   * @param <T>   class type
+   * @return future completed with the page.
+   */
+  @NonNull
+  public <T> Future<Page<T>> page(@NonNull final Query<T> query, @Nullable final String token,
+                                  final int size) {
+    return submit(Lane.INTERACTIVE, new Task<Page<T>>() {
+      @Override
+      public Page<T> run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return query.page(token, size, signal);
+      }
+    });
+  }
+
+  /**
+   * Iterate query results on the bulk lane (see {@link Query#iterate(CancellationSignal)}) :
+   * cancelling the future aborts the iteration.
+   *
+   * @param query    query (not to be modified until completion).
+   * @param callback rows callback (called on the bulk executor).
+   * @param <T>      class type
+   * @return future completed with the rows count.
+   */
+  @NonNull
+  public <T> Future<Integer> iterate(@NonNull final Query<T> query,
+                                     @NonNull final RowCallback<T> callback) {
+    return submit(Lane.BULK, new Task<Integer>() {
+      @Override
+      public Integer run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        int rows = 0;
+        CursorIterator<T> iterator = query.iterate(signal);
+        try {
+          while (iterator.hasNext()) {
+            callback.onRow(iterator.next());
+            rows++;
+          }
+        } finally {
+          iterator.close();
+        }
+        return rows;
+      }
+    });
+  }
+
+  /**
+   * Insert entities in one transaction on the bulk lane (see
+   * {@link Orm#insertBatchInTx(Class, Iterable)}).
+   *
+   * @param clazz    data class.
+   * @param entities entities to insert.
+   * @param <T>      class type
+   * @return future completed with the entities ids.
+   */
+  @NonNull
+  public <T> Future<long[]> insertInTx(@NonNull final Class<T> clazz,
+                                       @NonNull final Iterable<T> entities) {
+    return submit(Lane.BULK, new Task<long[]>() {
+      @Override
+      public long[] run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return orm.insertBatchInTx(clazz, entities);
+      }
+    });
+  }
+
+  /**
+   * Update entities in one transaction on the bulk lane (see
+   * {@link Orm#updateInTx(Class, Iterable)}).
+   *
+   * @param clazz    data class.
+   * @param entities entities to update.
+   * @param <T>      class type
+   * @return future completed with the update count.
+   */
+  @NonNull
+  public <T> Future<Integer> updateInTx(@NonNull final Class<T> clazz,
+                                        @NonNull final Iterable<T> entities) {
+    return submit(Lane.BULK, new Task<Integer>() {
+      @Override
+      public Integer run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return orm.updateInTx(clazz, entities);
+      }
+    });
+  }
+
+  /**
+   * Delete entities by ids in one transaction on the bulk lane (see
+   * {@link Orm#deleteByIdInTx(Class, long...)}).
+   *
+   * @param clazz data class.
+   * @param ids   entities to delete ids.
+   * @param <T>   class type
+   * @return future completed with the delete count.
+   */
+  @NonNull
+  public <T> Future<Integer> deleteByIdInTx(@NonNull final Class<T> clazz,
+                                            @NonNull final long... ids) {
+    return submit(Lane.BULK, new Task<Integer>() {
+      @Override
+      public Integer run(@NonNull Orm orm, @NonNull CancellationSignal signal) {
+        return orm.deleteByIdInTx(clazz, ids);
+      }
+    });
+  }
+
+  private void awaitInteractiveTasks() {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BULK_DELAY_MILLIS);
+    synchronized (gate) {
+      long remaining;
+      while (interactiveCount > 0
+             && (remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+        try {
+          gate.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void onInteractiveTaskDone() {
+    synchronized (gate) {
+      if (--interactiveCount == 0) {
+        gate.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Executor lanes.
+   */
+  public enum Lane {
+    INTERACTIVE,
+    BULK
+  }
+
+  /**
+   * Asynchronous task.
+   */
+  public interface Task<V> {
+
+    /**
+     * Run the task. Long running tasks should pass the signal to queries or check it.
+     *
+     * @param orm    orm.
+     * @param signal task's cancellation signal (cancelled with the future).
+     * @return result.
+     */
+    V run(@NonNull Orm orm, @NonNull CancellationSignal signal);
+  }
+
+  /**
+   * Iterated rows callback.
+   */
+  public interface RowCallback<T> {
+
+    void onRow(@NonNull T entity);
+  }
+
+  /**
+   * Task future : cancelling the future cancels its signal.
+   */
+  private final class OrmFuture<V> extends FutureTask<V> {
+
+    private final Lane lane;
+    private final CancellationSignal signal;
+
+    OrmFuture(Callable<V> callable, Lane lane, CancellationSignal signal) {
+      super(callable);
+      this.lane = lane;
+      this.signal = signal;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        signal.cancel();
+      }
+      return cancelled;
+    }
+
+    @Override
+    protected void done() {
+      // Completed, failed or cancelled (even if never started).
+      if (lane == Lane.INTERACTIVE) {
+        onInteractiveTaskDone();
+      }
+    }
+  }
+
+  private static final class LaneThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final int priority;
+    private final AtomicInteger count = new AtomicInteger();
+
+    LaneThreadFactory(String name, int priority) {
+      this.name = name;
+      this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(@NonNull Runnable runnable) {
+      Thread thread = new Thread(runnable, name + '-' + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Entity session cache configuration. By default only the weak identity map is used, setting a
+ * max size enables a strong reference LRU tier which keeps the most recently used entities from
+ * being garbage collected.
+ *
+ * Created by Poopaou on 07/02/2015.
+ */
+public final class CacheConfig<T> {
+
+  private int maxSize;
+  private long ttlMillis;
+  private Sizer<T> sizer;
+
+  public CacheConfig() {
+  }
+
+  /**
+   * Strong LRU tier max size (entities count, or sum of entities size if a sizer is set). Zero
+   * disables the strong tier.
+   *
+   * @param maxSize max size.
+   * @return this.
+   */
+  public CacheConfig<T> setMaxSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * Strong LRU tier entries time to live. Zero means no expiration.
+   *
+   * @param ttlMillis time to live in milliseconds.
+   * @return this.
+   */
+  public CacheConfig<T> setTtlMillis(long ttlMillis) {
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must be positive");
+    }
+    this.ttlMillis = ttlMillis;
+    return this;
+  }
+
+  /**
+   * Entity size function (size-aware eviction). By default each entity counts as 1.
+   *
+   * @param sizer size function.
+   * @return this.
+   */
+  public CacheConfig<T> setSizer(@Nullable Sizer<T> sizer) {
+    this.sizer = sizer;
+    return this;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  @Nullable
+  public Sizer<T> getSizer() {
+    return sizer;
+  }
+
+  /**
+   * Entity size function. The size is computed when the entity is cached and kept until it is
+   * evicted, later changes of the entity don't resize it.
+   */
+  public interface Sizer<T> {
+
+    /**
+     * @param entity cached entity.
+     * @return entity size (must be positive).
+     */
+    int sizeOf(@NonNull T entity);
+  }
+}
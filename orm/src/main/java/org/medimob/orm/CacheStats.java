@@ -0,0 +1,49 @@
+package org.medimob.orm;
+
+/**
+ * Entity session cache statistics snapshot.
+ *
+ * Created by Poopaou on 07/02/2015.
+ */
+public final class CacheStats {
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final int size;
+
+  public CacheStats(long hitCount, long missCount, long evictionCount, int size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * @return strong LRU tier evictions count.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return strong LRU tier current size.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats{" + "hitCount=" + hitCount + ", missCount=" + missCount
+           + ", evictionCount=" + evictionCount + ", size=" + size + '}';
+  }
+}
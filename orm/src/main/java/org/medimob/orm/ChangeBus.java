@@ -0,0 +1,251 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Table change notification bus. Models report each written row, changes are published once the
+ * outermost transaction is committed (one notification per transaction), changes of rolled back
+ * transactions are dropped. Writes outside of any transaction are published immediately.
+ *
+ * Only transactions opened by the orm are tracked : group writes with
+ * {@link Orm#runInTransaction(Runnable)}. Writes inside a transaction opened directly on the
+ * database are published immediately, before the transaction outcome is known.
+ *
+ * Listeners are notified on the writing thread : they must return quickly (see
+ * {@link LiveQuery}).
+ *
+ * Created by Poopaou on 17/02/2015.
+ */
+public final class ChangeBus {
+
+  private final List<Registration> registrations;
+  private final ThreadLocal<PendingChanges> pendingLocal;
+
+  ChangeBus() {
+    registrations = new CopyOnWriteArrayList<Registration>();
+    pendingLocal = new ThreadLocal<PendingChanges>();
+  }
+
+  /**
+   * Register a listener.
+   *
+   * @param listener listener.
+   * @param tables   observed tables (all tables if empty).
+   */
+  public void register(@NonNull ChangeListener listener, @NonNull String... tables) {
+    Set<String> names = new HashSet<String>(tables.length);
+    for (String table : tables) {
+      names.add(table.toUpperCase(Locale.US));
+    }
+    registrations.add(new Registration(listener, names));
+  }
+
+  /**
+   * Unregister a listener.
+   *
+   * @param listener listener.
+   */
+  public void unregister(@NonNull ChangeListener listener) {
+    for (Registration registration : registrations) {
+      if (registration.listener == listener) {
+        registrations.remove(registration);
+      }
+    }
+  }
+
+  private PendingChanges pending() {
+    PendingChanges pending = pendingLocal.get();
+    if (pending == null) {
+      pending = new PendingChanges();
+      pendingLocal.set(pending);
+    }
+    return pending;
+  }
+
+  void beginTransaction() {
+    pending().begin();
+  }
+
+  void setTransactionSuccessful() {
+    pending().markSuccessful();
+  }
+
+  /**
+   * @param ended false if the transaction end failed.
+   */
+  void endTransaction(boolean ended) {
+    PendingChanges pending = pending();
+    if (pending.end(ended)) {
+      publish(pending.drain());
+    }
+  }
+
+  void onWrite(@NonNull String table, long id) {
+    onWrite(table, new long[]{id});
+  }
+
+  void onWrite(@NonNull String table, @NonNull long[] ids) {
+    if (registrations.isEmpty() || ids.length == 0) {
+      return;
+    }
+    PendingChanges pending = pending();
+    if (pending.depth == 0) {
+      // Auto commit.
+      long[] sorted = ids.clone();
+      Arrays.sort(sorted);
+      publish(Collections.singletonList(new TableChange(table, distinct(sorted, sorted.length))));
+    } else {
+      pending.add(table, ids);
+    }
+  }
+
+  private void publish(List<TableChange> changes) {
+    for (Registration registration : registrations) {
+      List<TableChange> filtered = registration.filter(changes);
+      if (filtered.isEmpty()) {
+        continue;
+      }
+      try {
+        registration.listener.onChange(filtered);
+      } catch (RuntimeException e) {
+        // Writes never fail because of a listener.
+        OrmLog.e("Change listener failed", e);
+      }
+    }
+  }
+
+  private static long[] distinct(long[] sorted, int size) {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (count == 0 || sorted[i] != sorted[count - 1]) {
+        sorted[count++] = sorted[i];
+      }
+    }
+    return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+  }
+
+  /**
+   * Tables changes listener.
+   */
+  public interface ChangeListener {
+
+    /**
+     * Called once a transaction is committed, with the changes of the observed tables.
+     *
+     * @param changes tables changes.
+     */
+    void onChange(@NonNull List<TableChange> changes);
+  }
+
+  private static final class Registration {
+
+    final ChangeListener listener;
+    final Set<String> tables;
+
+    Registration(ChangeListener listener, Set<String> tables) {
+      this.listener = listener;
+      this.tables = tables;
+    }
+
+    List<TableChange> filter(List<TableChange> changes) {
+      if (tables.isEmpty()) {
+        return changes;
+      }
+      List<TableChange> filtered = new ArrayList<TableChange>(changes.size());
+      for (TableChange change : changes) {
+        if (tables.contains(change.getTable().toUpperCase(Locale.US))) {
+          filtered.add(change);
+        }
+      }
+      return filtered;
+    }
+  }
+
+  // Thread's transactions state and changes.
+  private static final class PendingChanges {
+
+    final Map<String, IdBuffer> tables = new LinkedHashMap<String, IdBuffer>();
+    boolean[] successful = new boolean[4];
+    int depth;
+    boolean failed;
+
+    void begin() {
+      if (depth == successful.length) {
+        successful = Arrays.copyOf(successful, depth * 2);
+      }
+      successful[depth++] = false;
+    }
+
+    void markSuccessful() {
+      if (depth > 0) {
+        successful[depth - 1] = true;
+      }
+    }
+
+    // Returns true if the outermost transaction is committed with changes.
+    boolean end(boolean ended) {
+      if (depth == 0) {
+        return false;
+      }
+      depth--;
+      // A nested transaction not successful rolls back the outermost one.
+      if (!successful[depth] || !ended) {
+        failed = true;
+      }
+      if (depth > 0) {
+        return false;
+      }
+      boolean committed = !failed;
+      failed = false;
+      if (!committed) {
+        tables.clear();
+      }
+      return committed && !tables.isEmpty();
+    }
+
+    void add(String table, long[] ids) {
+      IdBuffer buffer = tables.get(table);
+      if (buffer == null) {
+        buffer = new IdBuffer();
+        tables.put(table, buffer);
+      }
+      buffer.add(ids);
+    }
+
+    List<TableChange> drain() {
+      List<TableChange> changes = new ArrayList<TableChange>(tables.size());
+      for (Map.Entry<String, IdBuffer> entry : tables.entrySet()) {
+        IdBuffer buffer = entry.getValue();
+        Arrays.sort(buffer.ids, 0, buffer.size);
+        changes.add(new TableChange(entry.getKey(), distinct(buffer.ids, buffer.size)));
+      }
+      tables.clear();
+      return changes;
+    }
+  }
+
+  private static final class IdBuffer {
+
+    long[] ids = new long[16];
+    int size;
+
+    void add(long[] added) {
+      if (size + added.length > ids.length) {
+        ids = Arrays.copyOf(ids, Math.max(size + added.length, size * 2));
+      }
+      System.arraycopy(added, 0, ids, size, added.length);
+      size += added.length;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.medimob.orm;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor backed result iterator. Entities are read one row at a time when {@link #next()} is
+ * called, the iterator never keeps a reference on returned entities (results will not be
+ * cached).
+ *
+ * The iterator is single-pass and {@link #iterator()} returns itself. The cursor is closed when
+ * the last row has been read, otherwise it must be closed by the caller. If the iterator has a
+ * cancellation signal, cancelling it aborts the iteration : the cursor is closed on the next
+ * {@link #hasNext()} call, which throws an {@link OperationCanceledException}.
+ *
+ * Created by Poopaou on 04/02/2015.
+ */
+public final class CursorIterator<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+  private final AbstractModel<T> model;
+  private final Cursor cursor;
+  private final String sql;
+  private final long start;
+  private final CancellationSignal signal;
+  private boolean moved;
+  private boolean hasNext;
+  private int rows;
+
+  CursorIterator(@NonNull AbstractModel<T> model, @NonNull Cursor cursor, String sql, long start,
+                 @Nullable CancellationSignal signal) {
+    this.model = model;
+    this.cursor = cursor;
+    this.sql = sql;
+    this.start = start;
+    this.signal = signal;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (signal != null && signal.isCanceled()) {
+      close();
+      throw new OperationCanceledException();
+    }
+    if (!moved) {
+      hasNext = !cursor.isClosed() && cursor.moveToNext();
+      moved = true;
+      if (!hasNext) {
+        close();
+      }
+    }
+    return hasNext;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    moved = false;
+    rows++;
+    T entity = model.newInstance();
+    model.readCursor(entity, cursor);
+    return entity;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Cursor iterator is read only");
+  }
+
+  @NonNull
+  @Override
+  public Iterator<T> iterator() {
+    return this;
+  }
+
+  /**
+   * @return true if the underlying cursor is closed.
+   */
+  public boolean isClosed() {
+    return cursor.isClosed();
+  }
+
+  @Override
+  public void close() {
+    if (!cursor.isClosed()) {
+      cursor.close();
+      model.onIteratorClosed(sql, rows, start);
+    }
+  }
+}
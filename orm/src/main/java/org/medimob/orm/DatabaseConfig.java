@@ -0,0 +1,335 @@
+package org.medimob.orm;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Database connection configuration : write-ahead logging, prepared statements cache size and
+ * SQLite pragmas. Unset values are taken from the tuning {@link Profile} (if any), or keep the
+ * Android / SQLite defaults.
+ *
+ * Values can be declared in the manifest meta-data (<code>orm.profile</code>,
+ * <code>orm.walEnabled</code>,
+ * <code>orm.statementCacheSize</code>, <code>orm.synchronous</code>, <code>orm.cacheSize</code>,
+ * <code>orm.mmapSize</code>, <code>orm.tempStore</code>, <code>orm.pageSize</code>) or passed to
+ * {@link Orm#getInstance(android.content.Context, DatabaseConfig)}.
+ *
+ * Pragmas are applied when the database is opened, on the primary (write) connection. With
+ * write-ahead logging, reads run on a pool of read connections sized by the platform, and are no
+ * longer blocked by write transactions. Android doesn't configure these connections : they keep
+ * the default <code>cache_size</code>, <code>temp_store</code> and <code>mmap_size</code>, which
+ * only apply to writes and to reads inside transactions. The write-ahead logging profile leaves
+ * them unset.
+ *
+ * Created by Poopaou on 15/02/2015.
+ */
+public final class DatabaseConfig {
+
+  // Sqlite max prepared statements cache size per connection (see SQLiteDatabase).
+  private static final int MAX_STATEMENT_CACHE_SIZE = 100;
+
+  private Profile profile;
+  private Boolean writeAheadLogging;
+  private int statementCacheSize;
+  private Synchronous synchronous;
+  private Integer cacheSize;
+  private Long mmapSize;
+  private TempStore tempStore;
+  private Integer pageSize;
+
+  public DatabaseConfig() {
+  }
+
+  /**
+   * Read configuration from the application meta-data.
+   *
+   * @param metaData application meta-data.
+   * @return configuration.
+   */
+  @NonNull
+  static DatabaseConfig fromMetaData(@Nullable Bundle metaData) {
+    DatabaseConfig config = new DatabaseConfig();
+    if (metaData == null) {
+      return config;
+    }
+    String profile = metaData.getString("orm.profile");
+    if (profile != null) {
+      config.setProfile(Profile.valueOf(profile.toUpperCase(Locale.US).replace('-', '_')));
+    }
+    if (metaData.containsKey("orm.walEnabled")) {
+      config.setWriteAheadLogging(metaData.getBoolean("orm.walEnabled"));
+    }
+    config.setStatementCacheSize(metaData.getInt("orm.statementCacheSize", 0));
+    String synchronous = metaData.getString("orm.synchronous");
+    if (synchronous != null) {
+      config.setSynchronous(Synchronous.valueOf(synchronous.toUpperCase(Locale.US)));
+    }
+    if (metaData.containsKey("orm.cacheSize")) {
+      config.setCacheSize(metaData.getInt("orm.cacheSize"));
+    }
+    if (metaData.containsKey("orm.mmapSize")) {
+      // Manifest meta-data integers are stored as int.
+      config.setMmapSize((long) metaData.getInt("orm.mmapSize"));
+    }
+    String tempStore = metaData.getString("orm.tempStore");
+    if (tempStore != null) {
+      config.setTempStore(TempStore.valueOf(tempStore.toUpperCase(Locale.US)));
+    }
+    if (metaData.containsKey("orm.pageSize")) {
+      config.setPageSize(metaData.getInt("orm.pageSize"));
+    }
+    return config;
+  }
+
+  /**
+   * Tuning profile providing the values which are not explicitly set.
+   *
+   * @param profile profile or null for none.
+   * @return this.
+   */
+  public DatabaseConfig setProfile(@Nullable Profile profile) {
+    this.profile = profile;
+    return this;
+  }
+
+  /**
+   * Enable write-ahead logging : readers use their own connections and are not blocked by
+   * writers.
+   *
+   * @param writeAheadLogging true to enable WAL journal mode, null for default.
+   * @return this.
+   */
+  public DatabaseConfig setWriteAheadLogging(@Nullable Boolean writeAheadLogging) {
+    this.writeAheadLogging = writeAheadLogging;
+    return this;
+  }
+
+  /**
+   * Prepared statements cache size of each connection (1 to 100). Zero keeps the default.
+   *
+   * @param statementCacheSize cache size.
+   * @return this.
+   */
+  public DatabaseConfig setStatementCacheSize(int statementCacheSize) {
+    if (statementCacheSize < 0 || statementCacheSize > MAX_STATEMENT_CACHE_SIZE) {
+      throw new IllegalArgumentException("statementCacheSize must be between 0 and "
+                                         + MAX_STATEMENT_CACHE_SIZE);
+    }
+    this.statementCacheSize = statementCacheSize;
+    return this;
+  }
+
+  /**
+   * <code>PRAGMA synchronous</code>. <code>NORMAL</code> is durable enough with write-ahead logging
+   * and much faster than <code>FULL</code>.
+   *
+   * @param synchronous synchronous mode or null for default.
+   * @return this.
+   */
+  public DatabaseConfig setSynchronous(@Nullable Synchronous synchronous) {
+    this.synchronous = synchronous;
+    return this;
+  }
+
+  /**
+   * <code>PRAGMA cache_size</code> : pages count if positive, KiB if negative (primary connection
+   * only).
+   *
+   * @param cacheSize page cache size or null for default.
+   * @return this.
+   */
+  public DatabaseConfig setCacheSize(@Nullable Integer cacheSize) {
+    this.cacheSize = cacheSize;
+    return this;
+  }
+
+  /**
+   * <code>PRAGMA mmap_size</code> : max bytes of the database file accessed through memory mapped
+   * I/O (zero disables it, ignored before SQLite 3.7.17, primary connection only).
+   *
+   * @param mmapSize memory map size or null for default.
+   * @return this.
+   */
+  public DatabaseConfig setMmapSize(@Nullable Long mmapSize) {
+    if (mmapSize != null && mmapSize < 0) {
+      throw new IllegalArgumentException("mmapSize must be positive");
+    }
+    this.mmapSize = mmapSize;
+    return this;
+  }
+
+  /**
+   * <code>PRAGMA temp_store</code> : temporary tables and indices storage (primary connection
+   * only).
+   *
+   * @param tempStore storage or null for default.
+   * @return this.
+   */
+  public DatabaseConfig setTempStore(@Nullable TempStore tempStore) {
+    this.tempStore = tempStore;
+    return this;
+  }
+
+  /**
+   * <code>PRAGMA page_size</code> (power of two between 512 and 65536). Only effective when the
+   * database file is created.
+   *
+   * @param pageSize page size or null for default.
+   * @return this.
+   */
+  public DatabaseConfig setPageSize(@Nullable Integer pageSize) {
+    if (pageSize != null
+        && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1)) {
+      throw new IllegalArgumentException("pageSize must be a power of two between 512 and 65536");
+    }
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  @Nullable
+  public Profile getProfile() {
+    return profile;
+  }
+
+  public boolean isWriteAheadLogging() {
+    if (writeAheadLogging != null) {
+      return writeAheadLogging;
+    }
+    return profile != null && profile.writeAheadLogging;
+  }
+
+  public int getStatementCacheSize() {
+    if (statementCacheSize > 0 || profile == null) {
+      return statementCacheSize;
+    }
+    return profile.statementCacheSize;
+  }
+
+  @Nullable
+  public Synchronous getSynchronous() {
+    return synchronous != null || profile == null ? synchronous : profile.synchronous;
+  }
+
+  @Nullable
+  public Integer getCacheSize() {
+    return cacheSize != null || profile == null ? cacheSize : profile.cacheSize;
+  }
+
+  @Nullable
+  public Long getMmapSize() {
+    return mmapSize != null || profile == null ? mmapSize : profile.mmapSize;
+  }
+
+  @Nullable
+  public TempStore getTempStore() {
+    return tempStore != null || profile == null ? tempStore : profile.tempStore;
+  }
+
+  @Nullable
+  public Integer getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Apply the configuration to a database connection (see
+   * {@link android.database.sqlite.SQLiteOpenHelper#onConfigure(SQLiteDatabase)}) : must not be
+   * called inside a transaction.
+   *
+   * @param db database.
+   */
+  public void configure(@NonNull SQLiteDatabase db) {
+    // Enabling WAL resets the synchronous mode : pragmas are set after.
+    if (isWriteAheadLogging()) {
+      db.enableWriteAheadLogging();
+    }
+    if (getStatementCacheSize() > 0) {
+      db.setMaxSqlCacheSize(getStatementCacheSize());
+    }
+    if (pageSize != null) {
+      db.setPageSize(pageSize);
+    }
+    Synchronous synchronousMode = getSynchronous();
+    if (synchronousMode != null) {
+      db.execSQL("PRAGMA synchronous=" + synchronousMode.name());
+    }
+    Integer cacheSizePages = getCacheSize();
+    if (cacheSizePages != null) {
+      db.execSQL("PRAGMA cache_size=" + cacheSizePages);
+    }
+    TempStore tempStoreMode = getTempStore();
+    if (tempStoreMode != null) {
+      db.execSQL("PRAGMA temp_store=" + tempStoreMode.name());
+    }
+    Long mmapBytes = getMmapSize();
+    if (mmapBytes != null) {
+      try {
+        // Returns the new size : cannot be executed with execSQL.
+        DatabaseUtils.longForQuery(db, "PRAGMA mmap_size=" + mmapBytes, null);
+      } catch (SQLiteException e) {
+        // Unknown pragma (SQLite < 3.7.17) returns no row.
+        OrmLog.e("Memory mapped I/O not supported", e);
+      }
+    }
+  }
+
+  /**
+   * Tuning profiles. The values are starting points from the SQLite documentation, they are
+   * unmeasured : <code>ProfileBenchmark</code> (benchmarks module) runs a single connection on the
+   * JVM sqlite, not concurrent readers on a device. Measure them with the application workload.
+   */
+  public enum Profile {
+    /**
+     * Large, mostly read databases : rollback journal so reads run on the configured connection,
+     * with an 8 MiB page cache, 64 MiB of memory mapped I/O and memory temporary storage (sorts).
+     * Write transactions block the reads, use {@link #WRITE_HEAVY} if writes are frequent.
+     */
+    READ_HEAVY(false, 50, null, -8192, 64L * 1024 * 1024, TempStore.MEMORY),
+    /**
+     * Frequent write transactions : write-ahead logging with <code>NORMAL</code> synchronous mode
+     * (no fsync on commit, only on checkpoints).
+     */
+    WRITE_HEAVY(true, 50, Synchronous.NORMAL, null, null, null),
+    /**
+     * Memory constrained devices : rollback journal (no WAL index shared memory, a single
+     * connection), 512 KiB page cache, no memory mapping and file temporary storage.
+     */
+    LOW_MEMORY(false, 10, Synchronous.FULL, -512, 0L, TempStore.FILE);
+
+    final boolean writeAheadLogging;
+    final int statementCacheSize;
+    final Synchronous synchronous;
+    final Integer cacheSize;
+    final Long mmapSize;
+    final TempStore tempStore;
+
+    Profile(boolean writeAheadLogging, int statementCacheSize, Synchronous synchronous,
+            Integer cacheSize, Long mmapSize, TempStore tempStore) {
+      this.writeAheadLogging = writeAheadLogging;
+      this.statementCacheSize = statementCacheSize;
+      this.synchronous = synchronous;
+      this.cacheSize = cacheSize;
+      this.mmapSize = mmapSize;
+      this.tempStore = tempStore;
+    }
+  }
+
+  /**
+   * <code>PRAGMA synchronous</code> modes.
+   */
+  public enum Synchronous {
+    OFF, NORMAL, FULL
+  }
+
+  /**
+   * <code>PRAGMA temp_store</code> modes.
+   */
+  public enum TempStore {
+    DEFAULT, FILE, MEMORY
+  }
+}
@@ -0,0 +1,188 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default in memory {@link OrmMetrics} implementation. Latencies and rows counts are recorded per
+ * table and operation in lock free {@link LatencyHistogram}s (nanoseconds), session hits and
+ * misses are counted per table.
+ *
+ * Created by Poopaou on 10/02/2015.
+ */
+public class InMemoryMetrics implements OrmMetrics {
+
+  private static final OrmMetrics.Operation[] OPERATIONS = OrmMetrics.Operation.values();
+
+  private final ConcurrentMap<String, TableMetrics> tables;
+
+  public InMemoryMetrics() {
+    tables = new ConcurrentHashMap<String, TableMetrics>();
+  }
+
+  private TableMetrics getTableMetrics(String table) {
+    TableMetrics metrics = tables.get(table);
+    if (metrics == null) {
+      metrics = new TableMetrics();
+      TableMetrics previous = tables.putIfAbsent(table, metrics);
+      if (previous != null) {
+        metrics = previous;
+      }
+    }
+    return metrics;
+  }
+
+  @Override
+  public void onStatement(@NonNull Operation operation, @NonNull String table,
+                          @Nullable String sql, int rows, long nanos) {
+    TableMetrics metrics = getTableMetrics(table);
+    metrics.latencies[operation.ordinal()].record(nanos);
+    if (rows > 0) {
+      metrics.rows[operation.ordinal()].addAndGet(rows);
+    }
+  }
+
+  @Override
+  public void onTransactionBegin(@NonNull String table) {
+    // Transactions are recorded when they end.
+  }
+
+  @Override
+  public void onTransactionEnd(@NonNull String table, long nanos) {
+    getTableMetrics(table).latencies[Operation.TRANSACTION.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void onSessionHit(@NonNull String table) {
+    getTableMetrics(table).sessionHits.incrementAndGet();
+  }
+
+  @Override
+  public void onSessionMiss(@NonNull String table) {
+    getTableMetrics(table).sessionMisses.incrementAndGet();
+  }
+
+  /**
+   * @return tables names for which metrics have been recorded (sorted).
+   */
+  @NonNull
+  public List<String> getTables() {
+    List<String> names = new ArrayList<String>(tables.keySet());
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * Gets table operation latencies (nanoseconds).
+   *
+   * @param table     table's name.
+   * @param operation operation.
+   * @return latencies or null if nothing has been recorded for this table.
+   */
+  @Nullable
+  public LatencyHistogram getLatency(@NonNull String table, @NonNull Operation operation) {
+    TableMetrics metrics = tables.get(table);
+    return metrics != null ? metrics.latencies[operation.ordinal()] : null;
+  }
+
+  /**
+   * Gets table operation read or modified rows count.
+   *
+   * @param table     table's name.
+   * @param operation operation.
+   * @return rows count.
+   */
+  public long getRowCount(@NonNull String table, @NonNull Operation operation) {
+    TableMetrics metrics = tables.get(table);
+    return metrics != null ? metrics.rows[operation.ordinal()].get() : 0;
+  }
+
+  /**
+   * @param table table's name.
+   * @return table session hits count.
+   */
+  public long getSessionHitCount(@NonNull String table) {
+    TableMetrics metrics = tables.get(table);
+    return metrics != null ? metrics.sessionHits.get() : 0;
+  }
+
+  /**
+   * @param table table's name.
+   * @return table session misses count.
+   */
+  public long getSessionMissCount(@NonNull String table) {
+    TableMetrics metrics = tables.get(table);
+    return metrics != null ? metrics.sessionMisses.get() : 0;
+  }
+
+  /**
+   * Remove all recorded metrics.
+   */
+  public void reset() {
+    tables.clear();
+  }
+
+  /**
+   * @return human readable report : one line per table and recorded operation (latencies in
+   * microseconds).
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (String table : getTables()) {
+      TableMetrics metrics = tables.get(table);
+      if (metrics == null) {
+        continue;
+      }
+      builder.append(table)
+          .append(" session hits=").append(metrics.sessionHits.get())
+          .append(" misses=").append(metrics.sessionMisses.get())
+          .append('\n');
+      for (Operation operation : OPERATIONS) {
+        LatencyHistogram latency = metrics.latencies[operation.ordinal()];
+        if (latency.getCount() == 0) {
+          continue;
+        }
+        builder.append("  ").append(operation)
+            .append(" count=").append(latency.getCount())
+            .append(" rows=").append(metrics.rows[operation.ordinal()].get())
+            .append(" p50=").append(toMicros(latency.getValueAtPercentile(50)))
+            .append(" p99=").append(toMicros(latency.getValueAtPercentile(99)))
+            .append(" max=").append(toMicros(latency.getMax()))
+            .append('\n');
+      }
+    }
+    return builder.toString();
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private static final class TableMetrics {
+
+    final LatencyHistogram[] latencies;
+    final AtomicLong[] rows;
+    final AtomicLong sessionHits;
+    final AtomicLong sessionMisses;
+
+    TableMetrics() {
+      latencies = new LatencyHistogram[OPERATIONS.length];
+      rows = new AtomicLong[OPERATIONS.length];
+      for (int i = 0; i < OPERATIONS.length; i++) {
+        latencies[i] = new LatencyHistogram();
+        rows[i] = new AtomicLong();
+      }
+      sessionHits = new AtomicLong();
+      sessionMisses = new AtomicLong();
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package org.medimob.orm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram (HDR style). Values are recorded in log-linear buckets : each
+ * power of two range is split in {@link #SUB_BUCKET_COUNT} buckets, so reported percentiles are
+ * within 12.5% of the recorded values. Values lower than {@link #SUB_BUCKET_COUNT} are exact.
+ *
+ * Reads are not atomic snapshots : a read concurrent to recording may miss the latest values.
+ *
+ * Created by Poopaou on 10/02/2015.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+  // Highest bit of positive longs is 62.
+  private static final int BUCKET_COUNT = (62 - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray buckets;
+  private final AtomicLong count;
+  private final AtomicLong total;
+  private final AtomicLong min;
+  private final AtomicLong max;
+
+  public LatencyHistogram() {
+    buckets = new AtomicLongArray(BUCKET_COUNT);
+    count = new AtomicLong();
+    total = new AtomicLong();
+    min = new AtomicLong(Long.MAX_VALUE);
+    max = new AtomicLong();
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & SUB_BUCKET_MASK;
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  // Highest value recorded in the bucket.
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index & SUB_BUCKET_MASK;
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Record value.
+   *
+   * @param value value (negative values are recorded as 0).
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    long current;
+    while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+      // retry.
+    }
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry.
+    }
+  }
+
+  /**
+   * @return recorded values count.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return recorded values sum.
+   */
+  public long getTotal() {
+    return total.get();
+  }
+
+  /**
+   * @return min recorded value or 0 if empty.
+   */
+  public long getMin() {
+    long value = min.get();
+    return value == Long.MAX_VALUE ? 0 : value;
+  }
+
+  /**
+   * @return max recorded value or 0 if empty.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return mean recorded value or 0 if empty.
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) total.get() / n;
+  }
+
+  /**
+   * Gets value at percentile.
+   *
+   * @param percentile percentile (between 0 and 100).
+   * @return highest value of the percentile bucket, or 0 if empty.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    double ratio = Math.min(Math.max(percentile, 0), 100) / 100;
+    long target = Math.max(1, (long) Math.ceil(ratio * n));
+    long sum = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      sum += buckets.get(i);
+      if (sum >= target) {
+        return Math.min(highestValueOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Remove all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    min.set(Long.MAX_VALUE);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram{count=" + getCount()
+           + ", mean=" + (long) getMean()
+           + ", p50=" + getValueAtPercentile(50)
+           + ", p99=" + getValueAtPercentile(99)
+           + ", max=" + getMax() + '}';
+  }
+}
@@ -0,0 +1,243 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Query re-executed when its table changes (see {@link Query#observe(Executor, Observer)}).
+ *
+ * Refreshes are coalesced : while a refresh is scheduled or running, changes only mark the results
+ * as stale, so a burst of commits triggers at most one more refresh. Refreshes are executed (and
+ * results delivered) on the executor, one at a time. The query must not be modified once
+ * observed.
+ *
+ * Incremental live queries (see {@link Query#observeIncremental(Executor, DiffObserver)}) only
+ * select the results ids : the changed ids reported by the {@link ChangeBus} are re-fetched, the
+ * other results are served from the session. The results list is patched in place and delivered
+ * with its {@link ResultDiff}.
+ *
+ * Created by Poopaou on 17/02/2015.
+ */
+public final class LiveQuery<T> {
+
+  // Above this count changed ids are not tracked, results rely on the session only.
+  private static final int MAX_CHANGED_IDS = 4096;
+  private static final long[] NO_IDS = new long[0];
+
+  private final Query<T> query;
+  private final AbstractModel<T> model;
+  private final ChangeBus changeBus;
+  private final Executor executor;
+  private final Observer<T> observer;
+  private final DiffObserver<T> diffObserver;
+  private final ChangeBus.ChangeListener listener;
+  private final Runnable refresh;
+  // Refresh state (guarded by this).
+  private boolean scheduled;
+  private boolean running;
+  private boolean dirty;
+  private boolean closed;
+  private Set<Long> changedIds;
+  // Incremental results (refresh only).
+  private final List<T> results;
+  private long[] resultIds;
+  private boolean delivered;
+
+  private LiveQuery(Query<T> query, AbstractModel<T> model, Executor executor,
+                    Observer<T> observer, DiffObserver<T> diffObserver) {
+    this.query = query;
+    this.model = model;
+    this.changeBus = model.getChangeBus();
+    this.executor = executor;
+    this.observer = observer;
+    this.diffObserver = diffObserver;
+    this.results = new ArrayList<T>();
+    this.resultIds = NO_IDS;
+    this.changedIds = new HashSet<Long>();
+    this.listener = new ChangeBus.ChangeListener() {
+      @Override
+      public void onChange(@NonNull List<TableChange> changes) {
+        if (LiveQuery.this.diffObserver != null) {
+          collect(changes);
+        }
+        schedule();
+      }
+    };
+    this.refresh = new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    };
+  }
+
+  LiveQuery(@NonNull Query<T> query, @NonNull AbstractModel<T> model,
+            @NonNull Executor executor, @NonNull Observer<T> observer) {
+    this(query, model, executor, observer, null);
+  }
+
+  LiveQuery(@NonNull Query<T> query, @NonNull AbstractModel<T> model,
+            @NonNull Executor executor, @NonNull DiffObserver<T> diffObserver) {
+    this(query, model, executor, null, diffObserver);
+  }
+
+  /**
+   * Observe the table and execute the query.
+   */
+  void start() {
+    changeBus.register(listener, model.getTableName());
+    schedule();
+  }
+
+  /**
+   * Stop observing the table : no more results are delivered.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    changeBus.unregister(listener);
+  }
+
+  private synchronized void collect(List<TableChange> changes) {
+    if (changedIds == null) {
+      return;
+    }
+    for (TableChange change : changes) {
+      for (long id : change.getIds()) {
+        changedIds.add(id);
+      }
+    }
+    if (changedIds.size() > MAX_CHANGED_IDS) {
+      changedIds = null;
+    }
+  }
+
+  private void schedule() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      if (running) {
+        dirty = true;
+        return;
+      }
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    executor.execute(refresh);
+  }
+
+  private void refresh() {
+    synchronized (this) {
+      scheduled = false;
+      if (closed) {
+        return;
+      }
+      running = true;
+    }
+    boolean again;
+    do {
+      synchronized (this) {
+        dirty = false;
+      }
+      try {
+        if (diffObserver != null) {
+          refreshIncremental();
+        } else {
+          List<T> results = query.query();
+          if (!isClosed()) {
+            observer.onChanged(results);
+          }
+        }
+      } catch (RuntimeException e) {
+        OrmLog.e("Live query refresh failed", e);
+      }
+      synchronized (this) {
+        again = dirty && !closed;
+        if (!again) {
+          running = false;
+        }
+      }
+    } while (again);
+  }
+
+  private void refreshIncremental() {
+    Set<Long> changed;
+    synchronized (this) {
+      changed = changedIds;
+      changedIds = new HashSet<Long>();
+    }
+    long[] ids = model.queryIds(query);
+    List<T> entities;
+    if (changed != null) {
+      entities = model.reloadByIds(ids, changed);
+    } else {
+      // Too many changes to track : committed writes already evicted changed entities.
+      entities = model.loadByIds(ids);
+    }
+    // Rows deleted between both queries are dropped.
+    int count = 0;
+    for (int i = 0; i < ids.length; i++) {
+      T entity = entities.get(i);
+      if (entity != null) {
+        ids[count] = ids[i];
+        entities.set(count++, entity);
+      }
+    }
+    long[] newIds = count == ids.length ? ids : Arrays.copyOf(ids, count);
+    List<T> newResults = query.fetchReferences(entities.subList(0, count));
+
+    ResultDiff diff = delivered ? ResultDiff.compute(resultIds, results, newIds, newResults)
+                                : ResultDiff.inserted(count);
+    results.clear();
+    results.addAll(newResults);
+    resultIds = newIds;
+    if ((!delivered || !diff.isEmpty()) && !isClosed()) {
+      delivered = true;
+      diffObserver.onChanged(results, diff);
+    }
+  }
+
+  private synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Live query results observer.
+   */
+  public interface Observer<T> {
+
+    /**
+     * Called with the query results, first when the query is observed then after each change of
+     * its table.
+     *
+     * @param results query results.
+     */
+    void onChanged(@NonNull List<T> results);
+  }
+
+  /**
+   * Incremental live query results observer.
+   */
+  public interface DiffObserver<T> {
+
+    /**
+     * Called with the query results, first when the query is observed (all rows inserted) then
+     * after each change of its results.
+     *
+     * @param results query results, the same list patched on each change (not to be modified, nor
+     *                read outside of this call).
+     * @param diff    difference with the previous results.
+     */
+    void onChanged(@NonNull List<T> results, @NonNull ResultDiff diff);
+  }
+}
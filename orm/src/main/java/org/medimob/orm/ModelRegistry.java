@@ -0,0 +1,59 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Registry of the application's models. The implementation ({@code org.medimob.orm.OrmRegistry})
+ * is generated by the annotation processor : models are indexed and constructed without
+ * reflection.
+ *
+ * Created by Poopaou on 11/02/2015.
+ */
+public interface ModelRegistry {
+
+  /**
+   * Generated registry class name.
+   */
+  String GENERATED_CLASS_NAME = "org.medimob.orm.OrmRegistry";
+
+  /**
+   * @return registered models count.
+   */
+  int getModelCount();
+
+  /**
+   * Gets model's entity class.
+   *
+   * @param index model index.
+   * @return entity class.
+   */
+  @NonNull
+  Class<?> getEntityClass(int index);
+
+  /**
+   * Gets entity model index.
+   *
+   * @param clazz entity class.
+   * @return model index or -1 if the entity is not registered.
+   */
+  int indexOf(@NonNull Class<?> clazz);
+
+  /**
+   * Create a new model instance.
+   *
+   * @param index model index.
+   * @return model.
+   */
+  @NonNull
+  AbstractModel<?> createModel(int index);
+
+  /**
+   * Create a new projection reader instance.
+   *
+   * @param clazz projection class.
+   * @return projection reader or null if the projection is not registered.
+   */
+  @Nullable
+  AbstractProjection<?> createProjection(@NonNull Class<?> clazz);
+}
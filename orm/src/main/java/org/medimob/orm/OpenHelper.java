@@ -1,33 +1,130 @@
 package org.medimob.orm;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
-import java.util.Collection;
+import org.medimob.orm.internal.StatementPool;
 
 /**
  * Bd open helper. Created by Poopaou on 26/01/2015.
  */
 class OpenHelper extends SQLiteOpenHelper {
 
-  private final Collection<AbstractModel<?>> models;
+  private final Orm orm;
+  private final boolean lazySchema;
+  private final DatabaseConfig config;
+  private final StatementPool statementPool;
+  private final SchemaMigrator migrator;
+  private volatile Boolean upsertSupported;
 
-  public OpenHelper(Context context, String name, int version,
-                    Collection<AbstractModel<?>> models) {
+  public OpenHelper(Context context, String name, int version, Orm orm, boolean lazySchema,
+                    DatabaseConfig config) {
     super(context, name, null, version);
-    this.models = models;
+    this.orm = orm;
+    this.lazySchema = lazySchema;
+    this.config = config;
+    this.statementPool = new StatementPool();
+    this.migrator = new SchemaMigrator(SchemaMigrator.DEFAULT_BATCH_SIZE);
+  }
+
+  Orm getOrm() {
+    return orm;
+  }
+
+  /**
+   * @return true if tables are created on models first use instead of database creation.
+   */
+  public boolean isLazySchema() {
+    return lazySchema;
+  }
+
+  /**
+   * @param db database.
+   * @return true if SQLite supports <code>INSERT ... ON CONFLICT DO UPDATE</code> (3.24+).
+   */
+  boolean isUpsertSupported(SQLiteDatabase db) {
+    Boolean supported = upsertSupported;
+    if (supported == null) {
+      String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+      supported = isVersionAtLeast(version, 3, 24);
+      upsertSupported = supported;
+    }
+    return supported;
+  }
+
+  /**
+   * Gets the calling thread's compiled statement (the statement must not be shared with others
+   * threads). Statements are closed with the helper.
+   *
+   * @param db  database.
+   * @param sql statement sql.
+   * @return compiled statement.
+   */
+  SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+    return statementPool.acquire(db, sql);
+  }
+
+  @Override
+  public synchronized void close() {
+    statementPool.close();
+    super.close();
+  }
+
+  private static boolean isVersionAtLeast(String version, int major, int minor) {
+    String[] parts = version.split("\\.");
+    try {
+      int actualMajor = Integer.parseInt(parts[0]);
+      int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+      return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+    } catch (NumberFormatException e) {
+      OrmLog.e("Unknown SQLite version " + version, e);
+      return false;
+    }
+  }
+
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    config.configure(db);
+  }
+
+  /**
+   * Create model's table (lazy schema) and store its schema.
+   *
+   * @param db    database.
+   * @param model model.
+   */
+  void createTable(SQLiteDatabase db, AbstractModel<?> model) {
+    migrator.createSchemaTable(db);
+    migrator.createTable(db, model);
   }
 
   @Override
   public void onCreate(SQLiteDatabase db) {
-    for (AbstractModel<?> m : models) {
-      m.onCreate(db);
+    migrator.createSchemaTable(db);
+    if (lazySchema) {
+      // Tables are created by models on first use.
+      return;
+    }
+    for (AbstractModel<?> m : orm.getModels()) {
+      migrator.createTable(db, m);
     }
   }
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    // TODO.
+    OrmLog.i("Upgrading database from version " + oldVersion + " to " + newVersion);
+    migrator.createSchemaTable(db);
+    for (AbstractModel<?> m : orm.getModels()) {
+      migrator.migrate(db, m, lazySchema);
+    }
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    // Tables rebuilds are executed by batches, outside of the upgrade transaction.
+    migrator.resumeRebuilds(db, orm);
   }
 }
@@ -3,18 +3,18 @@ package org.medimob.orm;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import org.medimob.orm.processor.EntityProcessor;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import static android.content.pm.PackageManager.NameNotFoundException;
 
@@ -25,47 +25,99 @@ import static android.content.pm.PackageManager.NameNotFoundException;
  */
 public final class Orm {
 
+  /**
+   * Max wait time of {@link #close()} for the running async tasks and the pending writes.
+   */
+  public static final long CLOSE_TIMEOUT_MILLIS = 2000;
   private static final Object LOCK = new Object();
   private static Orm orm;
-  private OpenHelper helper;
-  private Map<Class<?>, AbstractModel<?>> modelMap;
-
-  private Orm(Context context) throws NameNotFoundException, IOException,
-                                      ClassNotFoundException, IllegalAccessException,
-                                      InstantiationException {
-    modelMap = new HashMap<Class<?>, AbstractModel<?>>();
-    InputStream is = getClass().getClassLoader()
-        .getResourceAsStream(EntityProcessor.ENTITY_LIST_FILE_PATH);
-
-    BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      Class<?> dataClazz = Class.forName(line);
-      Class<?> modelClazz = Class.forName(line + EntityProcessor.CLASS_MODEL_SUFFIX);
-      AbstractModel<?> model = (AbstractModel<?>) modelClazz.newInstance();
-      modelMap.put(dataClazz, model);
-    }
+  private final ModelRegistry registry;
+  private final ConcurrentMap<Class<?>, AbstractModel<?>> modelMap;
+  private final ConcurrentMap<Class<?>, AbstractProjection<?>> projectionMap;
+  private final OpenHelper helper;
+  private final ChangeBus changeBus;
+  private volatile OrmMetrics metrics = OrmMetrics.NONE;
+  private WriteQueue writeQueue;
+  private AsyncOrm async;
+
+  private Orm(Context context, ModelRegistry registry, @Nullable DatabaseConfig config)
+      throws NameNotFoundException {
+    this.registry = registry;
+    // Models are created on first use.
+    modelMap = new ConcurrentHashMap<Class<?>, AbstractModel<?>>(registry.getModelCount());
+    projectionMap = new ConcurrentHashMap<Class<?>, AbstractProjection<?>>();
+    changeBus = new ChangeBus();
 
     PackageManager pm = context.getPackageManager();
     ApplicationInfo meta =
         pm.getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
     String name = meta.metaData.getString("orm.dbName");
-    //int version = meta.metaData.get("orm.dbVersion" );
-    int version = 1; //FIXME handle db visioning
-    helper = new OpenHelper(context.getApplicationContext(), name, version, modelMap.values());
+    // Schema changes are migrated when the version is incremented.
+    int version = meta.metaData.getInt("orm.dbVersion", 1);
+    boolean lazySchema = meta.metaData.getBoolean("orm.lazySchema", false);
+    if (config == null) {
+      config = DatabaseConfig.fromMetaData(meta.metaData);
+    }
+    helper = new OpenHelper(context.getApplicationContext(), name, version, this, lazySchema,
+                            config);
   }
 
   /**
-   * Get ORM instance.
+   * Get ORM instance. The generated model registry is loaded on first call.
    *
    * @param context context.
    * @return instance.
    */
   public static Orm getInstance(Context context) {
+    return getOrCreate(context, null, null);
+  }
+
+  /**
+   * Get ORM instance using the given model registry (usually <code>new OrmRegistry()</code>, the
+   * generated registry) : no reflection is involved.
+   *
+   * @param context  context.
+   * @param registry model registry.
+   * @return instance.
+   */
+  public static Orm getInstance(Context context, @NonNull ModelRegistry registry) {
+    return getOrCreate(context, registry, null);
+  }
+
+  /**
+   * Get ORM instance with a database configuration (the manifest meta-data configuration is
+   * ignored). The configuration is only used by the first call, when the instance is created.
+   *
+   * @param context context.
+   * @param config  database configuration.
+   * @return instance.
+   */
+  public static Orm getInstance(Context context, @NonNull DatabaseConfig config) {
+    return getOrCreate(context, null, config);
+  }
+
+  /**
+   * Get ORM instance using the given model registry and database configuration (the manifest
+   * meta-data configuration is ignored when a configuration is given). The configuration is only
+   * used by the first call, when the instance is created.
+   *
+   * @param context  context.
+   * @param registry model registry.
+   * @param config   database configuration or null to read it from the manifest meta-data.
+   * @return instance.
+   */
+  public static Orm getInstance(Context context, @NonNull ModelRegistry registry,
+                                @Nullable DatabaseConfig config) {
+    return getOrCreate(context, registry, config);
+  }
+
+  // The generated registry is only loaded when the instance is created.
+  private static Orm getOrCreate(Context context, @Nullable ModelRegistry registry,
+                                 @Nullable DatabaseConfig config) {
     synchronized (LOCK) {
       if (orm == null) {
         try {
-          orm = new Orm(context);
+          orm = new Orm(context, registry != null ? registry : loadGeneratedRegistry(), config);
         } catch (Exception e) {
           OrmLog.e("Failed to initialize ORM", e);
           throw new IllegalStateException(e);
@@ -75,6 +127,12 @@ public final class Orm {
     }
   }
 
+  private static ModelRegistry loadGeneratedRegistry() throws ClassNotFoundException,
+                                                               IllegalAccessException,
+                                                               InstantiationException {
+    return (ModelRegistry) Class.forName(ModelRegistry.GENERATED_CLASS_NAME).newInstance();
+  }
+
   /**
    * Raw query for single result (result will not be cached).
    *
@@ -146,6 +204,121 @@ public final class Orm {
                           orderBy, limit);
   }
 
+  /**
+   * Raw query returning a lazy cursor iterator (result will not be cached).
+   *
+   * @param clazz        data class.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <T>          class type
+   * @return result iterator, must be closed if not fully consumed.
+   */
+  public <T> CursorIterator<T> rawQueryIterator(@NonNull Class<T> clazz,
+                                                @NonNull String selection,
+                                                @Nullable String[] selectionArg,
+                                                @Nullable String orderBy,
+                                                @Nullable String limit) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.rawQueryIterator(selection, selectionArg, orderBy, limit);
+  }
+
+  /**
+   * Raw query returning a lazy cursor iterator (result will not be cached).
+   *
+   * @param clazz        data class.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param groupBy      groupBy clause.
+   * @param having       having clause.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <T>          class type
+   * @return result iterator, must be closed if not fully consumed.
+   */
+  public <T> CursorIterator<T> rawQueryIterator(@NonNull Class<T> clazz,
+                                                @NonNull String selection,
+                                                @Nullable String[] selectionArg,
+                                                @Nullable String groupBy,
+                                                @Nullable String having,
+                                                @Nullable String orderBy,
+                                                @Nullable String limit) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.rawQueryIterator(selection, selectionArg, groupBy, having, orderBy, limit);
+  }
+
+  /**
+   * Columnar query : read a single property of all matching rows into a primitive array.
+   *
+   * @param clazz        data class.
+   * @param property     property name.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <T>          class type
+   * @return values (null values are read as 0).
+   */
+  public <T> long[] queryLongColumn(@NonNull Class<T> clazz, @NonNull String property,
+                                    @Nullable String selection, @Nullable String[] selectionArg,
+                                    @Nullable String orderBy, @Nullable String limit) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.queryLongColumn(property, selection, selectionArg, orderBy, limit);
+  }
+
+  /**
+   * Columnar query : read a single property of all matching rows into a primitive array.
+   *
+   * @param clazz        data class.
+   * @param property     property name.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <T>          class type
+   * @return values (null values are read as 0).
+   */
+  public <T> double[] queryDoubleColumn(@NonNull Class<T> clazz, @NonNull String property,
+                                        @Nullable String selection,
+                                        @Nullable String[] selectionArg,
+                                        @Nullable String orderBy, @Nullable String limit) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.queryDoubleColumn(property, selection, selectionArg, orderBy, limit);
+  }
+
+  /**
+   * Create a new criteria query.
+   *
+   * @param clazz data class.
+   * @param <T>   class type
+   * @return query.
+   */
+  public <T> Query<T> createQuery(@NonNull Class<T> clazz) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.createQuery();
+  }
+
+  /**
+   * Projection query : only the projection's columns are selected and hydrated (see
+   * {@link org.medimob.orm.annotation.Projection}, results will not be cached).
+   *
+   * @param clazz        projection class.
+   * @param selection    selection
+   * @param selectionArg selection argument.
+   * @param orderBy      having clause.
+   * @param limit        limit clause.
+   * @param <P>          projection type.
+   * @return results.
+   */
+  @NonNull
+  public <P> List<P> queryProjection(@NonNull Class<P> clazz, @Nullable String selection,
+                                     @Nullable String[] selectionArg, @Nullable String orderBy,
+                                     @Nullable String limit) {
+    AbstractModel<?> model = getModelInstanceOrThrow(getProjection(clazz).getModelClass());
+    return model.queryProjection(clazz, selection, selectionArg, orderBy, limit);
+  }
+
   /**
    * Load entity by id (result will be cached).
    *
@@ -159,6 +332,61 @@ public final class Orm {
     return model.loadById(id);
   }
 
+  /**
+   * Load entities by ids (results will be cached).
+   *
+   * @param clazz data class.
+   * @param ids   entities ids.
+   * @param <T>   class type
+   * @return entities in ids order, null for not found entities.
+   */
+  @NonNull
+  public <T> List<T> loadByIds(@NonNull Class<T> clazz, @NonNull long... ids) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.loadByIds(ids);
+  }
+
+  /**
+   * Fetch entities references (see {@link AbstractModel#fetchReferences(List, String...)}) : one
+   * <code>IN (...)</code> query per referenced model for the session misses.
+   *
+   * @param clazz      data class.
+   * @param entities   entities.
+   * @param properties references properties (all fetched references if empty).
+   * @param <T>        class type
+   */
+  public <T> void fetchReferences(@NonNull Class<T> clazz, @NonNull List<T> entities,
+                                  @NonNull String... properties) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    model.fetchReferences(entities, properties);
+  }
+
+  /**
+   * Run writes in one transaction : the transaction is committed if body returns, rolled back if
+   * it throws. Table changes are published once the outermost transaction is committed, and
+   * dropped on rollback (see {@link ChangeBus}).
+   *
+   * @param body transaction body.
+   */
+  public void runInTransaction(@NonNull Runnable body) {
+    SQLiteDatabase db = helper.getWritableDatabase();
+    db.beginTransactionNonExclusive();
+    changeBus.beginTransaction();
+    boolean ended = false;
+    try {
+      body.run();
+      db.setTransactionSuccessful();
+      changeBus.setTransactionSuccessful();
+    } finally {
+      try {
+        db.endTransaction();
+        ended = true;
+      } finally {
+        changeBus.endTransaction(ended);
+      }
+    }
+  }
+
   /**
    * Insert entity inside transaction.
    *
@@ -185,6 +413,46 @@ public final class Orm {
     return model.insertInTx(entities);
   }
 
+  /**
+   * Insert entities inside transaction using multi rows insert statements.
+   *
+   * @param clazz    data class.
+   * @param entities entities to insert.
+   * @param <T>      class type
+   * @return entities ids.
+   */
+  public <T> long[] insertBatchInTx(@NonNull Class<T> clazz, @NonNull Iterable<T> entities) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.insertBatchInTx(entities);
+  }
+
+  /**
+   * Insert or update entities inside transaction, one statement per entity with SQLite 3.24+
+   * (see {@link AbstractModel#upsertInTx(Iterable)}).
+   *
+   * @param clazz    data class.
+   * @param entities entities to upsert.
+   * @param <T>      class type
+   * @return entities ids.
+   */
+  public <T> long[] upsertInTx(@NonNull Class<T> clazz, @NonNull Iterable<T> entities) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.upsertInTx(entities);
+  }
+
+  /**
+   * Insert or update entity without transaction (see {@link AbstractModel#upsert(Object)}).
+   *
+   * @param clazz  data class.
+   * @param entity entity to upsert.
+   * @param <T>    class type
+   * @return entity id.
+   */
+  public <T> long upsert(@NonNull Class<T> clazz, @NonNull T entity) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.upsert(entity);
+  }
+
   /**
    * Insert entity inside transaction.
    *
@@ -341,18 +609,252 @@ public final class Orm {
     return model.deleteInTx(entity);
   }
 
+  /**
+   * Configure entity session cache.
+   *
+   * @param clazz  data class.
+   * @param config cache configuration.
+   * @param <T>    class type
+   */
+  public <T> void configureCache(@NonNull Class<T> clazz, @NonNull CacheConfig<T> config) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    model.configureCache(config);
+  }
+
+  /**
+   * Remove all entities from the session cache : next loads read the database.
+   *
+   * @param clazz data class.
+   * @param <T>   class type
+   */
+  public <T> void clearSession(@NonNull Class<T> clazz) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    model.clearSession();
+  }
+
+  /**
+   * Gets entity session cache statistics.
+   *
+   * @param clazz data class.
+   * @param <T>   class type
+   * @return statistics snapshot.
+   */
+  public <T> CacheStats getCacheStats(@NonNull Class<T> clazz) {
+    AbstractModel<T> model = getModelInstanceOrThrow(clazz);
+    return model.getCacheStats();
+  }
+
+  /**
+   * Gets the asynchronous write queue (created on first call with default settings).
+   *
+   * @return write queue.
+   */
+  public WriteQueue getWriteQueue() {
+    return getWriteQueue(WriteQueue.DEFAULT_MAX_OPERATIONS, WriteQueue.DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * Gets the asynchronous write queue. Settings are only used by the first call, when the queue
+   * is created.
+   *
+   * @param maxOperations  max writes count per transaction.
+   * @param maxDelayMillis max delay before a pending write is committed.
+   * @return write queue.
+   */
+  public WriteQueue getWriteQueue(int maxOperations, long maxDelayMillis) {
+    synchronized (LOCK) {
+      if (writeQueue == null) {
+        writeQueue = new WriteQueue(this, helper, maxOperations, maxDelayMillis);
+      }
+      return writeQueue;
+    }
+  }
+
+  /**
+   * Gets the asynchronous facade with its default executors (created on first call). Use
+   * {@link AsyncOrm#AsyncOrm(Orm, java.util.concurrent.Executor, java.util.concurrent.Executor)}
+   * for custom executors.
+   *
+   * @return async facade.
+   */
+  @NonNull
+  public AsyncOrm getAsync() {
+    synchronized (LOCK) {
+      if (async == null) {
+        async = AsyncOrm.withDefaultExecutors(this);
+      }
+      return async;
+    }
+  }
+
+  /**
+   * Gets the table change notification bus : committed inserts, updates and deletes are published
+   * with their tables and rows ids.
+   *
+   * @return change bus.
+   */
+  @NonNull
+  public ChangeBus getChangeBus() {
+    return changeBus;
+  }
+
+  /**
+   * Close the database and the compiled statements. The default executors of {@link #getAsync()}
+   * are shutdown (queued tasks are cancelled, running tasks complete) and the
+   * {@link #getWriteQueue()} commits its pending writes then stops, both waited for at most
+   * {@link #CLOSE_TIMEOUT_MILLIS} milliseconds. The database is reopened on next use.
+   */
+  public void close() {
+    AsyncOrm closedAsync;
+    WriteQueue closedQueue;
+    synchronized (LOCK) {
+      closedAsync = async;
+      closedQueue = writeQueue;
+      async = null;
+      writeQueue = null;
+    }
+    if (closedAsync != null) {
+      closedAsync.shutdown();
+    }
+    if (closedQueue != null) {
+      closedQueue.shutdown();
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+    try {
+      if (closedAsync != null
+          && !closedAsync.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        OrmLog.w("Async tasks still running on close");
+      }
+      if (closedQueue != null
+          && !closedQueue.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        OrmLog.w("Write queue still running on close");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    helper.close();
+  }
+
+  /**
+   * Warmup models on a background thread : open the database, create the tables if needed (see
+   * <code>orm.lazySchema</code>), compile the insert, update and delete statements, and fill the
+   * session with the most recent rows when a strong cache tier is configured (see
+   * {@link #configureCache(Class, CacheConfig)}).
+   * <p>
+   * Compiled statements are per thread : only the executor's thread gets them ready. Use the
+   * executor which performs the writes (e.g. a single thread executor), others threads compile
+   * their statements on first use.
+   *
+   * @param executor executor running the warmup.
+   * @param classes  data classes to warmup (all models if empty).
+   * @return future completed once all models are ready.
+   */
+  @NonNull
+  public Future<Void> warmup(@NonNull Executor executor, @NonNull Class<?>... classes) {
+    final List<AbstractModel<?>> models;
+    if (classes.length == 0) {
+      models = getModels();
+    } else {
+      models = new ArrayList<AbstractModel<?>>(classes.length);
+      for (Class<?> clazz : classes) {
+        models.add(getModelInstanceOrThrow(clazz));
+      }
+    }
+    FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+      @Override
+      public void run() {
+        for (AbstractModel<?> model : models) {
+          model.warmup();
+        }
+      }
+    }, null);
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Set the instrumentation listener notified by all models (see {@link InMemoryMetrics}).
+   *
+   * @param metrics listener or null to disable instrumentation.
+   */
+  public void setMetrics(@Nullable OrmMetrics metrics) {
+    OrmMetrics listener = metrics != null ? metrics : OrmMetrics.NONE;
+    this.metrics = listener;
+    for (AbstractModel<?> model : modelMap.values()) {
+      model.setMetrics(listener);
+    }
+  }
+
   public <T> AbstractModel<T> getRepository(Class<T> clazz) {
     return getModelInstanceOrThrow(clazz);
   }
 
+  /**
+   * @return all registered models (models are created if needed).
+   */
+  List<AbstractModel<?>> getModels() {
+    int count = registry.getModelCount();
+    List<AbstractModel<?>> models = new ArrayList<AbstractModel<?>>(count);
+    for (int i = 0; i < count; i++) {
+      AbstractModel<?> model = modelMap.get(registry.getEntityClass(i));
+      models.add(model != null ? model : createModel(i));
+    }
+    return models;
+  }
+
+  /**
+   * @return database helper.
+   */
+  OpenHelper getHelper() {
+    return helper;
+  }
+
   @NonNull
   @SuppressWarnings("unchecked")
   private <T> AbstractModel<T> getModelInstanceOrThrow(Class<T> clazz) {
     AbstractModel<T> model = (AbstractModel<T>) modelMap.get(clazz);
     if (model == null) {
-      throw new IllegalStateException(clazz.getCanonicalName() + " is not a registered entity");
+      int index = registry.indexOf(clazz);
+      if (index < 0) {
+        throw new IllegalStateException(clazz.getCanonicalName() + " is not a registered entity");
+      }
+      model = (AbstractModel<T>) createModel(index);
     }
+    return model;
+  }
+
+  @NonNull
+  @SuppressWarnings("unchecked")
+  <P> AbstractProjection<P> getProjection(Class<P> clazz) {
+    AbstractProjection<P> projection = (AbstractProjection<P>) projectionMap.get(clazz);
+    if (projection == null) {
+      projection = (AbstractProjection<P>) registry.createProjection(clazz);
+      if (projection == null) {
+        throw new IllegalStateException(clazz.getCanonicalName()
+                                        + " is not a registered projection");
+      }
+      AbstractProjection<?> previous = projectionMap.putIfAbsent(clazz, projection);
+      if (previous != null) {
+        projection = (AbstractProjection<P>) previous;
+      }
+    }
+    return projection;
+  }
+
+  private AbstractModel<?> createModel(int index) {
+    AbstractModel<?> model = registry.createModel(index);
     model.attach(helper);
+    // Metrics are set before the model is published.
+    OrmMetrics listener = metrics;
+    model.setMetrics(listener);
+    AbstractModel<?> previous = modelMap.putIfAbsent(registry.getEntityClass(index), model);
+    if (previous != null) {
+      return previous;
+    }
+    if (metrics != listener) {
+      // Changed meanwhile, setMetrics may have missed this model.
+      model.setMetrics(metrics);
+    }
     return model;
   }
 }
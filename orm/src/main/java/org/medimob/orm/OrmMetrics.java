@@ -0,0 +1,92 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Orm instrumentation listener, notified by models around each database operation (see
+ * {@link Orm#setMetrics(OrmMetrics)}). Listeners are called synchronously on the thread running
+ * the operation (callers, {@link AsyncOrm} lanes, {@link WriteQueue} writer, warmup executor),
+ * concurrently and outside of any orm lock. Statements and session lookups of a transaction are
+ * reported inside it, while the database connection is held : implementations must be thread
+ * safe and must not block, or they delay the other readers and writers.
+ *
+ * Created by Poopaou on 10/02/2015.
+ */
+public interface OrmMetrics {
+
+  /**
+   * No-op listener.
+   */
+  OrmMetrics NONE = new OrmMetrics() {
+    @Override
+    public void onStatement(@NonNull Operation operation, @NonNull String table,
+                            @Nullable String sql, int rows, long nanos) {
+    }
+
+    @Override
+    public void onTransactionBegin(@NonNull String table) {
+    }
+
+    @Override
+    public void onTransactionEnd(@NonNull String table, long nanos) {
+    }
+
+    @Override
+    public void onSessionHit(@NonNull String table) {
+    }
+
+    @Override
+    public void onSessionMiss(@NonNull String table) {
+    }
+  };
+
+  /**
+   * Database operations.
+   */
+  enum Operation {
+    QUERY, INSERT, UPDATE, DELETE, TRANSACTION
+  }
+
+  /**
+   * Called once a statement or a query has been executed (queries are reported once their
+   * results have been read).
+   *
+   * @param operation operation.
+   * @param table     table's name.
+   * @param sql       sql shape (arguments are not included).
+   * @param rows      read or modified rows count.
+   * @param nanos     latency in nanoseconds.
+   */
+  void onStatement(@NonNull Operation operation, @NonNull String table, @Nullable String sql,
+                   int rows, long nanos);
+
+  /**
+   * Called when a model begins a transaction.
+   *
+   * @param table table's name.
+   */
+  void onTransactionBegin(@NonNull String table);
+
+  /**
+   * Called when a model transaction ends (committed or rolled back).
+   *
+   * @param table table's name.
+   * @param nanos transaction duration in nanoseconds.
+   */
+  void onTransactionEnd(@NonNull String table, long nanos);
+
+  /**
+   * Called when an entity has been found in the model session.
+   *
+   * @param table table's name.
+   */
+  void onSessionHit(@NonNull String table);
+
+  /**
+   * Called when an entity has not been found in the model session.
+   *
+   * @param table table's name.
+   */
+  void onSessionMiss(@NonNull String table);
+}
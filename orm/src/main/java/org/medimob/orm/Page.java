@@ -0,0 +1,115 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Keyset paged query results (see {@link Query#page(String, int)}). The next page token holds the
+ * sort keys and the id of the page's last row : the next page seeks past this row instead of
+ * skipping the previous pages rows.
+ *
+ * Created by Poopaou on 19/02/2015.
+ */
+public final class Page<T> {
+
+  private final List<T> results;
+  private final String nextToken;
+
+  Page(@NonNull List<T> results, @Nullable String nextToken) {
+    this.results = results;
+    this.nextToken = nextToken;
+  }
+
+  /**
+   * Encode a page token : each value is its type ('n' null, 'i' integer, 'f' real or 's' text),
+   * its length and its text representation.
+   *
+   * @param values sort keys then id.
+   * @return token.
+   */
+  static String encodeToken(Object[] values) {
+    StringBuilder builder = new StringBuilder();
+    for (Object value : values) {
+      if (value == null) {
+        builder.append("n0:");
+        continue;
+      }
+      String text = value.toString();
+      if (value instanceof Long) {
+        builder.append('i');
+      } else if (value instanceof Double) {
+        builder.append('f');
+      } else {
+        builder.append('s');
+      }
+      builder.append(text.length()).append(':').append(text);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Decode a page token.
+   *
+   * @param token token.
+   * @param count values count.
+   * @return sort keys then id.
+   * @throws OrmException if the token is invalid.
+   */
+  static Object[] decodeToken(String token, int count) {
+    Object[] values = new Object[count];
+    int offset = 0;
+    try {
+      for (int i = 0; i < count; i++) {
+        char type = token.charAt(offset);
+        int separator = token.indexOf(':', offset);
+        int length = Integer.parseInt(token.substring(offset + 1, separator));
+        String text = token.substring(separator + 1, separator + 1 + length);
+        offset = separator + 1 + length;
+        if (type == 'n') {
+          values[i] = null;
+        } else if (type == 'i') {
+          values[i] = Long.valueOf(text);
+        } else if (type == 'f') {
+          values[i] = Double.valueOf(text);
+        } else if (type == 's') {
+          values[i] = text;
+        } else {
+          throw new OrmException("Invalid page token " + token);
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new OrmException("Invalid page token " + token, e);
+    } catch (IndexOutOfBoundsException e) {
+      throw new OrmException("Invalid page token " + token, e);
+    }
+    if (offset != token.length() || !(values[count - 1] instanceof Long)) {
+      throw new OrmException("Invalid page token " + token);
+    }
+    return values;
+  }
+
+  /**
+   * @return page results.
+   */
+  @NonNull
+  public List<T> getResults() {
+    return results;
+  }
+
+  /**
+   * @return next page token or null if this page is the last one.
+   */
+  @Nullable
+  public String getNextToken() {
+    return nextToken;
+  }
+
+  /**
+   * @return true if there is a next page.
+   */
+  public boolean hasNext() {
+    return nextToken != null;
+  }
+}
@@ -1,26 +1,42 @@
 package org.medimob.orm;
 
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.CancellationSignal;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.medimob.orm.internal.StatementBuilder;
+import org.medimob.orm.query.CompositeCriterion;
+import org.medimob.orm.query.Criterion;
+import org.medimob.orm.query.PropertyResolver;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
+ * Criteria query. Restrictions added to the query are joined with 'AND'. Generated sql only
+ * depends on the query shape (criteria, order, group, limit), arguments are always bound, so
+ * models can cache and reuse the sql for each shape.
+ *
  * Created by Poopaou on 30/01/2015.
  */
 public class Query<T> {
 
-  private final Property[] properties;
-  private final String table;
-
-
-  private String[] groupBy;
-  private String[] orderBy;
+  private final AbstractModel<T> model;
+  private final CompositeCriterion where;
+  private final List<String> groupBy;
+  private final List<String> orderBy;
   private boolean distinct;
   private String having;
-  private List<String> wheres;
   private String limit;
+  private String[] fetchedReferences;
 
-  public Query(Property[] properties, String table) {
-    this.properties = properties;
-    this.table = table;
+  Query(@NonNull AbstractModel<T> model) {
+    this.model = model;
+    this.where = new CompositeCriterion(CompositeCriterion.AND);
+    this.groupBy = new ArrayList<String>();
+    this.orderBy = new ArrayList<String>();
   }
 
   public Query<T> distinct() {
@@ -33,12 +49,50 @@ public class Query<T> {
     return this;
   }
 
-  public T querySingle() {
-    return null;
+  /**
+   * Add restriction.
+   *
+   * @param criterion restriction.
+   * @return this.
+   */
+  public Query<T> add(@NonNull Criterion criterion) {
+    where.add(criterion);
+    return this;
+  }
+
+  /**
+   * Group by property.
+   *
+   * @param property property name.
+   * @return this.
+   */
+  public Query<T> groupBy(@NonNull String property) {
+    groupBy.add(property);
+    return this;
   }
 
-  public T query() {
-    return null;
+  /**
+   * Order by property (ascending).
+   *
+   * @param property property name.
+   * @return this.
+   */
+  public Query<T> orderAsc(@NonNull String property) {
+    orderBy.add(property);
+    orderBy.add("ASC");
+    return this;
+  }
+
+  /**
+   * Order by property (descending).
+   *
+   * @param property property name.
+   * @return this.
+   */
+  public Query<T> orderDesc(@NonNull String property) {
+    orderBy.add(property);
+    orderBy.add("DESC");
+    return this;
   }
 
   public Query<T> setMaxResult(int maxResult) {
@@ -46,23 +100,287 @@ public class Query<T> {
     return this;
   }
 
-  public static final class Property {
+  /**
+   * Fetch the results references (see {@link AbstractModel#fetchReferences(List, String...)}).
+   * References are fetched by the list queries, pages and observers (both
+   * {@link #observe(Executor, LiveQuery.Observer)} and
+   * {@link #observeIncremental(Executor, LiveQuery.DiffObserver)}), not by {@link #iterate()}
+   * nor by projection queries : fetch the iterated entities' references by batches with
+   * {@link Orm#fetchReferences(Class, List, String...)}.
+   *
+   * @param properties references properties (all fetched references if empty).
+   * @return this.
+   */
+  public Query<T> fetch(@NonNull String... properties) {
+    fetchedReferences = properties;
+    return this;
+  }
+
+  /**
+   * Execute query for single result (result will not be cached).
+   *
+   * @return result or null if not found.
+   */
+  @Nullable
+  public T querySingle() {
+    // The query is not modified : it can be shared between threads.
+    List<T> results = fetchReferences(model.query(this, "1", null));
+    return results.isEmpty() ? null : results.get(0);
+  }
 
-    private final String name;
-    private final String column;
+  /**
+   * Execute query (results will not be cached).
+   *
+   * @return results.
+   */
+  @NonNull
+  public List<T> query() {
+    return fetchReferences(model.query(this));
+  }
+
+  /**
+   * Execute query, cancelling the signal aborts the query with an
+   * {@link android.os.OperationCanceledException}.
+   *
+   * @param signal cancellation signal.
+   * @return results.
+   */
+  @NonNull
+  public List<T> query(@Nullable CancellationSignal signal) {
+    return fetchReferences(model.query(this, signal));
+  }
+
+  /**
+   * Execute query returning a lazy cursor iterator (results will not be cached). The iterator
+   * must be closed if it is not fully consumed. References requested with {@link #fetch(String...)}
+   * are not fetched.
+   *
+   * @return result iterator.
+   */
+  @NonNull
+  public CursorIterator<T> iterate() {
+    return model.iterate(this, null);
+  }
+
+  /**
+   * Execute query returning a lazy cursor iterator (see {@link #iterate()}). Cancelling the
+   * signal aborts the iteration : the cursor is closed and the next
+   * {@link CursorIterator#hasNext()} call throws an {@link android.os.OperationCanceledException}.
+   *
+   * @param signal cancellation signal.
+   * @return result iterator.
+   */
+  @NonNull
+  public CursorIterator<T> iterate(@Nullable CancellationSignal signal) {
+    return model.iterate(this, signal);
+  }
+
+  /**
+   * Execute query selecting only the projection's columns (see
+   * {@link org.medimob.orm.annotation.Projection}).
+   *
+   * @param projection projection class.
+   * @param <P>        projection type.
+   * @return results.
+   */
+  @NonNull
+  public <P> List<P> query(@NonNull Class<P> projection) {
+    return model.query(this, projection);
+  }
 
-    public Property(String name, String column) {
-      this.name = name;
-      this.column = column;
+  /**
+   * Execute a page of the query (keyset pagination) : rows are ordered by the query order then by
+   * id, and the page starts after the row of the token. Each page costs as much as the first one
+   * if the ordered properties are indexed. Ordered properties must not be blobs.
+   *
+   * @param token previous page's next token (see {@link Page#getNextToken()}) or null for the
+   *              first page.
+   * @param size  page size.
+   * @return page.
+   * @throws OrmException if the query has a limit or groups rows, or if the token is invalid.
+   */
+  @NonNull
+  public Page<T> page(@Nullable String token, int size) {
+    return page(token, size, null);
+  }
+
+  /**
+   * Execute a page of the query (see {@link #page(String, int)}), the page query can be cancelled.
+   *
+   * @param token  previous page's next token or null for the first page.
+   * @param size   page size.
+   * @param signal cancellation signal or null.
+   * @return page.
+   * @throws android.os.OperationCanceledException if the signal is cancelled.
+   */
+  @NonNull
+  public Page<T> page(@Nullable String token, int size, @Nullable CancellationSignal signal) {
+    Page<T> page = model.page(this, token, size, signal);
+    fetchReferences(page.getResults());
+    return page;
+  }
+
+  /**
+   * Observe the query : results are delivered on the executor when observed, then after each
+   * committed change of the model's table (see {@link LiveQuery}).
+   *
+   * @param executor refresh executor.
+   * @param observer results observer.
+   * @return live query (to be closed).
+   */
+  @NonNull
+  public LiveQuery<T> observe(@NonNull Executor executor,
+                              @NonNull LiveQuery.Observer<T> observer) {
+    LiveQuery<T> liveQuery = new LiveQuery<T>(this, model, executor, observer);
+    liveQuery.start();
+    return liveQuery;
+  }
+
+  /**
+   * Observe the query incrementally : only changed rows are re-fetched and results are delivered
+   * with their difference with the previous results (see {@link LiveQuery}).
+   *
+   * @param executor refresh executor.
+   * @param observer results observer.
+   * @return live query (to be closed).
+   * @throws OrmException if the query groups rows.
+   */
+  @NonNull
+  public LiveQuery<T> observeIncremental(@NonNull Executor executor,
+                                         @NonNull LiveQuery.DiffObserver<T> observer) {
+    if (!groupBy.isEmpty()) {
+      throw new OrmException("Incremental live queries cannot group rows");
     }
+    LiveQuery<T> liveQuery = new LiveQuery<T>(this, model, executor, observer);
+    liveQuery.start();
+    return liveQuery;
+  }
 
-    String getName() {
-      return name;
+  /**
+   * Fetch results references if requested (see {@link #fetch(String...)}).
+   *
+   * @param results query results.
+   * @return results.
+   */
+  List<T> fetchReferences(List<T> results) {
+    if (fetchedReferences != null) {
+      model.fetchReferences(results, fetchedReferences);
     }
+    return results;
+  }
+
+  /**
+   * @return query arguments.
+   */
+  String[] getArgs() {
+    ArrayList<String> args = new ArrayList<String>(where.getArgsCount());
+    where.collectArgs(args);
+    return args.toArray(new String[args.size()]);
+  }
+
+  /**
+   * @return query shape key.
+   */
+  String getKey() {
+    return getKey(limit);
+  }
+
+  /**
+   * @param maxRows limit or null.
+   * @return query shape key with the given limit.
+   */
+  String getKey(@Nullable String maxRows) {
+    StringBuilder key = new StringBuilder();
+    key.append(distinct).append('|');
+    where.appendKey(key);
+    key.append('|').append(where.getArgsCount());
+    key.append('|').append(groupBy);
+    key.append('|').append(having);
+    key.append('|').append(orderBy);
+    key.append('|').append(maxRows);
+    return key.toString();
+  }
+
+  /**
+   * Render the query sql.
+   *
+   * @param table    table's name.
+   * @param columns  query columns.
+   * @param resolver property resolver.
+   * @return sql.
+   */
+  String toSql(String table, String[] columns, PropertyResolver resolver) {
+    return toSql(table, columns, resolver, null, null, limit);
+  }
 
-    String getColumn() {
-      return column;
+  /**
+   * Render the query sql with an additional selection and order (see
+   * {@link #page(String, int)}).
+   *
+   * @param table     table's name.
+   * @param columns   query columns.
+   * @param resolver  property resolver.
+   * @param filter    additional selection (joined with 'AND') or null.
+   * @param order     additional order (after the query order) or null.
+   * @param maxRows   limit or null.
+   * @return sql.
+   */
+  String toSql(String table, String[] columns, PropertyResolver resolver,
+               @Nullable String filter, @Nullable String order, @Nullable String maxRows) {
+    String selection = filter;
+    if (!where.isEmpty()) {
+      StatementBuilder builder = new StatementBuilder();
+      where.toSql(builder, resolver);
+      selection = filter == null ? builder.toString()
+                                 : "(" + builder.toString() + ") AND " + filter;
+    }
+    String orderClause = resolve(orderBy, resolver, true);
+    if (order != null) {
+      orderClause = orderClause == null ? order : orderClause + ',' + order;
     }
+    return SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection,
+                                               resolve(groupBy, resolver, false), having,
+                                               orderClause, maxRows);
   }
 
+  /**
+   * @return ordered properties and their direction ("ASC" or "DESC").
+   */
+  List<String> getOrderBy() {
+    return orderBy;
+  }
+
+  /**
+   * @return limit or null.
+   */
+  @Nullable
+  String getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return true if the query can be paged (no limit, no group).
+   */
+  boolean isPageable() {
+    return limit == null && groupBy.isEmpty();
+  }
+
+  private static String resolve(List<String> properties, PropertyResolver resolver,
+                                boolean ordered) {
+    if (properties.isEmpty()) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder();
+    int step = ordered ? 2 : 1;
+    for (int i = 0; i < properties.size(); i += step) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(resolver.resolveColumnForProperty(properties.get(i)));
+      if (ordered) {
+        builder.append(' ').append(properties.get(i + 1));
+      }
+    }
+    return builder.toString();
+  }
 }
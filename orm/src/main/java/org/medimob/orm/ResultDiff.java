@@ -0,0 +1,216 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+import android.util.LongSparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Difference between two results of an incremental live query (see
+ * {@link Query#observeIncremental(java.util.concurrent.Executor, LiveQuery.DiffObserver)}) :
+ * <ul>
+ * <li>removed : previous results positions of the rows which are no longer results;</li>
+ * <li>inserted : new results positions of the new rows;</li>
+ * <li>moved : previous and new positions of the rows whose order changed (minimal set);</li>
+ * <li>changed : new results positions of the rows which have been re-fetched.</li>
+ * </ul>
+ * Removed, inserted, changed and moved to positions are sorted in ascending order. Moved from
+ * positions are paired with the moved to positions (same index) : they follow the new order, not
+ * their own.
+ *
+ * Created by Poopaou on 18/02/2015.
+ */
+public final class ResultDiff {
+
+  private static final int[] EMPTY = new int[0];
+
+  private final int[] removed;
+  private final int[] inserted;
+  private final int[] movedFrom;
+  private final int[] movedTo;
+  private final int[] changed;
+
+  private ResultDiff(int[] removed, int[] inserted, int[] movedFrom, int[] movedTo,
+                     int[] changed) {
+    this.removed = removed;
+    this.inserted = inserted;
+    this.movedFrom = movedFrom;
+    this.movedTo = movedTo;
+    this.changed = changed;
+  }
+
+  /**
+   * Compute the difference between two results : rows are identified by their id, a row whose
+   * entity instance is not the previous one is changed.
+   *
+   * @param previousIds previous results ids.
+   * @param previous    previous results.
+   * @param ids         new results ids.
+   * @param results     new results.
+   * @param <T>         entity type.
+   * @return difference.
+   */
+  static <T> ResultDiff compute(long[] previousIds, List<T> previous, long[] ids,
+                                List<T> results) {
+    LongSparseArray<Integer> previousPositions = new LongSparseArray<Integer>(previousIds.length);
+    for (int i = 0; i < previousIds.length; i++) {
+      previousPositions.put(previousIds[i], i);
+    }
+    LongSparseArray<Integer> positions = new LongSparseArray<Integer>(ids.length);
+    for (int i = 0; i < ids.length; i++) {
+      positions.put(ids[i], i);
+    }
+
+    int[] removed = new int[previousIds.length];
+    int removedCount = 0;
+    for (int i = 0; i < previousIds.length; i++) {
+      if (positions.get(previousIds[i]) == null) {
+        removed[removedCount++] = i;
+      }
+    }
+
+    int[] inserted = new int[ids.length];
+    int insertedCount = 0;
+    int[] changed = new int[ids.length];
+    int changedCount = 0;
+    // Kept rows : previous positions in new order.
+    int[] kept = new int[ids.length];
+    int[] keptPositions = new int[ids.length];
+    int keptCount = 0;
+    for (int i = 0; i < ids.length; i++) {
+      Integer previousPosition = previousPositions.get(ids[i]);
+      if (previousPosition == null) {
+        inserted[insertedCount++] = i;
+        continue;
+      }
+      if (previous.get(previousPosition) != results.get(i)) {
+        changed[changedCount++] = i;
+      }
+      kept[keptCount] = previousPosition;
+      keptPositions[keptCount++] = i;
+    }
+
+    // Rows outside of the longest increasing
+    // subsequence of previous positions moved.
+    boolean[] stable = longestIncreasingSubsequence(kept, keptCount);
+    int movedCount = 0;
+    for (int i = 0; i < keptCount; i++) {
+      if (!stable[i]) {
+        movedCount++;
+      }
+    }
+    int[] movedFrom = new int[movedCount];
+    int[] movedTo = new int[movedCount];
+    movedCount = 0;
+    for (int i = 0; i < keptCount; i++) {
+      if (!stable[i]) {
+        movedFrom[movedCount] = kept[i];
+        movedTo[movedCount++] = keptPositions[i];
+      }
+    }
+    return new ResultDiff(trim(removed, removedCount), trim(inserted, insertedCount), movedFrom,
+                          movedTo, trim(changed, changedCount));
+  }
+
+  /**
+   * @param size results size.
+   * @return difference of all rows inserted.
+   */
+  static ResultDiff inserted(int size) {
+    int[] inserted = new int[size];
+    for (int i = 0; i < size; i++) {
+      inserted[i] = i;
+    }
+    return new ResultDiff(EMPTY, inserted, EMPTY, EMPTY, EMPTY);
+  }
+
+  private static int[] trim(int[] array, int size) {
+    return size == 0 ? EMPTY : size == array.length ? array : Arrays.copyOf(array, size);
+  }
+
+  // Patience sorting, returns the members of one longest increasing subsequence.
+  private static boolean[] longestIncreasingSubsequence(int[] values, int size) {
+    int[] tails = new int[size];
+    int[] previous = new int[size];
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (values[tails[middle]] < values[i]) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      previous[i] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = i;
+      if (low == length) {
+        length++;
+      }
+    }
+    boolean[] members = new boolean[size];
+    for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+      members[i] = true;
+    }
+    return members;
+  }
+
+  /**
+   * @return true if results did not change.
+   */
+  public boolean isEmpty() {
+    return removed.length == 0 && inserted.length == 0 && movedFrom.length == 0
+           && changed.length == 0;
+  }
+
+  /**
+   * @return previous positions of removed rows.
+   */
+  @NonNull
+  public int[] getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @return new positions of inserted rows.
+   */
+  @NonNull
+  public int[] getInserted() {
+    return inserted;
+  }
+
+  /**
+   * @return previous positions of moved rows, in the order of {@link #getMovedTo()} (not sorted).
+   */
+  @NonNull
+  public int[] getMovedFrom() {
+    return movedFrom;
+  }
+
+  /**
+   * @return new positions of moved rows (ascending), paired with {@link #getMovedFrom()}.
+   */
+  @NonNull
+  public int[] getMovedTo() {
+    return movedTo;
+  }
+
+  /**
+   * @return new positions of changed rows.
+   */
+  @NonNull
+  public int[] getChanged() {
+    return changed;
+  }
+
+  @Override
+  public String toString() {
+    return "ResultDiff{" + "removed=" + Arrays.toString(removed) + ", inserted="
+           + Arrays.toString(inserted) + ", movedFrom=" + Arrays.toString(movedFrom)
+           + ", movedTo=" + Arrays.toString(movedTo) + ", changed=" + Arrays.toString(changed)
+           + '}';
+  }
+}
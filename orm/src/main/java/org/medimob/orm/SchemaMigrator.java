@@ -0,0 +1,451 @@
+package org.medimob.orm;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.medimob.orm.internal.SqlUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schema migration engine. Each model's schema (generated fingerprint and columns definitions) is
+ * stored in the {@value #SCHEMA_TABLE} table, upgrades diff the stored schema against the
+ * generated one :
+ * <ul>
+ * <li>new columns are added with <code>ALTER TABLE ADD COLUMN</code> when SQLite allows it, and
+ * indexes / triggers are dropped or created when their statement changed;</li>
+ * <li>otherwise (removed or changed column) a rebuild is scheduled : rows are copied by
+ * batches to a new table once the database is open, each batch in its own transaction, then the
+ * tables are swapped. Interrupted rebuilds resume on next opening. Null values of NOT NULL
+ * columns are copied as the column's default value.</li>
+ * </ul>
+ * Upgrades adding a NOT NULL column, or making a column holding null values NOT NULL, without a
+ * default value are rejected with an {@link OrmException}.
+ * Databases created before schemas were stored are diffed against their columns names and types.
+ *
+ * Created by Poopaou on 16/02/2015.
+ */
+final class SchemaMigrator {
+
+  static final String SCHEMA_TABLE = "ORM_SCHEMA";
+  static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final String REBUILD_SUFFIX = "_REBUILD";
+  private static final String COLUMNS_SEPARATOR = "\n";
+
+  private final int batchSize;
+
+  SchemaMigrator(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @param db    database.
+   * @param table table's name.
+   * @return true if the table exists.
+   */
+  static boolean tableExists(@NonNull SQLiteDatabase db, @NonNull String table) {
+    return DatabaseUtils.longForQuery(
+        db, "SELECT count(*) FROM sqlite_master WHERE type='table' AND name=? COLLATE NOCASE",
+        new String[]{table}) > 0;
+  }
+
+  private static String columnName(String definition) {
+    String trimmed = definition.trim();
+    int end = 0;
+    while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+      end++;
+    }
+    return trimmed.substring(0, end).toUpperCase(Locale.US);
+  }
+
+  private static String columnType(String definition) {
+    String[] tokens = definition.trim().split("\\s+");
+    return tokens.length > 1 ? tokens[1].toUpperCase(Locale.US) : "";
+  }
+
+  // See SQLite ALTER TABLE ADD COLUMN restrictions.
+  private static boolean canAddColumn(String definition) {
+    String upper = definition.toUpperCase(Locale.US);
+    if (upper.contains("PRIMARY KEY") || upper.contains("UNIQUE")) {
+      return false;
+    }
+    int defaultIndex = upper.indexOf(" DEFAULT ");
+    if (defaultIndex < 0) {
+      return !upper.contains("NOT NULL");
+    }
+    String value = upper.substring(defaultIndex + " DEFAULT ".length()).trim();
+    if (value.startsWith("(") || value.startsWith("CURRENT_")) {
+      return false;
+    }
+    return !upper.contains("NOT NULL") || !value.startsWith("NULL");
+  }
+
+  private static boolean isNotNull(String definition) {
+    String upper = definition.toUpperCase(Locale.US);
+    return upper.contains("NOT NULL") && !upper.contains("PRIMARY KEY");
+  }
+
+  // NOT NULL column without default : null values cannot be copied.
+  private static boolean isMissingDefault(String definition) {
+    return isNotNull(definition) && defaultValue(definition) == null;
+  }
+
+  // Default value expression of a column definition, null if none.
+  @Nullable
+  private static String defaultValue(String definition) {
+    int defaultIndex = definition.toUpperCase(Locale.US).indexOf(" DEFAULT ");
+    if (defaultIndex < 0) {
+      return null;
+    }
+    String value = definition.substring(defaultIndex + " DEFAULT ".length()).trim();
+    int end = 0;
+    if (value.startsWith("(")) {
+      int depth = 0;
+      do {
+        char c = value.charAt(end++);
+        if (c == '(') {
+          depth++;
+        } else if (c == ')') {
+          depth--;
+        }
+      } while (depth > 0 && end < value.length());
+    } else if (value.startsWith("'")) {
+      end = 1;
+      while (end < value.length()) {
+        if (value.charAt(end++) == '\'') {
+          // Escaped quote ('').
+          if (end < value.length() && value.charAt(end) == '\'') {
+            end++;
+          } else {
+            break;
+          }
+        }
+      }
+    } else {
+      while (end < value.length() && !Character.isWhitespace(value.charAt(end))) {
+        end++;
+      }
+    }
+    value = value.substring(0, end);
+    return value.equalsIgnoreCase("NULL") ? null : value;
+  }
+
+  private static boolean hasNullValues(SQLiteDatabase db, String table, String column) {
+    return DatabaseUtils.longForQuery(
+        db, "SELECT count(*) FROM " + table + " WHERE " + column + " IS NULL", null) > 0;
+  }
+
+  private static List<String> getColumnNames(SQLiteDatabase db, String table) {
+    List<String> names = new ArrayList<String>();
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+    try {
+      int nameIndex = cursor.getColumnIndexOrThrow("name");
+      while (cursor.moveToNext()) {
+        names.add(cursor.getString(nameIndex));
+      }
+    } finally {
+      cursor.close();
+    }
+    return names;
+  }
+
+  /**
+   * Create the schema table if needed.
+   *
+   * @param db database.
+   */
+  void createSchemaTable(@NonNull SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE
+               + " (TABLE_NAME TEXT PRIMARY KEY COLLATE NOCASE, FINGERPRINT TEXT, COLUMNS TEXT,"
+               + " REBUILD INTEGER DEFAULT 0 NOT NULL)");
+  }
+
+  /**
+   * Create model's table and store its schema.
+   *
+   * @param db    database.
+   * @param model model.
+   */
+  void createTable(@NonNull SQLiteDatabase db, @NonNull AbstractModel<?> model) {
+    model.onCreate(db);
+    writeSchema(db, model.getTableName(), model.getSchemaFingerprint(),
+                model.getColumnDefinitions(), false);
+  }
+
+  /**
+   * Migrate model's table to the generated schema (database upgrade transaction) : tables
+   * needing a rebuild are only prepared, see {@link #resumeRebuilds(SQLiteDatabase, Orm)}.
+   *
+   * @param db         database.
+   * @param model      model.
+   * @param lazySchema true if missing tables are created on first use.
+   * @throws OrmException if a new <code>NOT NULL</code> column has no default value.
+   */
+  void migrate(@NonNull SQLiteDatabase db, @NonNull AbstractModel<?> model, boolean lazySchema) {
+    String table = model.getTableName();
+    if (!tableExists(db, table)) {
+      if (!lazySchema) {
+        createTable(db, model);
+      }
+      return;
+    }
+
+    String fingerprint = null;
+    String storedColumns = null;
+    boolean pendingRebuild = false;
+    Cursor cursor = db.rawQuery("SELECT FINGERPRINT, COLUMNS, REBUILD FROM " + SCHEMA_TABLE
+                                + " WHERE TABLE_NAME=?", new String[]{table});
+    try {
+      if (cursor.moveToFirst()) {
+        fingerprint = cursor.getString(0);
+        storedColumns = cursor.getString(1);
+        pendingRebuild = cursor.getInt(2) != 0;
+      }
+    } finally {
+      cursor.close();
+    }
+    if (model.getSchemaFingerprint().equals(fingerprint) && !pendingRebuild) {
+      return;
+    }
+
+    // Existing columns by name : stored definitions, or
+    // columns types if the schema has never been stored.
+    Map<String, String> existing = new HashMap<String, String>();
+    boolean typesOnly = storedColumns == null;
+    if (typesOnly) {
+      cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+      try {
+        int nameIndex = cursor.getColumnIndexOrThrow("name");
+        int typeIndex = cursor.getColumnIndexOrThrow("type");
+        while (cursor.moveToNext()) {
+          String name = cursor.getString(nameIndex);
+          existing.put(name.toUpperCase(Locale.US), name + " " + cursor.getString(typeIndex));
+        }
+      } finally {
+        cursor.close();
+      }
+    } else {
+      for (String definition : storedColumns.split(COLUMNS_SEPARATOR)) {
+        existing.put(columnName(definition), definition);
+      }
+    }
+
+    String[] definitions = model.getColumnDefinitions();
+    Set<String> generated = new HashSet<String>();
+    List<String> added = new ArrayList<String>();
+    boolean rebuild = false;
+    // Existing column with null values which becomes NOT NULL without default.
+    String nullColumn = null;
+    for (String definition : definitions) {
+      String name = columnName(definition);
+      generated.add(name);
+      String previous = existing.get(name);
+      if (previous == null) {
+        if (isMissingDefault(definition)) {
+          throw new OrmException("Table " + table + " : new NOT NULL column " + name
+                                 + " needs a default value");
+        }
+        if (canAddColumn(definition)) {
+          added.add(definition);
+        } else {
+          rebuild = true;
+        }
+      } else if (typesOnly ? !columnType(previous).equals(columnType(definition))
+                           : !previous.equals(definition)) {
+        rebuild = true;
+      }
+      if (previous != null && isMissingDefault(definition) && hasNullValues(db, table, name)) {
+        nullColumn = name;
+      }
+    }
+    if (!generated.containsAll(existing.keySet())) {
+      rebuild = true;
+    }
+    if (rebuild && nullColumn != null) {
+      // The rows copy would fail on every opening.
+      throw new OrmException("Table " + table + " : column " + nullColumn
+                             + " becomes NOT NULL, its null values need a default value");
+    }
+
+    String rebuildTable = table + REBUILD_SUFFIX;
+    db.execSQL("DROP TABLE IF EXISTS " + rebuildTable);
+    if (rebuild) {
+      OrmLog.d("Table " + table + " rebuild scheduled");
+      db.execSQL(SqlUtils.createSqlCreateTable(rebuildTable, definitions));
+      writeSchema(db, table, fingerprint,
+                  typesOnly ? null : storedColumns.split(COLUMNS_SEPARATOR), true);
+    } else {
+      for (String definition : added) {
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + definition);
+      }
+      updateSchemaStatements(db, model);
+      writeSchema(db, table, model.getSchemaFingerprint(), definitions, false);
+    }
+  }
+
+  /**
+   * Rebuild the tables scheduled by {@link #migrate(SQLiteDatabase, AbstractModel, boolean)}
+   * (database opening, outside of any transaction).
+   *
+   * @param db  database.
+   * @param orm orm (models are only created if a rebuild is pending).
+   */
+  void resumeRebuilds(@NonNull SQLiteDatabase db, @NonNull Orm orm) {
+    if (db.isReadOnly() || !tableExists(db, SCHEMA_TABLE)) {
+      return;
+    }
+    Set<String> pending = new HashSet<String>();
+    Cursor cursor = db.rawQuery("SELECT TABLE_NAME FROM " + SCHEMA_TABLE + " WHERE REBUILD=1",
+                                null);
+    try {
+      while (cursor.moveToNext()) {
+        pending.add(cursor.getString(0).toUpperCase(Locale.US));
+      }
+    } finally {
+      cursor.close();
+    }
+    if (pending.isEmpty()) {
+      return;
+    }
+    for (AbstractModel<?> model : orm.getModels()) {
+      if (pending.contains(model.getTableName().toUpperCase(Locale.US))) {
+        rebuild(db, model);
+      }
+    }
+  }
+
+  private void rebuild(SQLiteDatabase db, AbstractModel<?> model) {
+    String table = model.getTableName();
+    String rebuildTable = table + REBUILD_SUFFIX;
+    String id = model.resolveIdColumn();
+
+    // Copy the columns kept by the new schema, null values
+    // of NOT NULL columns are replaced by their default value.
+    Set<String> oldColumns = new HashSet<String>();
+    for (String name : getColumnNames(db, table)) {
+      oldColumns.add(name.toUpperCase(Locale.US));
+    }
+    Map<String, String> definitions = new HashMap<String, String>();
+    for (String definition : model.getColumnDefinitions()) {
+      definitions.put(columnName(definition), definition);
+    }
+    StringBuilder columns = new StringBuilder();
+    StringBuilder values = new StringBuilder();
+    for (String name : getColumnNames(db, rebuildTable)) {
+      String upperName = name.toUpperCase(Locale.US);
+      if (oldColumns.contains(upperName)) {
+        if (columns.length() > 0) {
+          columns.append(", ");
+          values.append(", ");
+        }
+        columns.append(name);
+        String definition = definitions.get(upperName);
+        String value = definition != null && isNotNull(definition)
+                       ? defaultValue(definition) : null;
+        values.append(value != null ? "COALESCE(" + name + ", " + value + ")" : name);
+      }
+    }
+    String lastIdSql = "SELECT max(" + id + ") FROM " + rebuildTable;
+    String copySql = "INSERT INTO " + rebuildTable + " (" + columns + ") SELECT " + values
+                     + " FROM " + table + " WHERE " + id + ">? ORDER BY " + id + " LIMIT "
+                     + batchSize;
+
+    // Rows are copied by id order : an interrupted
+    // rebuild resumes after the last copied row.
+    String lastId = DatabaseUtils.stringForQuery(db, lastIdSql, null);
+    long from = lastId != null ? Long.parseLong(lastId) : Long.MIN_VALUE;
+    long copied = 0;
+    SQLiteStatement copy = db.compileStatement(copySql);
+    try {
+      int rows;
+      do {
+        db.beginTransactionNonExclusive();
+        try {
+          copy.bindLong(1, from);
+          rows = copy.executeUpdateDelete();
+          if (rows > 0) {
+            from = Long.parseLong(DatabaseUtils.stringForQuery(db, lastIdSql, null));
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+        copied += rows;
+      } while (rows == batchSize);
+    } finally {
+      copy.close();
+    }
+
+    db.beginTransactionNonExclusive();
+    try {
+      db.execSQL("DROP TABLE " + table);
+      db.execSQL("ALTER TABLE " + rebuildTable + " RENAME TO " + table);
+      for (String statement : model.getSchemaStatements()) {
+        db.execSQL(statement);
+      }
+      writeSchema(db, table, model.getSchemaFingerprint(), model.getColumnDefinitions(), false);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    OrmLog.d("Table " + table + " rebuilt, " + copied + " rows copied");
+  }
+
+  // Drop indexes and triggers whose statement changed, create the new ones.
+  private void updateSchemaStatements(SQLiteDatabase db, AbstractModel<?> model) {
+    Set<String> statements = new HashSet<String>(Arrays.asList(model.getSchemaStatements()));
+    List<String> drops = new ArrayList<String>();
+    Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE tbl_name=?"
+                                + " COLLATE NOCASE AND type IN ('index', 'trigger')"
+                                + " AND sql IS NOT NULL", new String[]{model.getTableName()});
+    try {
+      while (cursor.moveToNext()) {
+        if (!statements.remove(cursor.getString(2).trim())) {
+          drops.add("DROP " + cursor.getString(0).toUpperCase(Locale.US) + " "
+                    + cursor.getString(1));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    for (String drop : drops) {
+      db.execSQL(drop);
+    }
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+
+  private void writeSchema(SQLiteDatabase db, String table, @Nullable String fingerprint,
+                           @Nullable String[] columns, boolean rebuild) {
+    String joined = null;
+    if (columns != null) {
+      StringBuilder builder = new StringBuilder();
+      for (String column : columns) {
+        if (builder.length() > 0) {
+          builder.append(COLUMNS_SEPARATOR);
+        }
+        builder.append(column);
+      }
+      joined = builder.toString();
+    }
+    db.execSQL("INSERT OR REPLACE INTO " + SCHEMA_TABLE
+               + " (TABLE_NAME, FINGERPRINT, COLUMNS, REBUILD) VALUES (?, ?, ?, ?)",
+               new Object[]{table, fingerprint, joined, rebuild ? 1 : 0});
+  }
+}
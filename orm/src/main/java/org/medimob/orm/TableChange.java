@@ -0,0 +1,42 @@
+package org.medimob.orm;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Committed changes of a table : ids of the inserted, updated or deleted rows.
+ *
+ * Created by Poopaou on 17/02/2015.
+ */
+public final class TableChange {
+
+  private final String table;
+  private final long[] ids;
+
+  TableChange(@NonNull String table, @NonNull long[] ids) {
+    this.table = table;
+    this.ids = ids;
+  }
+
+  /**
+   * @return table's name.
+   */
+  @NonNull
+  public String getTable() {
+    return table;
+  }
+
+  /**
+   * @return changed rows ids (sorted, distinct).
+   */
+  @NonNull
+  public long[] getIds() {
+    return ids;
+  }
+
+  @Override
+  public String toString() {
+    return "TableChange{" + "table='" + table + '\'' + ", ids=" + Arrays.toString(ids) + '}';
+  }
+}
@@ -0,0 +1,360 @@
+package org.medimob.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous write pipeline. Writes are enqueued by callers and executed by a single writer
+ * thread, which groups them in one transaction per {@code maxOperations} writes or
+ * {@code maxDelayMillis} milliseconds (group commit).
+ *
+ * Futures are completed once the transaction is committed. If a write fails, only this write's
+ * future fails : the transaction is rolled back and the remaining writes are replayed in a new
+ * transaction.
+ *
+ * Created by Poopaou on 06/02/2015.
+ */
+public final class WriteQueue {
+
+  public static final int DEFAULT_MAX_OPERATIONS = 100;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+
+  private final Orm orm;
+  private final OpenHelper helper;
+  private final ChangeBus changeBus;
+  private final int maxOperations;
+  private final long maxDelayMillis;
+  private final BlockingQueue<PendingWrite<?>> queue;
+  private final Thread writer;
+  // Guards shutdown against concurrent enqueue.
+  private final Object lock = new Object();
+  private volatile boolean shutdown;
+
+  WriteQueue(Orm orm, OpenHelper helper, int maxOperations, long maxDelayMillis) {
+    if (maxOperations < 1) {
+      throw new IllegalArgumentException("maxOperations must be greater than 0");
+    }
+    this.orm = orm;
+    this.helper = helper;
+    this.changeBus = orm.getChangeBus();
+    this.maxOperations = maxOperations;
+    this.maxDelayMillis = maxDelayMillis;
+    this.queue = new LinkedBlockingQueue<PendingWrite<?>>();
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "orm-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Enqueue entity insert.
+   *
+   * @param clazz  data class.
+   * @param entity entity to insert.
+   * @param <T>    class type
+   * @return future completed with the entity id once committed.
+   */
+  public <T> Future<Long> insert(@NonNull Class<T> clazz, @NonNull final T entity) {
+    final AbstractModel<T> model = orm.getRepository(clazz);
+    return enqueue(new PendingWrite<Long>() {
+      @Override
+      Long execute() {
+        return model.insert(entity);
+      }
+    });
+  }
+
+  /**
+   * Enqueue entity update.
+   *
+   * @param clazz  data class.
+   * @param entity entity to update.
+   * @param <T>    class type
+   * @return future completed with the update count once committed.
+   */
+  public <T> Future<Integer> update(@NonNull Class<T> clazz, @NonNull final T entity) {
+    final AbstractModel<T> model = orm.getRepository(clazz);
+    return enqueue(new PendingWrite<Integer>() {
+      @Override
+      Integer execute() {
+        return model.update(entity) ? 1 : 0;
+      }
+    });
+  }
+
+  /**
+   * Enqueue entity delete.
+   *
+   * @param clazz  data class.
+   * @param entity entity to delete.
+   * @param <T>    class type
+   * @return future completed with the delete count once committed.
+   */
+  public <T> Future<Integer> delete(@NonNull Class<T> clazz, @NonNull final T entity) {
+    final AbstractModel<T> model = orm.getRepository(clazz);
+    return enqueue(new PendingWrite<Integer>() {
+      @Override
+      Integer execute() {
+        return model.delete(entity) ? 1 : 0;
+      }
+    });
+  }
+
+  /**
+   * Enqueue entities delete by ids.
+   *
+   * @param clazz data class.
+   * @param ids   entities to delete ids.
+   * @param <T>   class type
+   * @return future completed with the delete count once committed.
+   */
+  public <T> Future<Integer> deleteById(@NonNull Class<T> clazz, @NonNull final long... ids) {
+    final AbstractModel<T> model = orm.getRepository(clazz);
+    return enqueue(new PendingWrite<Integer>() {
+      @Override
+      Integer execute() {
+        return model.deleteById(ids);
+      }
+    });
+  }
+
+  /**
+   * Stop the writer thread once all enqueued writes are committed. New writes are rejected.
+   */
+  public void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+    }
+    writer.interrupt();
+  }
+
+  /**
+   * Wait for the writer thread to stop, after {@link #shutdown()}.
+   *
+   * @param timeout max wait time.
+   * @param unit    timeout unit.
+   * @return true if the writer thread is stopped.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, @NonNull TimeUnit unit)
+      throws InterruptedException {
+    long millis = unit.toMillis(timeout);
+    // Thread.join(0) waits forever.
+    if (millis > 0) {
+      writer.join(millis);
+    }
+    return !writer.isAlive();
+  }
+
+  private <V> Future<V> enqueue(PendingWrite<V> write) {
+    // Once shutdown is set no write can be added,
+    // the writer stops on the first empty queue.
+    synchronized (lock) {
+      if (shutdown) {
+        throw new IllegalStateException("Write queue is shutdown");
+      }
+      queue.add(write);
+    }
+    return write;
+  }
+
+  private void loop() {
+    List<PendingWrite<?>> batch = new ArrayList<PendingWrite<?>>(maxOperations);
+    try {
+      while (!shutdown || !queue.isEmpty()) {
+        try {
+          poll(batch);
+        } catch (InterruptedException e) {
+          // Shutdown requested : commit the polled writes, then drain the queue.
+        }
+        if (batch.isEmpty()) {
+          continue;
+        }
+        try {
+          commit(batch);
+        } catch (RuntimeException e) {
+          OrmLog.e("Write queue commit failed", e);
+          for (PendingWrite<?> write : batch) {
+            write.fail(e);
+          }
+        }
+        batch.clear();
+      }
+    } finally {
+      // Writer stopped : no future is left pending.
+      synchronized (lock) {
+        shutdown = true;
+      }
+      IllegalStateException error = new IllegalStateException("Write queue is shutdown");
+      for (PendingWrite<?> write : batch) {
+        write.fail(error);
+      }
+      PendingWrite<?> write;
+      while ((write = queue.poll()) != null) {
+        write.fail(error);
+      }
+    }
+  }
+
+  private void poll(List<PendingWrite<?>> batch) throws InterruptedException {
+    PendingWrite<?> first = shutdown ? queue.poll() : queue.take();
+    if (first == null) {
+      return;
+    }
+    batch.add(first);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    while (batch.size() < maxOperations) {
+      long remaining = deadline - System.nanoTime();
+      PendingWrite<?> next = remaining > 0 && !shutdown
+                             ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void commit(List<PendingWrite<?>> batch) {
+    // Cancelled writes are never executed.
+    for (int i = batch.size() - 1; i >= 0; i--) {
+      if (!batch.get(i).start()) {
+        batch.remove(i);
+      }
+    }
+    SQLiteDatabase db = helper.getWritableDatabase();
+    while (!batch.isEmpty()) {
+      PendingWrite<?> failed = null;
+      db.beginTransactionNonExclusive();
+      changeBus.beginTransaction();
+      boolean ended = false;
+      try {
+        for (PendingWrite<?> write : batch) {
+          try {
+            write.run();
+          } catch (RuntimeException e) {
+            write.fail(e);
+            failed = write;
+            break;
+          }
+        }
+        if (failed == null) {
+          db.setTransactionSuccessful();
+          changeBus.setTransactionSuccessful();
+        }
+      } finally {
+        try {
+          db.endTransaction();
+          ended = true;
+        } finally {
+          changeBus.endTransaction(ended);
+        }
+      }
+      if (failed == null) {
+        for (PendingWrite<?> write : batch) {
+          write.complete();
+        }
+        return;
+      }
+      // Rollback : replay the others writes.
+      batch.remove(failed);
+    }
+  }
+
+  /**
+   * Enqueued write and its future.
+   */
+  private abstract static class PendingWrite<V> implements Future<V> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private boolean started;
+    private V result;
+    private Throwable error;
+
+    abstract V execute();
+
+    synchronized boolean start() {
+      if (cancelled) {
+        return false;
+      }
+      started = true;
+      return true;
+    }
+
+    void run() {
+      result = execute();
+    }
+
+    void complete() {
+      done.countDown();
+    }
+
+    void fail(Throwable throwable) {
+      if (done.getCount() > 0) {
+        error = throwable;
+        done.countDown();
+      }
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+      // Started writes cannot be cancelled.
+      if (started || done.getCount() == 0) {
+        return false;
+      }
+      cancelled = true;
+      done.countDown();
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      done.await();
+      return getResult();
+    }
+
+    @Override
+    public V get(long timeout, @NonNull TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return getResult();
+    }
+
+    private V getResult() throws ExecutionException {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      if (error != null) {
+        throw new ExecutionException(error);
+      }
+      return result;
+    }
+  }
+}
@@ -18,4 +18,11 @@ public @interface Model {
    * By default the type's simple name is used.
    */
   String name() default "";
+
+  /**
+   * Track the entities loaded through the session (<code>loadById</code>,
+   * <code>loadByIds</code>) : their update only writes the changed columns. Loaded values are
+   * copied (including <code>byte[]</code> and <code>Date</code> values).
+   */
+  boolean dirtyTracking() default false;
 }
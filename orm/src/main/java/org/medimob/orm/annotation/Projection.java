@@ -0,0 +1,24 @@
+package org.medimob.orm.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Projection definition : a lightweight view of a model reading only a subset of its columns.
+ * Projection fields are mapped by name onto the model's fields (with the same type).
+ *
+ * Created by Poopaou on 13/02/2015.
+ */
+@Documented
+@Target(value = ElementType.TYPE)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface Projection {
+
+  /**
+   * Projected model.
+   */
+  Class<?> model();
+}
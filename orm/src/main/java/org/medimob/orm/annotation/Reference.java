@@ -20,4 +20,13 @@ public @interface Reference {
 
   Action onDelete() default Action.NO_ACTION;
 
+  /**
+   * Name of the (not persisted) field of the referenced model type set by reference fetching (see
+   * {@link org.medimob.orm.Orm#fetchReferences(Class, java.util.List, String...)}), empty if
+   * the reference is not fetched.
+   *
+   * @return referenced entity field name.
+   */
+  String field() default "";
+
 }
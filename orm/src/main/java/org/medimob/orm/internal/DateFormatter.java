@@ -0,0 +1,232 @@
+package org.medimob.orm.internal;
+
+import android.support.annotation.NonNull;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe date formatter for {@code DATE_STRING} columns. Formatters are cached per pattern
+ * and backed by a thread local {@link SimpleDateFormat}.
+ *
+ * The default pattern ({@value #ISO_8601_PATTERN}) has a fast path formatting and parsing dates
+ * without {@link SimpleDateFormat} (the output is identical), which falls back to
+ * {@link SimpleDateFormat} for dates outside of years 1583-9999 or non canonical strings.
+ *
+ * Like {@link SimpleDateFormat}, formatters use the default time zone of their creation time.
+ *
+ * Created by Poopaou on 12/02/2015.
+ */
+public class DateFormatter {
+
+  public static final String ISO_8601_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+
+  private static final ConcurrentMap<String, DateFormatter> FORMATTERS =
+      new ConcurrentHashMap<String, DateFormatter>();
+
+  private final String pattern;
+  private final ThreadLocal<SimpleDateFormat> formats;
+
+  DateFormatter(@NonNull String pattern) {
+    this.pattern = pattern;
+    this.formats = new ThreadLocal<SimpleDateFormat>();
+  }
+
+  /**
+   * Gets the cached formatter for a pattern.
+   *
+   * @param pattern date pattern.
+   * @return formatter.
+   */
+  @NonNull
+  public static DateFormatter forPattern(@NonNull String pattern) {
+    DateFormatter formatter = FORMATTERS.get(pattern);
+    if (formatter == null) {
+      formatter = ISO_8601_PATTERN.equals(pattern)
+                  ? new Iso8601Formatter() : new DateFormatter(pattern);
+      DateFormatter previous = FORMATTERS.putIfAbsent(pattern, formatter);
+      if (previous != null) {
+        formatter = previous;
+      }
+    }
+    return formatter;
+  }
+
+  /**
+   * @return date pattern.
+   */
+  @NonNull
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Format date.
+   *
+   * @param date date.
+   * @return formatted date.
+   */
+  @NonNull
+  public String format(@NonNull Date date) {
+    return getFormat().format(date);
+  }
+
+  /**
+   * Parse date.
+   *
+   * @param value formatted date.
+   * @return date.
+   * @throws ParseException if the value cannot be parsed.
+   */
+  @NonNull
+  public Date parse(@NonNull String value) throws ParseException {
+    return getFormat().parse(value);
+  }
+
+  private SimpleDateFormat getFormat() {
+    SimpleDateFormat format = formats.get();
+    if (format == null) {
+      format = new SimpleDateFormat(pattern);
+      formats.set(format);
+    }
+    return format;
+  }
+
+  /**
+   * {@value #ISO_8601_PATTERN} pattern fast path.
+   */
+  static final class Iso8601Formatter extends DateFormatter {
+
+    // "yyyy-MM-ddTHH:mm:ss.SSS+hhmm"
+    private static final int LENGTH = 28;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final long MIN_YEAR = 1583;
+    private static final long MAX_YEAR = 9999;
+
+    private final TimeZone timeZone;
+
+    Iso8601Formatter() {
+      super(ISO_8601_PATTERN);
+      timeZone = TimeZone.getDefault();
+    }
+
+    // Days since epoch of a proleptic gregorian date.
+    private static long daysFromCivil(long year, int month, int day) {
+      year -= month <= 2 ? 1 : 0;
+      long era = (year >= 0 ? year : year - 399) / 400;
+      long yearOfEra = year - era * 400;
+      long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static void appendDigits(char[] buffer, int offset, long value, int count) {
+      for (int i = offset + count - 1; i >= offset; i--) {
+        buffer[i] = (char) ('0' + value % 10);
+        value /= 10;
+      }
+    }
+
+    private static int parseDigits(String value, int offset, int count) {
+      int result = 0;
+      for (int i = offset; i < offset + count; i++) {
+        char c = value.charAt(i);
+        if (c < '0' || c > '9') {
+          return -1;
+        }
+        result = result * 10 + c - '0';
+      }
+      return result;
+    }
+
+    @NonNull
+    @Override
+    public String format(@NonNull Date date) {
+      long time = date.getTime();
+      int offset = timeZone.getOffset(time);
+      long local = time + offset;
+      long days = floorDiv(local, MILLIS_PER_DAY);
+      long millisOfDay = local - days * MILLIS_PER_DAY;
+
+      // Civil date from days (proleptic gregorian).
+      long z = days + 719468;
+      long era = (z >= 0 ? z : z - 146096) / 146097;
+      long dayOfEra = z - era * 146097;
+      long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      long mp = (5 * dayOfYear + 2) / 153;
+      int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+      int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+      long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      if (year < MIN_YEAR || year > MAX_YEAR) {
+        // Julian calendar or eras : use SimpleDateFormat.
+        return super.format(date);
+      }
+
+      char[] buffer = new char[LENGTH];
+      appendDigits(buffer, 0, year, 4);
+      buffer[4] = '-';
+      appendDigits(buffer, 5, month, 2);
+      buffer[7] = '-';
+      appendDigits(buffer, 8, day, 2);
+      buffer[10] = 'T';
+      appendDigits(buffer, 11, millisOfDay / 3600000, 2);
+      buffer[13] = ':';
+      appendDigits(buffer, 14, millisOfDay / 60000 % 60, 2);
+      buffer[16] = ':';
+      appendDigits(buffer, 17, millisOfDay / 1000 % 60, 2);
+      buffer[19] = '.';
+      appendDigits(buffer, 20, millisOfDay % 1000, 3);
+      int offsetMinutes = offset / 60000;
+      buffer[23] = offsetMinutes < 0 ? '-' : '+';
+      offsetMinutes = Math.abs(offsetMinutes);
+      appendDigits(buffer, 24, offsetMinutes / 60, 2);
+      appendDigits(buffer, 26, offsetMinutes % 60, 2);
+      return new String(buffer);
+    }
+
+    @NonNull
+    @Override
+    public Date parse(@NonNull String value) throws ParseException {
+      if (value.length() != LENGTH || value.charAt(4) != '-' || value.charAt(7) != '-'
+          || value.charAt(10) != 'T' || value.charAt(13) != ':' || value.charAt(16) != ':'
+          || value.charAt(19) != '.'
+          || (value.charAt(23) != '+' && value.charAt(23) != '-')) {
+        return super.parse(value);
+      }
+      int year = parseDigits(value, 0, 4);
+      int month = parseDigits(value, 5, 2);
+      int day = parseDigits(value, 8, 2);
+      int hour = parseDigits(value, 11, 2);
+      int minute = parseDigits(value, 14, 2);
+      int second = parseDigits(value, 17, 2);
+      int millis = parseDigits(value, 20, 3);
+      int offsetHours = parseDigits(value, 24, 2);
+      int offsetMinutes = parseDigits(value, 26, 2);
+      if (year < MIN_YEAR || month < 1 || month > 12 || day < 0 || hour < 0 || minute < 0
+          || second < 0 || millis < 0 || offsetHours < 0 || offsetMinutes < 0) {
+        // Lenient parsing : use SimpleDateFormat.
+        return super.parse(value);
+      }
+      long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+      if (value.charAt(23) == '-') {
+        offset = -offset;
+      }
+      long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                   + hour * 3600000L + minute * 60000L + second * 1000L + millis;
+      return new Date(local - offset);
+    }
+
+    private static long floorDiv(long x, long y) {
+      long q = x / y;
+      if ((x % y != 0) && ((x ^ y) < 0)) {
+        q--;
+      }
+      return q;
+    }
+  }
+}
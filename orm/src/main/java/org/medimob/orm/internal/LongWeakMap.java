@@ -0,0 +1,298 @@
+package org.medimob.orm.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent primitive long keyed map of weak references.
+ *
+ * Keys are spread over lock striped segments. Each segment is a chained hash table whose nodes
+ * are immutable : reads never lock, writes lock their own segment only. Cleared references are
+ * purged from the map through a {@link ReferenceQueue} on each write. An optional attachment can be
+ * stored with each value : it is strongly referenced until the value is removed or collected.
+ *
+ * Created by Poopaou on 08/02/2015.
+ */
+public final class LongWeakMap<V> {
+
+  private static final int SEGMENT_COUNT = 16;
+  private static final int SEGMENT_MASK = SEGMENT_COUNT - 1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Segment<V>[] segments;
+  private final ReferenceQueue<V> queue;
+
+  @SuppressWarnings("unchecked")
+  public LongWeakMap() {
+    queue = new ReferenceQueue<V>();
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment<V>(queue);
+    }
+  }
+
+  private static int hash(long key) {
+    int h = (int) (key ^ (key >>> 32));
+    // Spread bits (murmur3 finalizer).
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private Segment<V> segmentFor(int hash) {
+    return segments[(hash >>> 28) & SEGMENT_MASK];
+  }
+
+  /**
+   * Gets value (never blocks).
+   *
+   * @param key key.
+   * @return value or null if absent or garbage collected.
+   */
+  @Nullable
+  public V get(long key) {
+    int hash = hash(key);
+    return segmentFor(hash).get(key, hash);
+  }
+
+  /**
+   * Put value.
+   *
+   * @param key   key.
+   * @param value value (weakly referenced).
+   */
+  public void put(long key, @NonNull V value) {
+    put(key, value, null);
+  }
+
+  /**
+   * Put value with an attachment.
+   *
+   * @param key        key.
+   * @param value      value (weakly referenced).
+   * @param attachment value's attachment (strongly referenced while the value is mapped).
+   */
+  public void put(long key, @NonNull V value, @Nullable Object attachment) {
+    purge();
+    int hash = hash(key);
+    segmentFor(hash).put(key, hash, value, attachment);
+  }
+
+  /**
+   * Gets value's attachment (never blocks).
+   *
+   * @param key   key.
+   * @param value expected value.
+   * @return attachment or null if absent or if the key is mapped to another value.
+   */
+  @Nullable
+  public Object getAttachment(long key, @NonNull V value) {
+    int hash = hash(key);
+    return segmentFor(hash).getAttachment(key, hash, value);
+  }
+
+  /**
+   * Remove value.
+   *
+   * @param key key.
+   */
+  public void remove(long key) {
+    purge();
+    int hash = hash(key);
+    segmentFor(hash).remove(key, hash, null);
+  }
+
+  /**
+   * Remove all values.
+   */
+  public void clear() {
+    for (Segment<V> segment : segments) {
+      segment.clear();
+    }
+    // Drop pending cleared references.
+    while (queue.poll() != null) {
+      // nothing to do.
+    }
+  }
+
+  /**
+   * @return entries count (including not yet purged cleared references).
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<V> segment : segments) {
+      size += segment.count;
+    }
+    return size;
+  }
+
+  /**
+   * Remove garbage collected values.
+   */
+  @SuppressWarnings("unchecked")
+  public void purge() {
+    Reference<? extends V> ref;
+    while ((ref = queue.poll()) != null) {
+      Node<V> node = (Node<V>) ref;
+      segmentFor(node.hash).remove(node.key, node.hash, node);
+    }
+  }
+
+  private static final class Node<V> extends WeakReference<V> {
+
+    final long key;
+    final int hash;
+    final Object attachment;
+    final Node<V> next;
+
+    Node(long key, int hash, V value, Object attachment, Node<V> next,
+         ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.key = key;
+      this.hash = hash;
+      this.attachment = attachment;
+      this.next = next;
+    }
+  }
+
+  private static final class Segment<V> extends ReentrantLock {
+
+    private static final long serialVersionUID = 2249069246763182397L;
+
+    private final ReferenceQueue<V> queue;
+    private volatile AtomicReferenceArray<Node<V>> table;
+    private volatile int count;
+
+    Segment(ReferenceQueue<V> queue) {
+      this.queue = queue;
+      this.table = new AtomicReferenceArray<Node<V>>(INITIAL_CAPACITY);
+    }
+
+    V get(long key, int hash) {
+      AtomicReferenceArray<Node<V>> tab = table;
+      Node<V> node = tab.get(hash & (tab.length() - 1));
+      while (node != null) {
+        if (node.key == key) {
+          return node.get();
+        }
+        node = node.next;
+      }
+      return null;
+    }
+
+    Object getAttachment(long key, int hash, V value) {
+      AtomicReferenceArray<Node<V>> tab = table;
+      Node<V> node = tab.get(hash & (tab.length() - 1));
+      while (node != null) {
+        if (node.key == key) {
+          return node.get() == value ? node.attachment : null;
+        }
+        node = node.next;
+      }
+      return null;
+    }
+
+    void put(long key, int hash, V value, Object attachment) {
+      lock();
+      try {
+        AtomicReferenceArray<Node<V>> tab = table;
+        if (count + 1 > tab.length() * 3 / 4) {
+          tab = resize(tab);
+        }
+        int index = hash & (tab.length() - 1);
+        Node<V> first = tab.get(index);
+        Node<V> newFirst = new Node<V>(key, hash, value, attachment,
+                                       removeFromChain(first, key, null), queue);
+        tab.set(index, newFirst);
+        count += length(newFirst) - length(first);
+      } finally {
+        unlock();
+      }
+    }
+
+    void remove(long key, int hash, Node<V> expected) {
+      lock();
+      try {
+        AtomicReferenceArray<Node<V>> tab = table;
+        int index = hash & (tab.length() - 1);
+        Node<V> first = tab.get(index);
+        Node<V> newFirst = removeFromChain(first, key, expected);
+        if (newFirst != first) {
+          tab.set(index, newFirst);
+          count += length(newFirst) - length(first);
+        }
+      } finally {
+        unlock();
+      }
+    }
+
+    void clear() {
+      lock();
+      try {
+        table = new AtomicReferenceArray<Node<V>>(INITIAL_CAPACITY);
+        count = 0;
+      } finally {
+        unlock();
+      }
+    }
+
+    // Nodes are immutable : nodes before the removed
+    // one are copied, cleared references are dropped.
+    private Node<V> removeFromChain(Node<V> first, long key, Node<V> expected) {
+      Node<V> target = first;
+      while (target != null && !(target.key == key && (expected == null || target == expected))) {
+        target = target.next;
+      }
+      if (target == null) {
+        return first;
+      }
+      Node<V> newFirst = target.next;
+      for (Node<V> node = first; node != target; node = node.next) {
+        V value = node.get();
+        if (value != null) {
+          newFirst = new Node<V>(node.key, node.hash, value, node.attachment, newFirst, queue);
+        }
+      }
+      return newFirst;
+    }
+
+    private AtomicReferenceArray<Node<V>> resize(AtomicReferenceArray<Node<V>> old) {
+      AtomicReferenceArray<Node<V>> tab = new AtomicReferenceArray<Node<V>>(old.length() * 2);
+      int mask = tab.length() - 1;
+      for (int i = 0; i < old.length(); i++) {
+        for (Node<V> node = old.get(i); node != null; node = node.next) {
+          V value = node.get();
+          if (value != null) {
+            int index = node.hash & mask;
+            tab.set(index, new Node<V>(node.key, node.hash, value, node.attachment,
+                                       tab.get(index), queue));
+          }
+        }
+      }
+      table = tab;
+      int size = 0;
+      for (int i = 0; i < tab.length(); i++) {
+        size += length(tab.get(i));
+      }
+      count = size;
+      return tab;
+    }
+
+    private int length(Node<V> first) {
+      int length = 0;
+      for (Node<V> node = first; node != null; node = node.next) {
+        length++;
+      }
+      return length;
+    }
+  }
+}
@@ -2,116 +2,164 @@ package org.medimob.orm.internal;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.LongSparseArray;
+import android.util.LruCache;
 
-import java.lang.ref.Reference;
-import java.lang.ref.WeakReference;
-import java.util.concurrent.locks.ReentrantLock;
+import org.medimob.orm.CacheConfig;
+import org.medimob.orm.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * entity cache session
+ * entity cache session. Entities are kept in a weak reference identity map, an optional strong
+ * reference LRU tier (see {@link CacheConfig}) keeps the most recently used entities alive.
+ * Lookups never block : the identity map is a lock striped {@link LongWeakMap}.
  * Created by Poopaou on 23/01/2015.
  */
 public class Session<T> {
 
-  private final LongSparseArray<Reference<T>> map;
-  private final ReentrantLock lock;
+  private final LongWeakMap<T> map;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+  private final AtomicLong evictionCount;
+  private volatile StrongCache<T> strongCache;
 
   public Session() {
-    map = new LongSparseArray<Reference<T>>();
-    lock = new ReentrantLock();
+    map = new LongWeakMap<T>();
+    hitCount = new AtomicLong();
+    missCount = new AtomicLong();
+    evictionCount = new AtomicLong();
   }
 
   /**
-   * Gets entity from cache (with cache lock).
+   * Configure the strong reference LRU tier (cached entities are kept in the weak identity map).
    *
-   * @param key entity ids.
-   * @return entity or null not cached
+   * @param config cache configuration.
    */
-  @Nullable
-  public T get(long key) {
-    lock.lock();
-    Reference<T> ref;
-    try {
-      ref = map.get(key);
-    } finally {
-      lock.unlock();
-    }
-    if (ref != null) {
-      return ref.get();
+  public void configure(@NonNull CacheConfig<T> config) {
+    if (config.getMaxSize() > 0) {
+      strongCache = new StrongCache<T>(config, evictionCount);
     } else {
-      return null;
+      strongCache = null;
     }
   }
 
   /**
-   * Gets entity from cache (without cache lock).
+   * @return strong reference LRU tier max size (0 if disabled).
+   */
+  public int getMaxSize() {
+    StrongCache<T> strong = strongCache;
+    return strong != null ? strong.maxSize() : 0;
+  }
+
+  /**
+   * @return cache statistics snapshot.
+   */
+  @NonNull
+  public CacheStats getStats() {
+    StrongCache<T> strong = strongCache;
+    return new CacheStats(hitCount.get(), missCount.get(), evictionCount.get(),
+                          strong != null ? strong.size() : 0);
+  }
+
+  /**
+   * Gets entity from cache (never blocks).
    *
    * @param key entity ids.
    * @return entity or null not cached
    */
   @Nullable
-  public T getNoLock(long key) {
-    Reference<T> ref = map.get(key);
-    if (ref != null) {
-      return ref.get();
-    } else {
+  public T get(long key) {
+    StrongCache<T> strong = strongCache;
+    T entity = strong != null ? strong.getEntity(key) : null;
+    if (entity != null) {
+      hitCount.incrementAndGet();
+      return entity;
+    }
+    entity = map.get(key);
+    if (entity == null) {
+      missCount.incrementAndGet();
       return null;
     }
+    hitCount.incrementAndGet();
+    // Promote entity back in the strong tier.
+    if (strong != null) {
+      strong.putEntity(key, entity);
+    }
+    return entity;
   }
 
   /**
-   * Put entity in cache (with cache lock).
+   * Put entity in cache.
    *
    * @param key    entity ids.
    * @param entity entity.
    */
   public void put(long key, @NonNull T entity) {
-    lock.lock();
-    try {
-      map.put(key, new WeakReference<T>(entity));
-    } finally {
-      lock.unlock();
+    put(key, entity, null);
+  }
+
+  /**
+   * Put entity in cache with its loaded state snapshot (see dirty tracking).
+   *
+   * @param key      entity ids.
+   * @param entity   entity.
+   * @param snapshot entity's loaded values.
+   */
+  public void put(long key, @NonNull T entity, @Nullable Object[] snapshot) {
+    map.put(key, entity, snapshot);
+    StrongCache<T> strong = strongCache;
+    if (strong != null) {
+      strong.putEntity(key, entity);
     }
   }
 
   /**
-   * Put entity in cache (without cache lock).
+   * @param key    entity ids.
+   * @param entity entity.
+   * @return true if the entity is the cached instance (not counted as a hit or a miss).
+   */
+  public boolean contains(long key, @NonNull T entity) {
+    return map.get(key) == entity;
+  }
+
+  /**
+   * Gets entity's loaded state snapshot (never blocks).
    *
    * @param key    entity ids.
    * @param entity entity.
+   * @return snapshot or null if the entity is not cached or has no snapshot.
    */
-  public void putNoLock(long key, @NonNull T entity) {
-    map.put(key, new WeakReference<T>(entity));
+  @Nullable
+  public Object[] getSnapshot(long key, @NonNull T entity) {
+    return (Object[]) map.getAttachment(key, entity);
   }
 
   /**
-   * Remote entity from cache (with cache lock).
+   * Remote entity from cache.
    *
    * @param key key
    */
   public void remove(long key) {
-    lock.lock();
-    try {
-      map.remove(key);
-    } finally {
-      lock.unlock();
+    map.remove(key);
+    StrongCache<T> strong = strongCache;
+    if (strong != null) {
+      strong.remove(key);
     }
   }
 
   /**
-   * Remote all entities from cache (with cache lock).
+   * Remote all entities from cache.
    *
    * @param keys keys
    */
   public void remove(@NonNull Iterable<Long> keys) {
-    lock.lock();
-    try {
-      for (Long key : keys) {
-        map.remove(key);
+    StrongCache<T> strong = strongCache;
+    for (Long key : keys) {
+      map.remove(key);
+      if (strong != null) {
+        strong.remove(key);
       }
-    } finally {
-      lock.unlock();
     }
   }
 
@@ -119,25 +167,71 @@ public class Session<T> {
    * Clear cache.
    */
   public void clear() {
-    lock.lock();
-    try {
-      map.clear();
-    } finally {
-      lock.unlock();
+    map.clear();
+    StrongCache<T> strong = strongCache;
+    if (strong != null) {
+      strong.evictAll();
     }
   }
 
   /**
-   * Lock cache access.
+   * Strong reference LRU tier.
    */
-  public void lock() {
-    lock.lock();
+  private static final class StrongCache<T> extends LruCache<Long, StrongEntry<T>> {
+
+    private final CacheConfig.Sizer<T> sizer;
+    private final long ttlNanos;
+    private final AtomicLong evictionCount;
+
+    StrongCache(CacheConfig<T> config, AtomicLong evictionCount) {
+      super(config.getMaxSize());
+      this.sizer = config.getSizer();
+      this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(config.getTtlMillis());
+      this.evictionCount = evictionCount;
+    }
+
+    T getEntity(long key) {
+      StrongEntry<T> entry = get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (ttlNanos > 0 && System.nanoTime() - entry.time > ttlNanos) {
+        remove(key);
+        return null;
+      }
+      return entry.entity;
+    }
+
+    void putEntity(long key, T entity) {
+      // Size is computed once : cached entities may be modified.
+      int size = sizer != null ? sizer.sizeOf(entity) : 1;
+      put(key, new StrongEntry<T>(entity, size, System.nanoTime()));
+    }
+
+    @Override
+    protected int sizeOf(Long key, StrongEntry<T> value) {
+      return value.size;
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Long key, StrongEntry<T> oldValue,
+                                StrongEntry<T> newValue) {
+      if (evicted) {
+        evictionCount.incrementAndGet();
+      }
+    }
   }
 
-  /**
-   * Unlock cache access.
-   */
-  public void unlock() {
-    lock.unlock();
+  private static final class StrongEntry<T> {
+
+    final T entity;
+    final int size;
+    final long time;
+
+    StrongEntry(T entity, int size, long time) {
+      this.entity = entity;
+      this.size = size;
+      this.time = time;
+    }
   }
 }
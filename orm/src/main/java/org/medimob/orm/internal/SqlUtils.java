@@ -8,9 +8,36 @@ import android.support.annotation.Nullable;
  */
 public final class SqlUtils {
 
+  /**
+   * SQLite default max bound parameters count per statement (SQLITE_MAX_VARIABLE_NUMBER).
+   */
+  public static final int MAX_BIND_ARGS = 999;
+
   private SqlUtils() {
   }
 
+  /**
+   * Create sql create table.
+   *
+   * @param tableName         table's name.
+   * @param columnDefinitions columns definitions.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlCreateTable(@NonNull String tableName,
+                                            @NonNull String[] columnDefinitions) {
+    StringBuilder builder = new StringBuilder("CREATE TABLE ");
+    builder.append(tableName).append(" (");
+    for (int i = 0; i < columnDefinitions.length; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(columnDefinitions[i]);
+    }
+    builder.append(')');
+    return builder.toString();
+  }
+
   /**
    * Create sql delete.
    *
@@ -64,6 +91,184 @@ public final class SqlUtils {
     return builder.toString();
   }
 
+  /**
+   * Create sql upsert : <code>INSERT INTO table (id,a,b) VALUES (?,?,?) ON CONFLICT(id) DO UPDATE
+   * SET a=excluded.a</code> (requires SQLite 3.24). If version field is present is initialized
+   * with '0' value on insert and incremented on update.
+   *
+   * Bind parameters are the id then the columns.
+   *
+   * @param tableName     table's name.
+   * @param id            id column.
+   * @param columns       inserted columns.
+   * @param updateColumns columns updated on conflict (subset of the inserted columns).
+   * @param version       version columns.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlUpsert(@NonNull String tableName, @NonNull String id,
+                                       @NonNull String[] columns,
+                                       @NonNull String[] updateColumns,
+                                       @Nullable String version) {
+    StringBuilder builder = new StringBuilder(createSqlInsertWithId(tableName, id, columns,
+                                                                    version));
+    builder.append(" ON CONFLICT(").append(id).append(") DO ");
+    if (updateColumns.length == 0 && version == null) {
+      builder.append("NOTHING");
+      return builder.toString();
+    }
+    builder.append("UPDATE SET ");
+    for (int i = 0; i < updateColumns.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      appendColumn(builder, updateColumns[i]).append("=excluded.");
+      appendColumn(builder, updateColumns[i]);
+    }
+    if (version != null) {
+      if (updateColumns.length > 0) {
+        builder.append(',');
+      }
+      builder.append(version).append('=').append(version).append(" + 1");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Create sql insert with an explicit id. If version field is present is initialized with '0'
+   * value.
+   *
+   * Bind parameters are the id then the columns.
+   *
+   * @param tableName table's name.
+   * @param id        id column.
+   * @param columns   inserted columns.
+   * @param version   version columns.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlInsertWithId(@NonNull String tableName, @NonNull String id,
+                                             @NonNull String[] columns,
+                                             @Nullable String version) {
+    String[] insertColumns = new String[columns.length + 1];
+    insertColumns[0] = id;
+    System.arraycopy(columns, 0, insertColumns, 1, columns.length);
+    return createSqlInsert(tableName, insertColumns, version);
+  }
+
+  /**
+   * Create sql update by id without version check (upsert fallback for SQLite versions older
+   * than 3.24) : <code>UPDATE table SET a=?2,b=?3 WHERE id=?1</code>. If version field is present
+   * is incremented.
+   *
+   * Bind parameters are the id then the columns : the same as
+   * {@link #createSqlUpsert(String, String, String[], String[], String)} if the update columns are
+   * the first inserted columns.
+   *
+   * @param tableName     table's name.
+   * @param id            id column.
+   * @param updateColumns updated columns.
+   * @param version       version columns.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlUpsertUpdate(@NonNull String tableName, @NonNull String id,
+                                             @NonNull String[] updateColumns,
+                                             @Nullable String version) {
+    StringBuilder builder = new StringBuilder("UPDATE ");
+    builder.append(tableName).append(" SET ");
+    for (int i = 0; i < updateColumns.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      appendColumn(builder, updateColumns[i]).append("=?").append(i + 2);
+    }
+    if (version != null) {
+      if (updateColumns.length > 0) {
+        builder.append(',');
+      }
+      builder.append(version).append('=').append(version).append(" + 1");
+    } else if (updateColumns.length == 0) {
+      // Nothing to update : only check that the row exists.
+      builder.append(id).append('=').append(id);
+    }
+    builder.append(" WHERE ").append(id).append("=?1");
+    return builder.toString();
+  }
+
+  /**
+   * Create multi rows sql insert : <code>INSERT INTO table (a,b) VALUES (?,?),(?,?)...</code>. If
+   * version field is present is automatically initialize with '0' value.
+   *
+   * Bind parameter number is equals to the columns size multiplied by the rows count, row
+   * <code>r</code> parameters start at index <code>r * columns.length + 1</code>.
+   *
+   * @param tableName table's name.
+   * @param columns   inserted columns.
+   * @param version   version columns.
+   * @param rows      inserted rows count.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlInsertBatch(@NonNull String tableName, @NonNull String[] columns,
+                                            @Nullable String version, int rows) {
+    StringBuilder builder = new StringBuilder("INSERT INTO ");
+    builder.append(tableName).append(" (");
+    appendColumns(builder, columns);
+    if (version != null) {
+      builder.append(',');
+      builder.append(version);
+    }
+    builder.append(") VALUES ");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append('(');
+      appendPlaceholders(builder, columns.length);
+      if (version != null) {
+        builder.append(",0");
+      }
+      builder.append(')');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Gets the max rows count of a multi rows insert, so that the statement stays under the bound
+   * parameters limit.
+   *
+   * @param columnCount inserted columns count.
+   * @return max rows count.
+   */
+  public static int getMaxInsertBatchRows(int columnCount) {
+    if (columnCount <= 0) {
+      return MAX_BIND_ARGS;
+    }
+    return Math.max(1, MAX_BIND_ARGS / columnCount);
+  }
+
+  /**
+   * Create sql select by ids : <code>SELECT a,b FROM table WHERE id IN (?,?...)</code>.
+   *
+   * @param tableName table's name.
+   * @param columns   selected columns.
+   * @param id        id column.
+   * @param count     ids count.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlSelectIn(@NonNull String tableName, @NonNull String[] columns,
+                                         @NonNull String id, int count) {
+    StringBuilder builder = new StringBuilder("SELECT ");
+    appendColumns(builder, columns);
+    builder.append(" FROM ").append(tableName);
+    builder.append(" WHERE ").append(id).append(" IN (");
+    appendPlaceholders(builder, count);
+    builder.append(')');
+    return builder.toString();
+  }
+
   /**
    * Create sql update.
    *
@@ -82,7 +287,9 @@ public final class SqlUtils {
     builder.append(tableName).append(" SET ");
     appendColumnsEqualPlaceholders(builder, updateColumns);
     if (version != null) {
-      builder.append(',');
+      if (updateColumns.length > 0) {
+        builder.append(',');
+      }
       builder.append(version);
       builder.append("=");
       builder.append(version);
@@ -100,6 +307,29 @@ public final class SqlUtils {
     return builder.toString();
   }
 
+  /**
+   * Create sql update of the columns selected by a bit mask (dirty columns).
+   *
+   * @param tableName     table's name.
+   * @param updateColumns update columns.
+   * @param mask          updated columns mask (bit i selects column i).
+   * @param id            id column.
+   * @param version       version columns.
+   * @return sql statement.
+   */
+  @NonNull
+  public static String createSqlUpdate(@NonNull String tableName, @NonNull String[] updateColumns,
+                                       long mask, @NonNull String id, @Nullable String version) {
+    String[] columns = new String[Long.bitCount(mask)];
+    int count = 0;
+    for (int i = 0; i < updateColumns.length && count < columns.length; i++) {
+      if ((mask & (1L << i)) != 0) {
+        columns[count++] = updateColumns[i];
+      }
+    }
+    return createSqlUpdate(tableName, columns, id, version);
+  }
+
   private static StringBuilder appendColumnsEqualPlaceholders(StringBuilder builder,
                                                               String[] columns) {
     for (int i = 0; i < columns.length; i++) {
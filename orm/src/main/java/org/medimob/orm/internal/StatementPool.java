@@ -0,0 +1,154 @@
+package org.medimob.orm.internal;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Per thread compiled statements pool. A statement is only bound and executed by the thread which
+ * compiled it : writers never lock each others while binding, SQLite serializes the executions on
+ * its write connection. Each thread keeps its most recently used statements, statements are
+ * closed on eviction, when the pool is closed or when their thread is dead.
+ *
+ * A thread may be executing its statements while the pool is closed : the calling thread's
+ * statements (and dead threads' ones) are closed at once, others threads close their own stale
+ * statements on their next acquire.
+ *
+ * Created by Poopaou on 14/02/2015.
+ */
+public final class StatementPool {
+
+  public static final int DEFAULT_MAX_STATEMENTS_PER_THREAD = 32;
+
+  private final int maxStatementsPerThread;
+  // All threads statements (guarded by itself).
+  private final List<ThreadStatements> caches;
+  private final ThreadLocal<ThreadStatements> local;
+  private volatile int generation;
+
+  public StatementPool() {
+    this(DEFAULT_MAX_STATEMENTS_PER_THREAD);
+  }
+
+  public StatementPool(int maxStatementsPerThread) {
+    this.maxStatementsPerThread = maxStatementsPerThread;
+    this.caches = new ArrayList<ThreadStatements>();
+    this.local = new ThreadLocal<ThreadStatements>();
+  }
+
+  /**
+   * Gets the calling thread's statement for sql (compiled if needed). The statement must not be
+   * shared with others threads.
+   *
+   * @param db  database.
+   * @param sql statement sql.
+   * @return compiled statement.
+   */
+  @NonNull
+  public SQLiteStatement acquire(@NonNull SQLiteDatabase db, @NonNull String sql) {
+    ThreadStatements cache = local.get();
+    if (cache == null || cache.generation != generation || cache.db != db) {
+      if (cache != null) {
+        // Stale statements are only closed by their own thread.
+        release(cache);
+      }
+      cache = new ThreadStatements(generation, db);
+      local.set(cache);
+      synchronized (caches) {
+        purge();
+        caches.add(cache);
+      }
+    }
+    SQLiteStatement statement = cache.get(sql);
+    if (statement == null) {
+      statement = db.compileStatement(sql);
+      cache.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /**
+   * @return open statements count.
+   */
+  public int size() {
+    int size = 0;
+    synchronized (caches) {
+      for (ThreadStatements cache : caches) {
+        size += cache.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Close the calling thread's statements and the dead threads ones. Others threads close their
+   * statements and compile new ones on their next acquire.
+   */
+  public void close() {
+    List<ThreadStatements> closed = new ArrayList<ThreadStatements>();
+    synchronized (caches) {
+      generation++;
+      Thread current = Thread.currentThread();
+      for (Iterator<ThreadStatements> it = caches.iterator(); it.hasNext(); ) {
+        ThreadStatements cache = it.next();
+        Thread owner = cache.owner.get();
+        if (owner == current || owner == null || !owner.isAlive()) {
+          it.remove();
+          closed.add(cache);
+        }
+      }
+    }
+    local.remove();
+    for (ThreadStatements cache : closed) {
+      cache.evictAll();
+    }
+  }
+
+  private void release(ThreadStatements cache) {
+    synchronized (caches) {
+      caches.remove(cache);
+    }
+    cache.evictAll();
+  }
+
+  // Close the statements of dead threads (guarded by caches).
+  private void purge() {
+    for (Iterator<ThreadStatements> it = caches.iterator(); it.hasNext(); ) {
+      ThreadStatements cache = it.next();
+      Thread owner = cache.owner.get();
+      if (owner == null || !owner.isAlive()) {
+        it.remove();
+        cache.evictAll();
+      }
+    }
+  }
+
+  private final class ThreadStatements extends LruCache<String, SQLiteStatement> {
+
+    final int generation;
+    final SQLiteDatabase db;
+    // Weak : the pool doesn't keep dead threads.
+    final WeakReference<Thread> owner;
+
+    ThreadStatements(int generation, SQLiteDatabase db) {
+      super(maxStatementsPerThread);
+      this.generation = generation;
+      this.db = db;
+      this.owner = new WeakReference<Thread>(Thread.currentThread());
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue,
+                                SQLiteStatement newValue) {
+      if (evicted) {
+        oldValue.close();
+      }
+    }
+  }
+}
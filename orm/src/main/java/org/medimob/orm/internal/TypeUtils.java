@@ -9,7 +9,7 @@ import org.medimob.orm.OrmException;
 import org.medimob.orm.OrmLog;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -18,9 +18,45 @@ import java.util.Date;
  */
 public final class TypeUtils {
 
+  // Columnar read initial capacity.
+  private static final int COLUMN_INITIAL_CAPACITY = 64;
+
   private TypeUtils() {
   }
 
+  /**
+   * Bind statement index primitive value (no boxing).
+   *
+   * @param statement statement
+   * @param value     value to be binned
+   * @param index     value's index
+   */
+  public static void bind(@NonNull SQLiteStatement statement, long value, int index) {
+    statement.bindLong(index, value);
+  }
+
+  /**
+   * Bind statement index primitive value (no boxing).
+   *
+   * @param statement statement
+   * @param value     value to be binned
+   * @param index     value's index
+   */
+  public static void bind(@NonNull SQLiteStatement statement, double value, int index) {
+    statement.bindDouble(index, value);
+  }
+
+  /**
+   * Bind statement index primitive value (no boxing).
+   *
+   * @param statement statement
+   * @param value     value to be binned
+   * @param index     value's index
+   */
+  public static void bind(@NonNull SQLiteStatement statement, boolean value, int index) {
+    statement.bindLong(index, value ? 1 : 2);
+  }
+
   /**
    * Bind statement index value.
    *
@@ -192,6 +228,7 @@ public final class TypeUtils {
    *
    * @param statement statement
    * @param value     value to be binned
+   * @param pattern   date pattern (see {@link DateFormatter})
    * @param index     value's index
    */
   public static void bind(@NonNull SQLiteStatement statement, @Nullable Date value,
@@ -200,8 +237,7 @@ public final class TypeUtils {
       statement.bindNull(index);
       return;
     }
-    SimpleDateFormat format = new SimpleDateFormat(pattern);
-    statement.bindString(index, format.format(value));
+    statement.bindString(index, DateFormatter.forPattern(pattern).format(value));
   }
 
   /**
@@ -379,13 +415,94 @@ public final class TypeUtils {
     if (cursor.isNull(column)) {
       return null;
     }
-    SimpleDateFormat format = new SimpleDateFormat(pattern);
     String value = cursor.getString(column);
     try {
-      return format.parse(value);
+      return DateFormatter.forPattern(pattern).parse(value);
     } catch (ParseException e) {
       OrmLog.e("Failed to parse date : " + value + " patter : " + pattern, e);
       throw new OrmException("Failed to parse date : " + value + " patter : " + pattern, e);
     }
   }
+
+  /**
+   * Read all cursor rows column values (null values are read as 0). The cursor is not closed.
+   *
+   * @param cursor cursor
+   * @param column column's index.
+   * @return values.
+   */
+  @NonNull
+  public static long[] getLongColumn(@NonNull Cursor cursor, int column) {
+    long[] values = new long[COLUMN_INITIAL_CAPACITY];
+    int size = 0;
+    while (cursor.moveToNext()) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = cursor.getLong(column);
+    }
+    return Arrays.copyOf(values, size);
+  }
+
+  /**
+   * Read all cursor rows column values (null values are read as 0). The cursor is not closed.
+   *
+   * @param cursor cursor
+   * @param column column's index.
+   * @return values.
+   */
+  @NonNull
+  public static double[] getDoubleColumn(@NonNull Cursor cursor, int column) {
+    double[] values = new double[COLUMN_INITIAL_CAPACITY];
+    int size = 0;
+    while (cursor.moveToNext()) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = cursor.getDouble(column);
+    }
+    return Arrays.copyOf(values, size);
+  }
+
+  /**
+   * Copy value (dirty tracking snapshot).
+   *
+   * @param value value.
+   * @return copy or null if value is null.
+   */
+  @Nullable
+  public static byte[] copy(@Nullable byte[] value) {
+    return value != null ? value.clone() : null;
+  }
+
+  /**
+   * Copy value (dirty tracking snapshot).
+   *
+   * @param value value.
+   * @return copy or null if value is null.
+   */
+  @Nullable
+  public static Date copy(@Nullable Date value) {
+    return value != null ? new Date(value.getTime()) : null;
+  }
+
+  /**
+   * Compare values (dirty tracking), <code>byte[]</code> values are compared by content.
+   *
+   * @param value    value.
+   * @param snapshot snapshot value.
+   * @return true if values are equal.
+   */
+  public static boolean equal(@Nullable Object value, @Nullable Object snapshot) {
+    if (value == snapshot) {
+      return true;
+    }
+    if (value == null || snapshot == null) {
+      return false;
+    }
+    if (value instanceof byte[] && snapshot instanceof byte[]) {
+      return Arrays.equals((byte[]) value, (byte[]) snapshot);
+    }
+    return value.equals(snapshot);
+  }
 }
@@ -5,6 +5,7 @@ import org.medimob.orm.annotation.Id;
 import org.medimob.orm.annotation.Index;
 import org.medimob.orm.annotation.Model;
 import org.medimob.orm.annotation.NotNull;
+import org.medimob.orm.annotation.Projection;
 import org.medimob.orm.annotation.Property;
 import org.medimob.orm.annotation.Table;
 import org.medimob.orm.annotation.Trigger;
@@ -13,19 +14,21 @@ import org.medimob.orm.annotation.Version;
 import org.medimob.orm.processor.dll.ConstraintDefinitionBuilder;
 import org.medimob.orm.processor.dll.Constraints;
 import org.medimob.orm.processor.dll.IndexDefinitionBuilder;
+import org.medimob.orm.processor.dll.PropertyDefinition;
 import org.medimob.orm.processor.dll.TriggerDefinitionBuilder;
 import org.medimob.orm.processor.dll.TypeDefinition;
 import org.medimob.orm.processor.dll.TypeDefinitionBuilder;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
@@ -37,11 +40,12 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
-import javax.tools.FileObject;
-import javax.tools.StandardLocation;
 
 import static org.medimob.orm.processor.ProcessorUtils.getNoArgsConstructor;
 import static org.medimob.orm.processor.ProcessorUtils.resolveIndexName;
@@ -56,7 +60,7 @@ import static org.medimob.orm.processor.ProcessorUtils.resolveUniqueName;
 public class EntityProcessor extends AbstractProcessor {
 
   public static final String CLASS_MODEL_SUFFIX = "$$Model";
-  public static final String ENTITY_LIST_FILE_PATH = "META-INF/org.medimob.Orm";
+  public static final String CLASS_PROJECTION_SUFFIX = "$$Projection";
 
   @SuppressWarnings("unchecked")
   private static final List<Class<? extends Annotation>> SUPPORTED_ANNOTATION = Arrays.asList(
@@ -71,24 +75,33 @@ public class EntityProcessor extends AbstractProcessor {
   );
 
   private Elements elementUtils;
+  private Types typeUtils;
   private PropertyProcessor propertyProcessor;
   private Map<String, TypeDefinition> proceededTypeMap;
+  private Map<String, ProjectionDefinition> projectionMap;
   private TypeWriter typeWriter;
+  private ProjectionWriter projectionWriter;
+  private RegistryWriter registryWriter;
 
   @Override
   public synchronized void init(ProcessingEnvironment processingEnv) {
     super.init(processingEnv);
 
     this.elementUtils = processingEnv.getElementUtils();
+    this.typeUtils = processingEnv.getTypeUtils();
     this.propertyProcessor = new PropertyProcessor(processingEnv, this);
     proceededTypeMap = new HashMap<String, TypeDefinition>();
+    projectionMap = new HashMap<String, ProjectionDefinition>();
     typeWriter = new TypeWriter(processingEnv.getFiler());
+    projectionWriter = new ProjectionWriter(processingEnv.getFiler());
+    registryWriter = new RegistryWriter(processingEnv.getFiler());
   }
 
   @Override
   public Set<String> getSupportedAnnotationTypes() {
     HashSet<String> supportTypes = new HashSet<String>();
     supportTypes.add(Model.class.getCanonicalName());
+    supportTypes.add(Projection.class.getCanonicalName());
     for (Class<? extends Annotation> c : SUPPORTED_ANNOTATION) {
       supportTypes.add(c.getCanonicalName());
     }
@@ -112,23 +125,34 @@ public class EntityProcessor extends AbstractProcessor {
             .printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
       }
     }
-
-    if (roundEnv.processingOver()) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(Projection.class)) {
       try {
-        FileObject fo = processingEnv.getFiler()
-            .createResource(StandardLocation.CLASS_OUTPUT, "", ENTITY_LIST_FILE_PATH);
-        BufferedWriter bufferedWriter = new BufferedWriter(fo.openWriter());
 
-        for (Map.Entry<String, TypeDefinition> entry : proceededTypeMap.entrySet()) {
-          // Write java file.
-          typeWriter.writeType(entry.getValue());
+        processProjection((TypeElement) element);
 
-          // Append metadata.
-          bufferedWriter.append(entry.getKey());
-          bufferedWriter.newLine();
-        }
+      } catch (MappingException e) {
+        processingEnv.getMessager()
+            .printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+      }
+    }
 
-        bufferedWriter.close();
+    if (roundEnv.processingOver() && !proceededTypeMap.isEmpty()) {
+      try {
+        // Sorted by name : registry indexes are stable between builds.
+        List<TypeDefinition> definitions = new ArrayList<TypeDefinition>();
+        for (String typeQName : new TreeSet<String>(proceededTypeMap.keySet())) {
+          TypeDefinition definition = proceededTypeMap.get(typeQName);
+          // Write java file.
+          typeWriter.writeType(definition);
+          definitions.add(definition);
+        }
+        List<ProjectionDefinition> projections = new ArrayList<ProjectionDefinition>();
+        for (String typeQName : new TreeSet<String>(projectionMap.keySet())) {
+          ProjectionDefinition projection = projectionMap.get(typeQName);
+          projectionWriter.writeProjection(projection);
+          projections.add(projection);
+        }
+        registryWriter.writeRegistry(definitions, projections);
       } catch (IOException e) {
         processingEnv.getMessager()
             .printMessage(Diagnostic.Kind.ERROR, e.getMessage());
@@ -159,7 +183,8 @@ public class EntityProcessor extends AbstractProcessor {
         .setTableName(tableName)
         .setTypeQualifiedName(typeQName)
         .setTypeSimpleName(typeElement.getSimpleName().toString())
-        .setPackageName(packageElement.getQualifiedName().toString());
+        .setPackageName(packageElement.getQualifiedName().toString())
+        .setDirtyTracking(typeElement.getAnnotation(Model.class).dirtyTracking());
 
     // Map columns.
     List<? extends Element> members = elementUtils.getAllMembers(typeElement);
@@ -174,6 +199,76 @@ public class EntityProcessor extends AbstractProcessor {
     return definition;
   }
 
+  private static TypeMirror getClassTypeMirror(Projection annotation) {
+    try {
+      annotation.model(); // this should throw
+    } catch (MirroredTypeException mte) {
+      return mte.getTypeMirror();
+    }
+    return null;
+  }
+
+  void processProjection(TypeElement typeElement) throws MappingException {
+    final String typeQName = typeElement.getQualifiedName().toString();
+    if (projectionMap.containsKey(typeQName)) {
+      return;
+    }
+    validateClassElement(typeElement);
+
+    TypeMirror modelType = getClassTypeMirror(typeElement.getAnnotation(Projection.class));
+    TypeElement modelElement = (TypeElement) typeUtils.asElement(modelType);
+    if (modelElement == null || modelElement.getAnnotation(Model.class) == null) {
+      throw new MappingException("The @Projection model must be a @Model class "
+                                 + typeElement.getSimpleName());
+    }
+    TypeDefinition model = getTypeDefinition(modelElement);
+
+    // Model properties and fields by field name.
+    Map<String, PropertyDefinition> modelProperties = new HashMap<String, PropertyDefinition>();
+    modelProperties.put(model.getIdColumn().getFieldName(), model.getIdColumn());
+    if (model.getVersionColumn() != null) {
+      modelProperties.put(model.getVersionColumn().getFieldName(), model.getVersionColumn());
+    }
+    for (PropertyDefinition property : model.getProperties()) {
+      modelProperties.put(property.getFieldName(), property);
+    }
+    Map<String, VariableElement> modelFields = new HashMap<String, VariableElement>();
+    for (VariableElement field : ElementFilter.fieldsIn(elementUtils.getAllMembers(modelElement))) {
+      modelFields.put(field.getSimpleName().toString(), field);
+    }
+
+    List<PropertyDefinition> properties = new ArrayList<PropertyDefinition>();
+    List<? extends Element> members = elementUtils.getAllMembers(typeElement);
+    for (VariableElement field : ElementFilter.fieldsIn(members)) {
+      Set<Modifier> modifiers = field.getModifiers();
+      if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+        continue;
+      }
+      String name = field.getSimpleName().toString();
+      PropertyDefinition property = modelProperties.get(name);
+      if (property == null) {
+        throw new MappingException("Projection field " + name + " is not a property of "
+                                   + modelElement.getSimpleName());
+      }
+      if (!typeUtils.isSameType(field.asType(), modelFields.get(name).asType())) {
+        throw new MappingException("Projection field " + name + " type must be the "
+                                   + modelElement.getSimpleName() + " field type");
+      }
+      if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+        throw new MappingException("Projection field " + name + " cannot be private or final");
+      }
+      properties.add(property);
+    }
+    if (properties.isEmpty()) {
+      throw new MappingException("The @Projection class must declare at least one field "
+                                 + typeElement.getSimpleName());
+    }
+
+    final PackageElement packageElement = elementUtils.getPackageOf(typeElement);
+    projectionMap.put(typeQName, new ProjectionDefinition(
+        packageElement.getQualifiedName().toString(), typeElement.getSimpleName().toString(),
+        model, properties));
+  }
 
   private void validateClassElement(TypeElement element) throws MappingException {
     if (!element.getKind().equals(ElementKind.CLASS)) {
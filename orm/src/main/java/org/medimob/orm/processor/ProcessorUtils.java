@@ -7,6 +7,9 @@ import org.medimob.orm.annotation.Model;
 import org.medimob.orm.annotation.Property;
 import org.medimob.orm.annotation.Unique;
 
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 import javax.lang.model.element.Element;
@@ -102,6 +105,35 @@ public final class ProcessorUtils {
     return name;
   }
 
+  /**
+   * Schema fingerprint : SHA-1 of the table statement and of the indexes and triggers statements.
+   *
+   * @param tableStatement   create table statement.
+   * @param schemaStatements indexes and triggers statements.
+   * @return hexadecimal fingerprint.
+   */
+  public static String fingerprint(@NonNull String tableStatement,
+                                   @NonNull List<String> schemaStatements) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    Charset charset = Charset.forName("UTF-8");
+    digest.update(tableStatement.getBytes(charset));
+    for (String statement : schemaStatements) {
+      digest.update((byte) ';');
+      digest.update(statement.getBytes(charset));
+    }
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest()) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
   /**
    * Gets package form element.
    *
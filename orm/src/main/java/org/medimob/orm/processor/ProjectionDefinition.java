@@ -0,0 +1,44 @@
+package org.medimob.orm.processor;
+
+import org.medimob.orm.processor.dll.PropertyDefinition;
+import org.medimob.orm.processor.dll.TypeDefinition;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Projection definition : projection type and the projected model's properties.
+ *
+ * Created by Poopaou on 13/02/2015.
+ */
+final class ProjectionDefinition {
+
+  private final String packageName;
+  private final String typeSimpleName;
+  private final TypeDefinition model;
+  private final List<PropertyDefinition> properties;
+
+  ProjectionDefinition(String packageName, String typeSimpleName, TypeDefinition model,
+                       List<PropertyDefinition> properties) {
+    this.packageName = packageName;
+    this.typeSimpleName = typeSimpleName;
+    this.model = model;
+    this.properties = Collections.unmodifiableList(properties);
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public String getTypeSimpleName() {
+    return typeSimpleName;
+  }
+
+  public TypeDefinition getModel() {
+    return model;
+  }
+
+  public List<PropertyDefinition> getProperties() {
+    return properties;
+  }
+}
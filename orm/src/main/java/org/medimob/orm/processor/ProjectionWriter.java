@@ -0,0 +1,111 @@
+package org.medimob.orm.processor;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import org.medimob.orm.AbstractProjection;
+import org.medimob.orm.processor.dll.PropertyDefinition;
+import org.medimob.orm.processor.dll.TypeDefinition;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.processing.Filer;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PROTECTED;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generate projection reader classes. Created by Poopaou on 13/02/2015.
+ */
+class ProjectionWriter {
+
+  private static final String COLUMNS_FIELD = "COLUMNS";
+
+  private final Filer filer;
+
+  public ProjectionWriter(Filer filer) {
+    this.filer = filer;
+  }
+
+  private static String formatStringArray(int size) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("new String[]{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append("$S");
+    }
+    builder.append(" }");
+    return builder.toString();
+  }
+
+  public void writeProjection(ProjectionDefinition definition) throws IOException {
+    final String packageName = definition.getPackageName();
+    final TypeDefinition model = definition.getModel();
+    final List<PropertyDefinition> properties = definition.getProperties();
+
+    ClassName typeClassName = ClassName.get(packageName, definition.getTypeSimpleName());
+    ClassName modelClassName = ClassName.get(model.getPackageName(), model.getTypeSimpleName());
+
+    TypeSpec.Builder classBuilder = TypeSpec
+        .classBuilder(definition.getTypeSimpleName() + EntityProcessor.CLASS_PROJECTION_SUFFIX)
+        .addJavadoc("AUTO GENERATED CLASS : DO NOT MODIFIED !!!")
+        .addModifiers(PUBLIC, FINAL)
+        .superclass(ParameterizedTypeName
+                        .get(ClassName.get(AbstractProjection.class), typeClassName));
+
+    // Field : 'COLUMNS'
+    Object[] columns = new Object[properties.size()];
+    for (int i = 0; i < properties.size(); i++) {
+      columns[i] = properties.get(i).getColumnName();
+    }
+    FieldSpec field = FieldSpec.builder(ArrayTypeName.of(String.class), COLUMNS_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatStringArray(columns.length), columns)
+        .build();
+    classBuilder.addField(field);
+
+    // Constructor
+    MethodSpec method = MethodSpec.constructorBuilder()
+        .addModifiers(PUBLIC)
+        .addStatement("super($T.class, $S, $L)", modelClassName, model.getTableName(),
+                      COLUMNS_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'newInstance'
+    method = MethodSpec.methodBuilder("newInstance")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(typeClassName)
+        .addStatement("return new $T()", typeClassName)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'readCursor'
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("readCursor")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .addParameter(typeClassName, "entity")
+        .addParameter(ClassName.get("android.database", "Cursor"), "cursor");
+    for (int i = 0; i < properties.size(); i++) {
+      TypeWriter.addReadStatement(builder, properties.get(i), i);
+    }
+    classBuilder.addMethod(builder.build());
+
+    // write java file.
+    JavaFile.builder(packageName, classBuilder.build())
+        .build()
+        .writeTo(filer);
+  }
+}
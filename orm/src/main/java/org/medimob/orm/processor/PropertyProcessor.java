@@ -1,6 +1,7 @@
 package org.medimob.orm.processor;
 
 import org.medimob.orm.annotation.Conflict;
+import org.medimob.orm.annotation.DateField;
 import org.medimob.orm.annotation.Id;
 import org.medimob.orm.annotation.Index;
 import org.medimob.orm.annotation.Model;
@@ -22,15 +23,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.MirroredTypeException;
 import javax.lang.model.type.PrimitiveType;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Types;
 
 import static org.medimob.orm.processor.ProcessorUtils.resolveColumnName;
@@ -114,6 +118,7 @@ class PropertyProcessor {
         .setColumnName(id.name())
         .setFieldName(element.getSimpleName().toString())
         .setPropertyType(getFieldType(element))
+        .setPrimitive(element.asType().getKind().isPrimitive())
         .addConstraints(
             newColumnConstraint()
                 .setType(Constraints.PRIMARY_KEY)
@@ -140,6 +145,7 @@ class PropertyProcessor {
         .setColumnName(version.name())
         .setFieldName(element.getSimpleName().toString())
         .setPropertyType(getFieldType(element))
+        .setPrimitive(element.asType().getKind().isPrimitive())
         .addConstraints(newColumnConstraint()
                             .setType(Constraints.DEFAULT)
                             .setName(version.name())
@@ -168,7 +174,8 @@ class PropertyProcessor {
         .setColumnName(columnName)
         .setFieldName(element.getSimpleName().toString())
         .setInsertable(property.insertable())
-        .setUpdateable(property.updatable());
+        .setUpdateable(property.updatable())
+        .setPrimitive(element.asType().getKind().isPrimitive());
 
     // Resolve type for basic types
     PropertyType type = getFieldType(element);
@@ -184,8 +191,8 @@ class PropertyProcessor {
       // NB: Date field are by default mapped as 'long' it
       // can be modified with the @Column annotation
       // properties.
-      columnBuilder.setPropertyType(getFieldType(element));
-      if (type == PropertyType.DATE_STRING) {
+      columnBuilder.setPropertyType(type);
+      if (type == PropertyType.DATE_LONG && property.dateType() == DateField.DATE_STRING) {
         columnBuilder.setPropertyType(PropertyType.DATE_STRING);
         columnBuilder.setDateFormat(property.dateFormat());
       }
@@ -229,6 +236,36 @@ class PropertyProcessor {
         .build();
 
     columnBuilder.addConstraints(constraint);
+
+    // Fetched reference : the entity field must be a not persisted field of the referenced type.
+    String fieldName = annotation.field();
+    if (fieldName.isEmpty()) {
+      return;
+    }
+    VariableElement field = null;
+    for (VariableElement member : ElementFilter.fieldsIn(
+        element.getEnclosingElement().getEnclosedElements())) {
+      if (member.getSimpleName().contentEquals(fieldName)) {
+        field = member;
+      }
+    }
+    if (field == null) {
+      throw new MappingException("Reference field " + fieldName + " does not exist");
+    }
+    if (!typeUtils.isSameType(field.asType(), reference.asType())) {
+      throw new MappingException("Reference field " + fieldName + " must be of type "
+                                 + reference.getSimpleName());
+    }
+    Set<Modifier> modifiers = field.getModifiers();
+    if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)
+        || modifiers.contains(Modifier.STATIC)) {
+      throw new MappingException("Reference field " + fieldName
+                                 + " cannot be private, final or static");
+    }
+    if (field.getAnnotation(Property.class) != null) {
+      throw new MappingException("Reference field " + fieldName + " cannot be a @Property");
+    }
+    columnBuilder.setFetchedReference(reference.getQualifiedName().toString(), fieldName);
   }
 
   protected void processUnique(PropertyDefinitionBuilder builder, Property property,
@@ -0,0 +1,168 @@
+package org.medimob.orm.processor;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import org.medimob.orm.AbstractModel;
+import org.medimob.orm.AbstractProjection;
+import org.medimob.orm.ModelRegistry;
+import org.medimob.orm.processor.dll.TypeDefinition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.Filer;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generate the {@link ModelRegistry} implementation : entity classes array, a switch based
+ * model factory and the projections factory. Created by Poopaou on 11/02/2015.
+ */
+class RegistryWriter {
+
+  private static final String ENTITIES_FIELD = "ENTITIES";
+
+  private final Filer filer;
+
+  public RegistryWriter(Filer filer) {
+    this.filer = filer;
+  }
+
+  private static String formatClassArray(int size) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("new $T[]{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append("$T.class");
+    }
+    builder.append(" }");
+    return builder.toString();
+  }
+
+  /**
+   * Write registry.
+   *
+   * @param definitions registered types (registry indexes follow the list order).
+   * @param projections registered projections.
+   * @throws IOException write error.
+   */
+  public void writeRegistry(List<TypeDefinition> definitions,
+                            List<ProjectionDefinition> projections) throws IOException {
+    ClassName registryName = ClassName.bestGuess(ModelRegistry.GENERATED_CLASS_NAME);
+    TypeName wildcard = WildcardTypeName.subtypeOf(Object.class);
+    TypeName classType = ParameterizedTypeName.get(ClassName.get(Class.class), wildcard);
+    TypeName modelType = ParameterizedTypeName.get(ClassName.get(AbstractModel.class), wildcard);
+    TypeName projectionType =
+        ParameterizedTypeName.get(ClassName.get(AbstractProjection.class), wildcard);
+
+    TypeSpec.Builder classBuilder = TypeSpec.classBuilder(registryName.simpleName())
+        .addJavadoc("AUTO GENERATED CLASS : DO NOT MODIFIED !!!")
+        .addModifiers(PUBLIC, FINAL)
+        .addSuperinterface(ClassName.get(ModelRegistry.class));
+
+    // Field : 'ENTITIES'
+    List<Object> entityArgs = new ArrayList<Object>();
+    entityArgs.add(ClassName.get(Class.class));
+    for (TypeDefinition definition : definitions) {
+      entityArgs.add(ClassName.get(definition.getPackageName(), definition.getTypeSimpleName()));
+    }
+    FieldSpec field = FieldSpec.builder(ArrayTypeName.of(classType), ENTITIES_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatClassArray(definitions.size()), entityArgs.toArray())
+        .build();
+    classBuilder.addField(field);
+
+    // Method : 'getModelCount'
+    MethodSpec method = MethodSpec.methodBuilder("getModelCount")
+        .addModifiers(PUBLIC)
+        .addAnnotation(Override.class)
+        .returns(TypeName.INT)
+        .addStatement("return $L.length", ENTITIES_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'getEntityClass'
+    method = MethodSpec.methodBuilder("getEntityClass")
+        .addModifiers(PUBLIC)
+        .addAnnotation(Override.class)
+        .returns(classType)
+        .addParameter(TypeName.INT, "index")
+        .addStatement("return $L[index]", ENTITIES_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'indexOf'
+    method = MethodSpec.methodBuilder("indexOf")
+        .addModifiers(PUBLIC)
+        .addAnnotation(Override.class)
+        .returns(TypeName.INT)
+        .addParameter(classType, "clazz")
+        .beginControlFlow("for (int i = 0; i < $L.length; i++)", ENTITIES_FIELD)
+        .beginControlFlow("if ($L[i] == clazz)", ENTITIES_FIELD)
+        .addStatement("return i")
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("return -1")
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'createModel'
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("createModel")
+        .addModifiers(PUBLIC)
+        .addAnnotation(Override.class)
+        .returns(modelType)
+        .addParameter(TypeName.INT, "index")
+        .beginControlFlow("switch (index)");
+    for (int i = 0; i < definitions.size(); i++) {
+      TypeDefinition definition = definitions.get(i);
+      ClassName modelName = ClassName.get(definition.getPackageName(),
+                                          definition.getTypeSimpleName()
+                                          + EntityProcessor.CLASS_MODEL_SUFFIX);
+      builder.addCode("case $L:\n", i)
+          .addStatement("  return new $T()", modelName);
+    }
+    builder.addCode("default:\n")
+        .addStatement("  throw new $T($S + index)", ClassName.get(IllegalArgumentException.class),
+                      "Unknown model index ")
+        .endControlFlow();
+    classBuilder.addMethod(builder.build());
+
+    // Method : 'createProjection'
+    builder = MethodSpec.methodBuilder("createProjection")
+        .addModifiers(PUBLIC)
+        .addAnnotation(Override.class)
+        .returns(projectionType)
+        .addParameter(classType, "clazz");
+    for (ProjectionDefinition projection : projections) {
+      ClassName typeName = ClassName.get(projection.getPackageName(),
+                                         projection.getTypeSimpleName());
+      ClassName readerName = ClassName.get(projection.getPackageName(),
+                                           projection.getTypeSimpleName()
+                                           + EntityProcessor.CLASS_PROJECTION_SUFFIX);
+      builder.beginControlFlow("if (clazz == $T.class)", typeName)
+          .addStatement("return new $T()", readerName)
+          .endControlFlow();
+    }
+    builder.addStatement("return null");
+    classBuilder.addMethod(builder.build());
+
+    // write java file.
+    JavaFile.builder(registryName.packageName(), classBuilder.build())
+        .build()
+        .writeTo(filer);
+  }
+}
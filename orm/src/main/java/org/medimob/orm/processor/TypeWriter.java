@@ -8,10 +8,14 @@ import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
 
 import org.medimob.orm.AbstractModel;
+import org.medimob.orm.Property;
+import org.medimob.orm.annotation.Conflict;
 import org.medimob.orm.internal.SqlUtils;
 import org.medimob.orm.internal.TypeUtils;
+import org.medimob.orm.processor.dll.ConstraintDefinition;
 import org.medimob.orm.processor.dll.IndexDefinition;
 import org.medimob.orm.processor.dll.PropertyDefinition;
 import org.medimob.orm.processor.dll.TriggerDefinition;
@@ -19,6 +23,7 @@ import org.medimob.orm.processor.dll.TypeDefinition;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.annotation.processing.Filer;
@@ -38,6 +43,13 @@ class TypeWriter {
   private static final String ID_COLUMN_FIELD = "ID_COLUMN";
   private static final String VERSION_COLUMN_FIELD = "VERSION_COLUMN";
   private static final String QUERY_COLUMNS_FIELD = "QUERY_COLUMNS";
+  private static final String PROPERTIES_FIELD = "PROPERTIES";
+  private static final String INSERT_COLUMNS_FIELD = "INSERT_COLUMNS";
+  private static final String UPDATE_COLUMNS_FIELD = "UPDATE_COLUMNS";
+  private static final String COLUMN_DEFINITIONS_FIELD = "COLUMN_DEFINITIONS";
+  private static final String SCHEMA_STATEMENTS_FIELD = "SCHEMA_STATEMENTS";
+  private static final String REFERENCE_PROPERTIES_FIELD = "REFERENCE_PROPERTIES";
+  private static final String REFERENCE_MODELS_FIELD = "REFERENCE_MODELS";
 
   private final Filer filer;
 
@@ -80,6 +92,19 @@ class TypeWriter {
 
   }
 
+  private static String formatPropertyArray(int size) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("new $T[]{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append("new $T($S, $S)");
+    }
+    builder.append(" }");
+    return builder.toString();
+  }
+
   public void writeType(TypeDefinition typeDefinition) throws IOException {
     final String typeSimpleName = typeDefinition.getTypeSimpleName();
     final String packageName = typeDefinition.getPackageName();
@@ -94,12 +119,22 @@ class TypeWriter {
     List<String> queryCols = new ArrayList<String>();
     List<String> insertCols = new ArrayList<String>();
     List<String> updateCols = new ArrayList<String>();
+    // Property name / column name pairs.
+    List<Object> propertyArgs = new ArrayList<Object>();
+    ClassName propertyType = ClassName.get(Property.class);
+    propertyArgs.add(propertyType);
 
     queryCols.add(idField.getColumnName());
+    propertyArgs.add(propertyType);
+    propertyArgs.add(idField.getFieldName());
+    propertyArgs.add(idField.getColumnName());
     String columnName;
     for (PropertyDefinition columnDef : typeDefinition.getProperties()) {
       columnName = columnDef.getColumnName();
       queryCols.add(columnName);
+      propertyArgs.add(propertyType);
+      propertyArgs.add(columnDef.getFieldName());
+      propertyArgs.add(columnName);
       if (columnDef.isInsertable()) {
         insertCols.add(columnName);
       }
@@ -109,6 +144,9 @@ class TypeWriter {
     }
     if (versionField != null) {
       queryCols.add(versionField.getColumnName());
+      propertyArgs.add(propertyType);
+      propertyArgs.add(versionField.getFieldName());
+      propertyArgs.add(versionField.getColumnName());
     }
 
     // Model Type.
@@ -154,12 +192,26 @@ class TypeWriter {
         .build();
     classBuilder.addField(field);
 
+    // Field : 'INSERT_COLUMNS'
+    field = FieldSpec.builder(ArrayTypeName.of(String.class), INSERT_COLUMNS_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatStringArray(insertCols.size()), insertCols.toArray())
+        .build();
+    classBuilder.addField(field);
+
+    // Field : 'PROPERTIES'
+    field = FieldSpec.builder(ArrayTypeName.of(Property.class), PROPERTIES_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatPropertyArray(queryCols.size()), propertyArgs.toArray())
+        .build();
+    classBuilder.addField(field);
+
     // Constructor
     MethodSpec method = MethodSpec.constructorBuilder()
         .addModifiers(PUBLIC)
-        .addStatement("super($L, $L, $L, $L)", TABLE_NAME_FIELD,
+        .addStatement("super($L, $L, $L, $L, $L)", TABLE_NAME_FIELD,
                       ID_COLUMN_FIELD, VERSION_COLUMN_FIELD,
-                      QUERY_COLUMNS_FIELD)
+                      QUERY_COLUMNS_FIELD, PROPERTIES_FIELD)
         .build();
     classBuilder.addMethod(method);
 
@@ -180,18 +232,64 @@ class TypeWriter {
           .addAnnotation(Override.class)
           .returns(TypeName.LONG)
           .addParameter(typeClassName, "entity")
-          .addStatement("return entity.$L", idField.getFieldName())
+          .addStatement("return entity.$L", versionField.getFieldName())
           .build();
       classBuilder.addMethod(method);
     }
 
+    // Schema : table columns definitions, indexes and triggers.
+    List<String> columnDefinitions = getColumnDefinitions(typeDefinition);
+    List<String> schemaStatements = getSchemaStatements(typeDefinition);
+    String tableStatement = buildTableStatement(typeDefinition, columnDefinitions);
+    field = FieldSpec.builder(ArrayTypeName.of(String.class), COLUMN_DEFINITIONS_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatStringArray(columnDefinitions.size()), columnDefinitions.toArray())
+        .build();
+    classBuilder.addField(field);
+    field = FieldSpec.builder(ArrayTypeName.of(String.class), SCHEMA_STATEMENTS_FIELD)
+        .addModifiers(PRIVATE, STATIC, FINAL)
+        .initializer(formatStringArray(schemaStatements.size()), schemaStatements.toArray())
+        .build();
+    classBuilder.addField(field);
+
     // Method : 'onCreate'
     method = MethodSpec.methodBuilder("onCreate")
         .addModifiers(PROTECTED)
         .addAnnotation(Override.class)
         .returns(TypeName.VOID)
         .addParameter(ClassName.get("android.database.sqlite", "SQLiteDatabase"), "db")
-        .addStatement("db.execSQL($S)", buildSqlStatement(typeDefinition))
+        .addStatement("db.execSQL($S)", tableStatement)
+        .beginControlFlow("for (String statement : $L)", SCHEMA_STATEMENTS_FIELD)
+        .addStatement("db.execSQL(statement)")
+        .endControlFlow()
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'getColumnDefinitions'
+    method = MethodSpec.methodBuilder("getColumnDefinitions")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(ArrayTypeName.of(String.class))
+        .addStatement("return $L", COLUMN_DEFINITIONS_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'getSchemaStatements'
+    method = MethodSpec.methodBuilder("getSchemaStatements")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(ArrayTypeName.of(String.class))
+        .addStatement("return $L", SCHEMA_STATEMENTS_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+
+    // Method : 'getSchemaFingerprint'
+    method = MethodSpec.methodBuilder("getSchemaFingerprint")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(ClassName.get(String.class))
+        .addStatement("return $S",
+                      ProcessorUtils.fingerprint(tableStatement, schemaStatements))
         .build();
     classBuilder.addMethod(method);
 
@@ -217,6 +315,26 @@ class TypeWriter {
     classBuilder.addMethod(method);
     classBuilder.addMethod(bindInsertMethod(typeClassName, typeDefinition, insertCols));
 
+    method = MethodSpec.methodBuilder("getInsertBatchSize")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.INT)
+        .addStatement("return $L", getInsertBatchSize(typeDefinition, insertCols))
+        .build();
+    classBuilder.addMethod(method);
+
+    method = MethodSpec.methodBuilder("getInsertBatchStatement")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(ClassName.get(String.class))
+        .addParameter(TypeName.INT, "rows")
+        .addStatement("return $T.createSqlInsertBatch($L, $L, $L, rows)",
+                      ClassName.get(SqlUtils.class), TABLE_NAME_FIELD, INSERT_COLUMNS_FIELD,
+                      VERSION_COLUMN_FIELD)
+        .build();
+    classBuilder.addMethod(method);
+    classBuilder.addMethod(bindInsertBatchMethod(typeClassName, typeDefinition, insertCols));
+
     method = MethodSpec.methodBuilder("getUpdateStatement")
         .addModifiers(PROTECTED)
         .addAnnotation(Override.class)
@@ -225,6 +343,11 @@ class TypeWriter {
         .build();
     classBuilder.addMethod(method);
     classBuilder.addMethod(bindUpdateMethod(typeClassName, typeDefinition, updateCols));
+    if (typeDefinition.isDirtyTracking()) {
+      addDirtyTrackingMethods(classBuilder, typeClassName, typeDefinition, updateCols);
+    }
+    addUpsertMethods(classBuilder, typeClassName, typeDefinition, insertCols, updateCols);
+    addReferenceMethods(classBuilder, typeClassName, typeDefinition);
 
     method = MethodSpec.methodBuilder("getDeleteStatement")
         .addModifiers(PROTECTED)
@@ -241,37 +364,43 @@ class TypeWriter {
         .writeTo(filer);
   }
 
-  private String buildSqlStatement(TypeDefinition typeDefinition)
-      throws IOException {
-
-    StringBuilder builder = new StringBuilder();
-    builder.append(typeDefinition.getStatement());
-    builder.append("( "); // Open table bracket
-
-    // Not null id column
-    builder.append(typeDefinition.getIdColumn().getStatement());
-    // Others columns definitions
+  // Id column, others columns then version column.
+  private static List<String> getColumnDefinitions(TypeDefinition typeDefinition) {
+    List<String> definitions = new ArrayList<String>();
+    definitions.add(typeDefinition.getIdColumn().getStatement().trim());
     for (PropertyDefinition propertyDefinition : typeDefinition.getProperties()) {
-      builder.append(", ");
-      builder.append(propertyDefinition.getStatement());
+      definitions.add(propertyDefinition.getStatement().trim());
     }
-    //  Nullable version column
     if (typeDefinition.getVersionColumn() != null) {
-      builder.append(", ");
-      builder.append(typeDefinition.getVersionColumn().getStatement());
+      definitions.add(typeDefinition.getVersionColumn().getStatement().trim());
     }
-    builder.append(");"); // Table definition end
+    return definitions;
+  }
 
+  // Indexes then triggers.
+  private static List<String> getSchemaStatements(TypeDefinition typeDefinition) {
+    List<String> statements = new ArrayList<String>();
     for (IndexDefinition index : typeDefinition.getIndexes()) {
-      builder.append(' ');
-      builder.append(index.getStatement());
-      builder.append(";");
+      statements.add(index.getStatement().trim());
     }
     for (TriggerDefinition trigger : typeDefinition.getTriggers()) {
-      builder.append(' ');
-      builder.append(trigger.getStatement());
-      builder.append(";");
+      statements.add(trigger.getStatement().trim());
+    }
+    return statements;
+  }
+
+  private static String buildTableStatement(TypeDefinition typeDefinition,
+                                            List<String> columnDefinitions) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(typeDefinition.getStatement());
+    builder.append("( "); // Open table bracket
+    for (int i = 0; i < columnDefinitions.size(); i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(columnDefinitions.get(i));
     }
+    builder.append(")"); // Table definition end
     return builder.toString();
   }
 
@@ -279,20 +408,17 @@ class TypeWriter {
                                            List<String> queryCols) throws IOException {
 
     PropertyDefinition idColumn = definition.getIdColumn();
-    ClassName typeUtilType = ClassName.get(TypeUtils.class);
 
     MethodSpec.Builder builder = MethodSpec.methodBuilder("readCursor")
         .addModifiers(PROTECTED)
         .addAnnotation(Override.class)
         .addParameter(typeElement, "entity")
-        .addParameter(ClassName.get("android.database", "Cursor"), "cursor")
-        .addStatement("entity.$L = $T.getLong(cursor, $L)", idColumn.getFieldName(), typeUtilType,
-                      queryCols.indexOf(idColumn.getColumnName()));
+        .addParameter(ClassName.get("android.database", "Cursor"), "cursor");
+    addReadStatement(builder, idColumn, queryCols.indexOf(idColumn.getColumnName()));
 
     PropertyDefinition version = definition.getVersionColumn();
     if (version != null) {
-      builder.addStatement("entity.$L = $T.getLong(cursor, $L)", version.getFieldName(),
-                           typeUtilType, queryCols.indexOf(version.getColumnName()));
+      addReadStatement(builder, version, queryCols.indexOf(version.getColumnName()));
     }
 
     for (PropertyDefinition propertyDefinition : definition.getProperties()) {
@@ -301,62 +427,161 @@ class TypeWriter {
       if (index == -1) {
         continue;
       }
-      String field = propertyDefinition.getFieldName();
-      switch (propertyDefinition.getPropertyType()) {
-        case BOOLEAN:
-          builder.addStatement("entity.$L = $T.getBoolean(cursor, $L)", field, typeUtilType, index);
-          break;
-        case BYTE:
-          builder.addStatement("entity.$L = $T.getByte(cursor, $L)", field, typeUtilType, index);
-          break;
-        case BYTE_ARRAY:
-          builder.addStatement("entity.$L = $T.getByteArray(cursor, $L)", field, typeUtilType,
-                               index);
-          break;
-        case CHARACTER:
-          builder.addStatement("entity.$L = $T.getChar(cursor, $L)", field, typeUtilType, index);
-          break;
-        case DATE_LONG:
-          builder.addStatement("entity.$L = $T.getDate(cursor, $L)", field, typeUtilType, index);
-          break;
-        case DATE_STRING:
-          builder.addStatement("entity.$L = $T.getDate(cursor, $L, $S)", field, typeUtilType,
-                               index, propertyDefinition.getDateFormat());
-          break;
-        case DOUBLE:
-          builder.addStatement("entity.$L = $T.getDouble(cursor, $L)", field, typeUtilType,
-                               index);
-          break;
-        case FLOAT:
-          builder.addStatement("entity.$L = $T.getFloat(cursor, $L)", field, typeUtilType,
-                               index);
-          break;
-        case INTEGER:
-          builder.addStatement("entity.$L = $T.getInt(cursor, $L)", field, typeUtilType, index);
-          break;
-        case LONG:
-          builder.addStatement("entity.$L = $T.getLong(cursor, $L)", field, typeUtilType, index);
-          break;
-        case SHORT:
-          builder.addStatement("entity.$L = $T.getShort(cursor, $L)", field, typeUtilType,
-                               index);
-          break;
-        case STRING:
-          builder.addStatement("entity.$L = $T.getString(cursor, $L)", field, typeUtilType,
-                               index);
-          break;
-        default:
-          throw new IllegalStateException("Illegal type " + propertyDefinition.getPropertyType());
-      }
+      addReadStatement(builder, propertyDefinition, index);
     }
     return builder.build();
   }
 
+  // Also used by the projection writer.
+  static void addReadStatement(MethodSpec.Builder builder, PropertyDefinition property,
+                               int index) {
+    if (property.isPrimitive()) {
+      addPrimitiveReadStatement(builder, property, index);
+      return;
+    }
+    ClassName typeUtilType = ClassName.get(TypeUtils.class);
+    String field = property.getFieldName();
+    switch (property.getPropertyType()) {
+      case BOOLEAN:
+        builder.addStatement("entity.$L = $T.getBoolean(cursor, $L)", field, typeUtilType, index);
+        break;
+      case BYTE:
+        builder.addStatement("entity.$L = $T.getByte(cursor, $L)", field, typeUtilType, index);
+        break;
+      case BYTE_ARRAY:
+        builder.addStatement("entity.$L = $T.getByteArray(cursor, $L)", field, typeUtilType,
+                             index);
+        break;
+      case CHARACTER:
+        builder.addStatement("entity.$L = $T.getChar(cursor, $L)", field, typeUtilType, index);
+        break;
+      case DATE_LONG:
+        builder.addStatement("entity.$L = $T.getDate(cursor, $L)", field, typeUtilType, index);
+        break;
+      case DATE_STRING:
+        builder.addStatement("entity.$L = $T.getDate(cursor, $L, $S)", field, typeUtilType,
+                             index, property.getDateFormat());
+        break;
+      case DOUBLE:
+        builder.addStatement("entity.$L = $T.getDouble(cursor, $L)", field, typeUtilType,
+                             index);
+        break;
+      case FLOAT:
+        builder.addStatement("entity.$L = $T.getFloat(cursor, $L)", field, typeUtilType,
+                             index);
+        break;
+      case INTEGER:
+        builder.addStatement("entity.$L = $T.getInt(cursor, $L)", field, typeUtilType, index);
+        break;
+      case LONG:
+        builder.addStatement("entity.$L = $T.getLong(cursor, $L)", field, typeUtilType, index);
+        break;
+      case SHORT:
+        builder.addStatement("entity.$L = $T.getShort(cursor, $L)", field, typeUtilType,
+                             index);
+        break;
+      case STRING:
+        builder.addStatement("entity.$L = $T.getString(cursor, $L)", field, typeUtilType,
+                             index);
+        break;
+      default:
+        throw new IllegalStateException("Illegal type " + property.getPropertyType());
+    }
+  }
+
+  // Primitive fields are read straight from the cursor (no boxing),
+  // a null column value is read as the primitive default value.
+  private static void addPrimitiveReadStatement(MethodSpec.Builder builder,
+                                                PropertyDefinition property, int index) {
+    String field = property.getFieldName();
+    switch (property.getPropertyType()) {
+      case BOOLEAN:
+        builder.addStatement("entity.$L = cursor.getInt($L) == 1", field, index);
+        break;
+      case BYTE:
+        builder.addStatement("entity.$L = (byte) cursor.getInt($L)", field, index);
+        break;
+      case CHARACTER:
+        builder.addStatement("entity.$L = (char) cursor.getInt($L)", field, index);
+        break;
+      case SHORT:
+        builder.addStatement("entity.$L = cursor.getShort($L)", field, index);
+        break;
+      case INTEGER:
+        builder.addStatement("entity.$L = cursor.getInt($L)", field, index);
+        break;
+      case LONG:
+        builder.addStatement("entity.$L = cursor.getLong($L)", field, index);
+        break;
+      case FLOAT:
+        builder.addStatement("entity.$L = cursor.getFloat($L)", field, index);
+        break;
+      case DOUBLE:
+        builder.addStatement("entity.$L = cursor.getDouble($L)", field, index);
+        break;
+      default:
+        throw new IllegalStateException("Illegal primitive type " + property.getPropertyType());
+    }
+  }
+
   private MethodSpec bindInsertMethod(ClassName element, TypeDefinition definition,
                                       List<String> columns) throws IOException {
     return createBindMethod("bindInsert", element, definition, columns).build();
   }
 
+  private static int getInsertBatchSize(TypeDefinition definition,
+                                        List<String> insertCols) {
+    // Rows ignored or replaced by a conflict clause break the
+    // consecutive ids of a multi rows insert : insert row by row.
+    List<PropertyDefinition> properties = new ArrayList<PropertyDefinition>();
+    properties.add(definition.getIdColumn());
+    properties.addAll(Arrays.asList(definition.getProperties()));
+    if (definition.getVersionColumn() != null) {
+      properties.add(definition.getVersionColumn());
+    }
+    for (PropertyDefinition property : properties) {
+      if (hasSkippingConflict(property.getConstraints())) {
+        return 1;
+      }
+    }
+    if (hasSkippingConflict(definition.getConstraintDefinitions())) {
+      return 1;
+    }
+    return SqlUtils.getMaxInsertBatchRows(insertCols.size());
+  }
+
+  private static boolean hasSkippingConflict(ConstraintDefinition[] constraints) {
+    for (ConstraintDefinition constraint : constraints) {
+      if (constraint.getConflictClause() == Conflict.IGNORE
+          || constraint.getConflictClause() == Conflict.REPLACE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private MethodSpec bindInsertBatchMethod(ClassName element, TypeDefinition definition,
+                                           List<String> columnNames) throws IOException {
+
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("bindInsertBatch")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.VOID)
+        .addParameter(ClassName.get("android.database.sqlite", "SQLiteStatement"), "statement")
+        .addParameter(element, "entity")
+        .addParameter(TypeName.INT, "row")
+        .addStatement("final int offset = row * $L", columnNames.size());
+
+    for (PropertyDefinition property : definition.getProperties()) {
+      int index = columnNames.indexOf(property.getColumnName()) + 1;
+      if (index <= 0) {
+        continue;
+      }
+      addBindStatement(builder, property, "offset + " + index);
+    }
+    return builder.build();
+  }
+
   private MethodSpec bindUpdateMethod(ClassName typeElement, TypeDefinition definition,
                                       List<String> columnNames) throws IOException {
 
@@ -401,17 +626,335 @@ class TypeWriter {
         .addParameter(ClassName.get("android.database.sqlite", "SQLiteStatement"), "statement")
         .addParameter(element, "entity");
 
-    ClassName typeUtilType = ClassName.get(TypeUtils.class);
     if (columnNames != null) {
       for (PropertyDefinition property : definition.getProperties()) {
         int index = columnNames.indexOf(property.getColumnName()) + 1;
-        if (index < 0) {
+        if (index <= 0) {
           continue;
         }
-        builder.addStatement("$T.bind(statement, entity.$L, $L)", typeUtilType,
-                             property.getFieldName(), index);
+        addBindStatement(builder, property, String.valueOf(index));
       }
     }
     return builder;
   }
+
+  private static void addBindStatement(MethodSpec.Builder builder, PropertyDefinition property,
+                                       String index) {
+    ClassName typeUtilType = ClassName.get(TypeUtils.class);
+    if (property.getPropertyType() == PropertyType.DATE_STRING) {
+      builder.addStatement("$T.bind(statement, entity.$L, $S, $L)", typeUtilType,
+                           property.getFieldName(), property.getDateFormat(), index);
+    } else {
+      builder.addStatement("$T.bind(statement, entity.$L, $L)", typeUtilType,
+                           property.getFieldName(), index);
+    }
+  }
+
+  private static List<PropertyDefinition> getProperties(TypeDefinition definition,
+                                                        List<String> columns) {
+    List<PropertyDefinition> properties = new ArrayList<PropertyDefinition>(columns.size());
+    for (String column : columns) {
+      for (PropertyDefinition property : definition.getProperties()) {
+        if (property.getColumnName().equals(column)) {
+          properties.add(property);
+          break;
+        }
+      }
+    }
+    return properties;
+  }
+
+  private static String getWrapperName(PropertyDefinition property) {
+    switch (property.getPropertyType()) {
+      case BOOLEAN:
+        return "Boolean";
+      case CHARACTER:
+        return "Character";
+      case BYTE:
+        return "Byte";
+      case SHORT:
+        return "Short";
+      case INTEGER:
+        return "Integer";
+      case LONG:
+        return "Long";
+      case FLOAT:
+        return "Float";
+      case DOUBLE:
+        return "Double";
+      default:
+        throw new IllegalStateException("Illegal primitive type " + property.getPropertyType());
+    }
+  }
+
+  // Dirty tracking : loaded values snapshot, dirty columns mask
+  // and dirty columns binding (update columns order, one bit per column).
+  private void addDirtyTrackingMethods(TypeSpec.Builder classBuilder, ClassName typeElement,
+                                       TypeDefinition definition, List<String> updateCols) {
+    List<PropertyDefinition> properties = getProperties(definition, updateCols);
+    ClassName typeUtilType = ClassName.get(TypeUtils.class);
+    ClassName statementType = ClassName.get("android.database.sqlite", "SQLiteStatement");
+
+    // Field : 'UPDATE_COLUMNS'
+    classBuilder.addField(FieldSpec.builder(ArrayTypeName.of(String.class), UPDATE_COLUMNS_FIELD)
+                              .addModifiers(PRIVATE, STATIC, FINAL)
+                              .initializer(formatStringArray(updateCols.size()),
+                                           updateCols.toArray())
+                              .build());
+
+    // Method : 'getUpdateColumns'
+    classBuilder.addMethod(MethodSpec.methodBuilder("getUpdateColumns")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ArrayTypeName.of(String.class))
+                               .addStatement("return $L", UPDATE_COLUMNS_FIELD)
+                               .build());
+
+    // Method : 'snapshot'
+    StringBuilder format = new StringBuilder("return new Object[]{");
+    List<Object> args = new ArrayList<Object>();
+    for (int i = 0; i < properties.size(); i++) {
+      PropertyDefinition property = properties.get(i);
+      if (i > 0) {
+        format.append(", ");
+      }
+      PropertyType type = property.getPropertyType();
+      if (type == PropertyType.BYTE_ARRAY || type == PropertyType.DATE_LONG
+          || type == PropertyType.DATE_STRING) {
+        // Mutable values are copied.
+        format.append("$T.copy(entity.$L)");
+        args.add(typeUtilType);
+      } else {
+        format.append("entity.$L");
+      }
+      args.add(property.getFieldName());
+    }
+    format.append(" }");
+    classBuilder.addMethod(MethodSpec.methodBuilder("snapshot")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ArrayTypeName.of(Object.class))
+                               .addParameter(typeElement, "entity")
+                               .addStatement(format.toString(), args.toArray())
+                               .build());
+
+    // Method : 'getDirtyMask'
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("getDirtyMask")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.LONG)
+        .addParameter(typeElement, "entity")
+        .addParameter(ArrayTypeName.of(Object.class), "snapshot")
+        .addStatement("long mask = 0L");
+    for (int i = 0; i < properties.size(); i++) {
+      PropertyDefinition property = properties.get(i);
+      String field = property.getFieldName();
+      PropertyType type = property.getPropertyType();
+      if (!property.isPrimitive()) {
+        builder.beginControlFlow("if (!$T.equal(entity.$L, snapshot[$L]))", typeUtilType, field,
+                                 i);
+      } else if (type == PropertyType.FLOAT || type == PropertyType.DOUBLE) {
+        String wrapper = getWrapperName(property);
+        builder.beginControlFlow("if ($L.compare(entity.$L, ($L) snapshot[$L]) != 0)", wrapper,
+                                 field, wrapper, i);
+      } else {
+        builder.beginControlFlow("if (entity.$L != ($L) snapshot[$L])", field,
+                                 getWrapperName(property), i);
+      }
+      builder.addStatement("mask |= 1L << $L", i)
+          .endControlFlow();
+    }
+    builder.addStatement("return mask");
+    classBuilder.addMethod(builder.build());
+
+    // Method : 'bindUpdate' (dirty columns only)
+    builder = MethodSpec.methodBuilder("bindUpdate")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.VOID)
+        .addParameter(statementType, "statement")
+        .addParameter(typeElement, "entity")
+        .addParameter(TypeName.LONG, "mask")
+        .addStatement("int index = 1");
+    for (int i = 0; i < properties.size(); i++) {
+      builder.beginControlFlow("if ((mask & (1L << $L)) != 0)", i);
+      addBindStatement(builder, properties.get(i), "index++");
+      builder.endControlFlow();
+    }
+    // Bind id and version arguments.
+    builder.addStatement("$T.bind(statement, entity.$L, index++)", typeUtilType,
+                         definition.getIdColumn().getFieldName());
+    if (definition.getVersionColumn() != null) {
+      builder.addStatement("$T.bind(statement, entity.$L, index)", typeUtilType,
+                           definition.getVersionColumn().getFieldName());
+    }
+    classBuilder.addMethod(builder.build());
+  }
+
+  // Upsert : bind parameters are the id, the inserted and updated
+  // columns, then the inserted only columns (insert statements only).
+  private void addUpsertMethods(TypeSpec.Builder classBuilder, ClassName typeElement,
+                                TypeDefinition definition, List<String> insertCols,
+                                List<String> updateCols) {
+    List<String> updated = new ArrayList<String>();
+    List<String> insertOnly = new ArrayList<String>();
+    for (String column : insertCols) {
+      if (updateCols.contains(column)) {
+        updated.add(column);
+      } else {
+        insertOnly.add(column);
+      }
+    }
+    List<String> columns = new ArrayList<String>(updated);
+    columns.addAll(insertOnly);
+    String[] columnArray = columns.toArray(new String[columns.size()]);
+    String[] updatedArray = updated.toArray(new String[updated.size()]);
+    String tableName = definition.getTableName();
+    String idColumn = definition.getIdColumn().getColumnName();
+    PropertyDefinition versionProp = definition.getVersionColumn();
+    String versionColumn = versionProp != null ? versionProp.getColumnName() : null;
+
+    classBuilder.addMethod(MethodSpec.methodBuilder("getUpsertStatement")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ClassName.get(String.class))
+                               .addStatement("return $S", SqlUtils.createSqlUpsert(
+                                   tableName, idColumn, columnArray, updatedArray,
+                                   versionColumn))
+                               .build());
+    classBuilder.addMethod(MethodSpec.methodBuilder("getUpsertInsertStatement")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ClassName.get(String.class))
+                               .addStatement("return $S", SqlUtils.createSqlInsertWithId(
+                                   tableName, idColumn, columnArray, versionColumn))
+                               .build());
+    classBuilder.addMethod(MethodSpec.methodBuilder("getUpsertUpdateStatement")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ClassName.get(String.class))
+                               .addStatement("return $S", SqlUtils.createSqlUpsertUpdate(
+                                   tableName, idColumn, updatedArray, versionColumn))
+                               .build());
+
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("bindUpsert")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.VOID)
+        .addParameter(ClassName.get("android.database.sqlite", "SQLiteStatement"), "statement")
+        .addParameter(typeElement, "entity")
+        .addParameter(TypeName.BOOLEAN, "insert")
+        .addStatement("$T.bind(statement, entity.$L, 1)", ClassName.get(TypeUtils.class),
+                      definition.getIdColumn().getFieldName());
+    List<PropertyDefinition> properties = getProperties(definition, columns);
+    for (int i = 0; i < updated.size(); i++) {
+      addBindStatement(builder, properties.get(i), String.valueOf(i + 2));
+    }
+    if (!insertOnly.isEmpty()) {
+      builder.beginControlFlow("if (insert)");
+      for (int i = updated.size(); i < columns.size(); i++) {
+        addBindStatement(builder, properties.get(i), String.valueOf(i + 2));
+      }
+      builder.endControlFlow();
+    }
+    classBuilder.addMethod(builder.build());
+  }
+
+  // Fetched references (see Reference#field()) : properties, models, ids and entities setter.
+  private void addReferenceMethods(TypeSpec.Builder classBuilder, ClassName typeElement,
+                                   TypeDefinition definition) {
+    List<PropertyDefinition> references = new ArrayList<PropertyDefinition>();
+    for (PropertyDefinition property : definition.getProperties()) {
+      if (property.getReferenceField() != null) {
+        references.add(property);
+      }
+    }
+    if (references.isEmpty()) {
+      return;
+    }
+    TypeName classType = ParameterizedTypeName.get(ClassName.get(Class.class),
+                                                   WildcardTypeName.subtypeOf(Object.class));
+    List<String> propertyNames = new ArrayList<String>();
+    List<ClassName> models = new ArrayList<ClassName>();
+    StringBuilder modelsFormat = new StringBuilder("new Class<?>[]{");
+    for (int i = 0; i < references.size(); i++) {
+      propertyNames.add(references.get(i).getFieldName());
+      models.add(ClassName.bestGuess(references.get(i).getReferenceType()));
+      modelsFormat.append(i > 0 ? ", $T.class" : "$T.class");
+    }
+    modelsFormat.append(" }");
+
+    // Fields : 'REFERENCE_PROPERTIES', 'REFERENCE_MODELS'
+    classBuilder.addField(FieldSpec.builder(ArrayTypeName.of(String.class),
+                                            REFERENCE_PROPERTIES_FIELD)
+                              .addModifiers(PRIVATE, STATIC, FINAL)
+                              .initializer(formatStringArray(propertyNames.size()),
+                                           propertyNames.toArray())
+                              .build());
+    classBuilder.addField(FieldSpec.builder(ArrayTypeName.of(classType), REFERENCE_MODELS_FIELD)
+                              .addModifiers(PRIVATE, STATIC, FINAL)
+                              .initializer(modelsFormat.toString(), models.toArray())
+                              .build());
+
+    // Methods : 'getReferenceProperties', 'getReferenceModels'
+    classBuilder.addMethod(MethodSpec.methodBuilder("getReferenceProperties")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ArrayTypeName.of(String.class))
+                               .addStatement("return $L", REFERENCE_PROPERTIES_FIELD)
+                               .build());
+    classBuilder.addMethod(MethodSpec.methodBuilder("getReferenceModels")
+                               .addModifiers(PROTECTED)
+                               .addAnnotation(Override.class)
+                               .returns(ArrayTypeName.of(classType))
+                               .addStatement("return $L", REFERENCE_MODELS_FIELD)
+                               .build());
+
+    // Method : 'getReferenceId'
+    MethodSpec.Builder builder = MethodSpec.methodBuilder("getReferenceId")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.LONG)
+        .addParameter(typeElement, "entity")
+        .addParameter(TypeName.INT, "index")
+        .beginControlFlow("switch (index)");
+    for (int i = 0; i < references.size(); i++) {
+      PropertyDefinition property = references.get(i);
+      builder.addCode("case $L:\n$>", i);
+      if (property.isPrimitive()) {
+        builder.addStatement("return entity.$L", property.getFieldName());
+      } else {
+        builder.addStatement("return entity.$L != null ? entity.$L : 0",
+                             property.getFieldName(), property.getFieldName());
+      }
+      builder.addCode("$<");
+    }
+    builder.addCode("default:\n$>")
+        .addStatement("throw new $T(String.valueOf(index))", IndexOutOfBoundsException.class)
+        .addCode("$<")
+        .endControlFlow();
+    classBuilder.addMethod(builder.build());
+
+    // Method : 'setReference'
+    builder = MethodSpec.methodBuilder("setReference")
+        .addModifiers(PROTECTED)
+        .addAnnotation(Override.class)
+        .returns(TypeName.VOID)
+        .addParameter(typeElement, "entity")
+        .addParameter(TypeName.INT, "index")
+        .addParameter(Object.class, "reference")
+        .beginControlFlow("switch (index)");
+    for (int i = 0; i < references.size(); i++) {
+      builder.addCode("case $L:\n$>", i)
+          .addStatement("entity.$L = ($T) reference", references.get(i).getReferenceField(),
+                        models.get(i))
+          .addStatement("break")
+          .addCode("$<");
+    }
+    builder.addCode("default:\n$>")
+        .addStatement("throw new $T(String.valueOf(index))", IndexOutOfBoundsException.class)
+        .addCode("$<")
+        .endControlFlow();
+    classBuilder.addMethod(builder.build());
+  }
 }
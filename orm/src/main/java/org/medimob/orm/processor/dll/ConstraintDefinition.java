@@ -1,5 +1,7 @@
 package org.medimob.orm.processor.dll;
 
+import org.medimob.orm.annotation.Conflict;
+
 /**
  * Column or Table constraint definition. Created by Poopaou on 21/01/2015.
  */
@@ -8,11 +10,14 @@ public final class ConstraintDefinition {
   private final Constraints type;
   private final String name;
   private final String statement;
+  private final Conflict conflictClause;
 
-  ConstraintDefinition(Constraints type, String name, String statement) {
+  ConstraintDefinition(Constraints type, String name, String statement,
+                       Conflict conflictClause) {
     this.type = type;
     this.name = name;
     this.statement = statement;
+    this.conflictClause = conflictClause;
   }
 
   public Constraints getType() {
@@ -27,6 +32,13 @@ public final class ConstraintDefinition {
     return statement;
   }
 
+  /**
+   * @return on conflict clause or null if the constraint has none.
+   */
+  public Conflict getConflictClause() {
+    return conflictClause;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
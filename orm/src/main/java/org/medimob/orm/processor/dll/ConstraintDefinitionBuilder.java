@@ -96,7 +96,7 @@ public class ConstraintDefinitionBuilder {
 
   public ConstraintDefinition build() throws MappingException {
     validate();
-    return new ConstraintDefinition(type, name, getStatement());
+    return new ConstraintDefinition(type, name, getStatement(), conflictClause);
   }
 
   private void validate() throws MappingException {
@@ -160,6 +160,9 @@ public class ConstraintDefinitionBuilder {
           builder.appendWithSeparator(columnNames, ',');
           builder.closeBracket();
           builder.appendWord(conflictClause.getSql());
+        } else {
+          builder.appendWord(type.getSql());
+          builder.appendWord(conflictClause.getSql());
         }
         break;
       case PRIMARY_KEY:
@@ -16,11 +16,16 @@ public final class PropertyDefinition {
   private final String statement;
   private final boolean insertable;
   private final boolean updateable;
+  private final boolean primitive;
+  private final String referenceType;
+  private final String referenceField;
+  private final ConstraintDefinition[] constraints;
 
   PropertyDefinition(String columnName, String fieldName,
                      PropertyType propertyType,
                      String dateFormat, String statement, boolean insertable,
-                     boolean updateable) {
+                     boolean updateable, boolean primitive, String referenceType,
+                     String referenceField, ConstraintDefinition[] constraints) {
     this.columnName = columnName;
     this.fieldName = fieldName;
     this.propertyType = propertyType;
@@ -28,6 +33,10 @@ public final class PropertyDefinition {
     this.statement = statement;
     this.insertable = insertable;
     this.updateable = updateable;
+    this.primitive = primitive;
+    this.referenceType = referenceType;
+    this.referenceField = referenceField;
+    this.constraints = constraints;
   }
 
   public String getFieldName() {
@@ -58,6 +67,34 @@ public final class PropertyDefinition {
     return updateable;
   }
 
+  /**
+   * @return true if the field is a primitive (not a wrapper, cannot be null).
+   */
+  public boolean isPrimitive() {
+    return primitive;
+  }
+
+  /**
+   * @return referenced model qualified name or null if the reference is not fetched.
+   */
+  public String getReferenceType() {
+    return referenceType;
+  }
+
+  /**
+   * @return referenced entity field name or null if the reference is not fetched.
+   */
+  public String getReferenceField() {
+    return referenceField;
+  }
+
+  /**
+   * @return column constraints.
+   */
+  public ConstraintDefinition[] getConstraints() {
+    return constraints;
+  }
+
   @Override
   public boolean equals(Object other) {
     if (this == other) {
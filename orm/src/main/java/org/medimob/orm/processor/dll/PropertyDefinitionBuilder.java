@@ -18,6 +18,9 @@ public class PropertyDefinitionBuilder {
   private String dateFormat;
   private boolean insertable;
   private boolean updateable;
+  private boolean primitive;
+  private String referenceType;
+  private String referenceField;
   private HashSet<ConstraintDefinition> constraintDefinitions = new HashSet<ConstraintDefinition>();
 
   public PropertyDefinitionBuilder setFieldName(String fieldName) {
@@ -64,6 +67,25 @@ public class PropertyDefinitionBuilder {
     return this;
   }
 
+  public PropertyDefinitionBuilder setPrimitive(boolean primitive) {
+    this.primitive = primitive;
+    return this;
+  }
+
+  /**
+   * Set the fetched reference (see {@link org.medimob.orm.annotation.Reference#field()}).
+   *
+   * @param referenceType  referenced model qualified name.
+   * @param referenceField referenced entity field name.
+   * @return this.
+   */
+  public PropertyDefinitionBuilder setFetchedReference(String referenceType,
+                                                       String referenceField) {
+    this.referenceType = referenceType;
+    this.referenceField = referenceField;
+    return this;
+  }
+
   /**
    * Build property definition.
    *
@@ -73,7 +95,10 @@ public class PropertyDefinitionBuilder {
   public PropertyDefinition build() throws MappingException {
     validate();
     return new PropertyDefinition(columnName, fieldName, propertyType, dateFormat, getStatement(),
-                                  insertable, updateable);
+                                  insertable, updateable, primitive, referenceType,
+                                  referenceField,
+                                  constraintDefinitions.toArray(
+                                      new ConstraintDefinition[constraintDefinitions.size()]));
   }
 
   private void validate() throws MappingException {
@@ -15,6 +15,7 @@ public final class TypeDefinition {
   // Properties
   private final PropertyDefinition idColumn;
   private final PropertyDefinition versionColumn;
+  private final boolean dirtyTracking;
   private final PropertyDefinition[] properties;
   private final ConstraintDefinition[] constraintDefinitions;
   private final TriggerDefinition[] triggers;
@@ -26,7 +27,7 @@ public final class TypeDefinition {
                  String typeQualifiedName,
                  String packageName,
                  PropertyDefinition idColumn,
-                 PropertyDefinition versionColumn, String statement,
+                 PropertyDefinition versionColumn, boolean dirtyTracking, String statement,
                  PropertyDefinition[] properties,
                  ConstraintDefinition[] constraintDefinitions,
                  TriggerDefinition[] triggers, IndexDefinition[] indexes) {
@@ -38,12 +39,17 @@ public final class TypeDefinition {
     this.statement = statement;
     this.idColumn = idColumn;
     this.versionColumn = versionColumn;
+    this.dirtyTracking = dirtyTracking;
     this.properties = properties;
     this.constraintDefinitions = constraintDefinitions;
     this.triggers = triggers;
     this.indexes = indexes;
   }
 
+  public boolean isDirtyTracking() {
+    return dirtyTracking;
+  }
+
   public String getStatement() {
     return statement;
   }
@@ -17,6 +17,7 @@ public class TypeDefinitionBuilder {
   private String typeQualifiedName;
   private String packageName;
   private boolean temporary;
+  private boolean dirtyTracking;
   private String asStatement;
   private PropertyDefinition idColumn;
   private PropertyDefinition versionColumn;
@@ -50,6 +51,11 @@ public class TypeDefinitionBuilder {
     return this;
   }
 
+  public TypeDefinitionBuilder setDirtyTracking(boolean dirtyTracking) {
+    this.dirtyTracking = dirtyTracking;
+    return this;
+  }
+
   public TypeDefinitionBuilder setAsStatement(String asStatement) {
     this.asStatement = asStatement;
     return this;
@@ -125,7 +131,7 @@ public class TypeDefinitionBuilder {
   public TypeDefinition build() throws MappingException {
     validate();
     return new TypeDefinition(tableName, typeSimpleName, typeQualifiedName, packageName,
-                              idColumn, versionColumn, createStatement(),
+                              idColumn, versionColumn, dirtyTracking, createStatement(),
                               columns.toArray(new PropertyDefinition[columns.size()]),
                               constraintDefinitions
                                   .toArray(new ConstraintDefinition[constraintDefinitions.size()]),
@@ -138,6 +144,19 @@ public class TypeDefinitionBuilder {
     notEmpty(typeSimpleName, "Type's simple name cannot be empty");
     notEmpty(packageName, "Type's package cannot be empty");
     notNull(idColumn, "Type's id column cannot be null");
+    if (dirtyTracking) {
+      int updatable = 0;
+      for (PropertyDefinition column : columns) {
+        if (column.isUpdateable()) {
+          updatable++;
+        }
+      }
+      // Dirty columns are tracked in a long bit mask.
+      if (updatable > Long.SIZE) {
+        throw new MappingException("Dirty tracking supports at most " + Long.SIZE
+                                   + " updatable columns " + typeSimpleName);
+      }
+    }
   }
 
   private String createStatement() {
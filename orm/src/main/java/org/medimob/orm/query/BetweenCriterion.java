@@ -37,9 +37,14 @@ public class BetweenCriterion implements NotCriterion {
       builder.appendWord("NOT");
     }
     builder.appendWord("BETWEEN");
-    builder.appendWord(between.toString());
+    builder.appendWord(PLACE_HOLDER);
     builder.appendWord("AND");
-    builder.appendWord(and.toString());
+    builder.appendWord(PLACE_HOLDER);
+  }
+
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append(not ? "!between:" : "between:").append(property);
   }
 
   @Override
@@ -1,19 +1,56 @@
 package org.medimob.orm.query;
 
+import org.medimob.orm.OrmException;
 import org.medimob.orm.internal.StatementBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Criteria joined by an operator. Empty nested composites are skipped.
  * Created by Poopaou on 30/01/2015.
  */
 public class CompositeCriterion implements Criterion {
 
+  public static final String AND = "AND";
+  public static final String OR = "OR";
+
+  private final String operator;
   private List<Criterion> subCriterion = new ArrayList<Criterion>();
 
-  public void add(Criterion criterion) {
+  public CompositeCriterion() {
+    this(AND);
+  }
+
+  public CompositeCriterion(String operator) {
+    this.operator = operator;
+  }
+
+  /**
+   * Add a sub criterion.
+   *
+   * @param criterion criterion.
+   * @return this.
+   */
+  public CompositeCriterion add(Criterion criterion) {
     subCriterion.add(criterion);
+    return this;
+  }
+
+  /**
+   * @return true if the composite has no criterion (empty nested composites are ignored).
+   */
+  public boolean isEmpty() {
+    for (Criterion c : subCriterion) {
+      if (!isEmpty(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isEmpty(Criterion criterion) {
+    return criterion instanceof CompositeCriterion && ((CompositeCriterion) criterion).isEmpty();
   }
 
   @Override
@@ -25,9 +62,22 @@ public class CompositeCriterion implements Criterion {
 
   @Override
   public void toSql(StatementBuilder builder, PropertyResolver resolver) {
+    if (isEmpty()) {
+      throw new OrmException("Empty " + operator + " criterion");
+    }
+    builder.openBracket();
+    boolean first = true;
     for (Criterion c : subCriterion) {
+      if (isEmpty(c)) {
+        continue;
+      }
+      if (!first) {
+        builder.appendWord(operator);
+      }
+      first = false;
       c.toSql(builder, resolver);
     }
+    builder.closeBracket();
   }
 
   @Override
@@ -38,4 +88,21 @@ public class CompositeCriterion implements Criterion {
     }
     return count;
   }
+
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append(operator).append('(');
+    boolean first = true;
+    for (Criterion c : subCriterion) {
+      if (isEmpty(c)) {
+        continue;
+      }
+      if (!first) {
+        key.append(',');
+      }
+      first = false;
+      c.appendKey(key);
+    }
+    key.append(')');
+  }
 }
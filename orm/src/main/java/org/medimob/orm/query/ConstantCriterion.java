@@ -26,7 +26,11 @@ public class ConstantCriterion implements Criterion {
   public void toSql(StatementBuilder builder, PropertyResolver resolver) {
     builder.appendWord(resolver.resolveColumnForProperty(property));
     builder.appendWord(constant);
+  }
 
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append(constant).append(':').append(property);
   }
 
   @Override
@@ -17,4 +17,12 @@ public interface Criterion {
 
   int getArgsCount();
 
+  /**
+   * Append the criterion shape (type, properties and placeholders count, but no argument values)
+   * to the key. Two criteria with the same key must render the same sql.
+   *
+   * @param key key builder.
+   */
+  void appendKey(StringBuilder key);
+
 }
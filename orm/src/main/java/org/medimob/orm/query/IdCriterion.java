@@ -17,18 +17,23 @@ public class IdCriterion implements Criterion {
 
   @Override
   public void collectArgs(ArrayList<String> argsList) {
-
+    argsList.add(Long.toString(id));
   }
 
   @Override
   public void toSql(StatementBuilder builder, PropertyResolver resolver) {
     builder.appendWord(resolver.resolveIdColumn());
     builder.appendWord("==");
-    builder.appendWord(Long.toString(id));
+    builder.appendWord(PLACE_HOLDER);
   }
 
   @Override
   public int getArgsCount() {
-    return 0;
+    return 1;
+  }
+
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append("id");
   }
 }
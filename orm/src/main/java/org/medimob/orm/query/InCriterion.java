@@ -48,6 +48,11 @@ public class InCriterion implements NotCriterion {
     return args.size();
   }
 
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append(not ? "!in:" : "in:").append(property).append(':').append(args.size());
+  }
+
   @Override
   public Criterion not() {
     not = true;
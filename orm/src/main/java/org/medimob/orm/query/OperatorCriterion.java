@@ -36,9 +36,16 @@ public class OperatorCriterion implements NotCriterion {
     if (not) {
       builder.appendWord("NOT");
     }
-    builder.appendWord(property);
+    builder.appendWord(operator);
     builder.appendWord(PLACE_HOLDER);
-    builder.closeBracket();
+  }
+
+  @Override
+  public void appendKey(StringBuilder key) {
+    if (not) {
+      key.append('!');
+    }
+    key.append(operator).append(':').append(property);
   }
 
   @Override
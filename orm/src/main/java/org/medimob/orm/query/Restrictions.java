@@ -73,11 +73,11 @@ public class Restrictions {
     return new SqlCriterion(sql, Arrays.asList(objects));
   }
 
-  public static void conjunction() {
-
+  public static CompositeCriterion conjunction() {
+    return new CompositeCriterion(CompositeCriterion.AND);
   }
 
-  public static void disjunction() {
-
+  public static CompositeCriterion disjunction() {
+    return new CompositeCriterion(CompositeCriterion.OR);
   }
 }
@@ -32,4 +32,9 @@ public class SqlCriterion implements Criterion {
   public int getArgsCount() {
     return args.size();
   }
+
+  @Override
+  public void appendKey(StringBuilder key) {
+    key.append("sql:").append(sql);
+  }
 }
@@ -0,0 +1,149 @@
+package org.medimob.orm;
+
+import android.os.Bundle;
+
+import org.fest.assertions.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseConfigTest {
+
+  @Test
+  public void metaDataTest() {
+    Bundle metaData = new Bundle();
+    metaData.putString("orm.profile", "low-memory");
+    metaData.putBoolean("orm.walEnabled", true);
+    metaData.putInt("orm.statementCacheSize", 20);
+    metaData.putString("orm.synchronous", "normal");
+    metaData.putInt("orm.cacheSize", -2048);
+    metaData.putInt("orm.mmapSize", 1024);
+    metaData.putString("orm.tempStore", "memory");
+    metaData.putInt("orm.pageSize", 4096);
+
+    DatabaseConfig config = DatabaseConfig.fromMetaData(metaData);
+    assertThat(config.getProfile()).isEqualTo(DatabaseConfig.Profile.LOW_MEMORY);
+    assertThat(config.isWriteAheadLogging()).isTrue();
+    assertThat(config.getStatementCacheSize()).isEqualTo(20);
+    assertThat(config.getSynchronous()).isEqualTo(DatabaseConfig.Synchronous.NORMAL);
+    assertThat(config.getCacheSize()).isEqualTo(-2048);
+    assertThat(config.getMmapSize()).isEqualTo(1024L);
+    assertThat(config.getTempStore()).isEqualTo(DatabaseConfig.TempStore.MEMORY);
+    assertThat(config.getPageSize()).isEqualTo(4096);
+  }
+
+  @Test
+  public void emptyMetaDataTest() {
+    DatabaseConfig config = DatabaseConfig.fromMetaData(null);
+    assertThat(config.getProfile()).isNull();
+    assertThat(config.isWriteAheadLogging()).isFalse();
+    assertThat(config.getStatementCacheSize()).isEqualTo(0);
+    assertThat(config.getSynchronous()).isNull();
+    assertThat(config.getCacheSize()).isNull();
+    assertThat(config.getMmapSize()).isNull();
+    assertThat(config.getTempStore()).isNull();
+    assertThat(config.getPageSize()).isNull();
+
+    config = DatabaseConfig.fromMetaData(new Bundle());
+    assertThat(config.getProfile()).isNull();
+    assertThat(config.isWriteAheadLogging()).isFalse();
+  }
+
+  @Test
+  public void invalidMetaDataTest() {
+    Bundle metaData = new Bundle();
+    metaData.putString("orm.profile", "fast");
+    try {
+      DatabaseConfig.fromMetaData(metaData);
+      Assertions.failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void validationTest() {
+    DatabaseConfig config = new DatabaseConfig();
+    try {
+      config.setStatementCacheSize(101);
+      Assertions.failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      config.setMmapSize(-1L);
+      Assertions.failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      config.setPageSize(1000);
+      Assertions.failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    config.setStatementCacheSize(100).setMmapSize(0L).setPageSize(65536);
+    assertThat(config.getStatementCacheSize()).isEqualTo(100);
+    assertThat(config.getPageSize()).isEqualTo(65536);
+  }
+
+  @Test
+  public void writeAheadLoggingPrecedenceTest() {
+    DatabaseConfig config = new DatabaseConfig().setProfile(DatabaseConfig.Profile.WRITE_HEAVY);
+    assertThat(config.isWriteAheadLogging()).isTrue();
+    config.setWriteAheadLogging(false);
+    assertThat(config.isWriteAheadLogging()).isFalse();
+    // Null falls back to the profile.
+    config.setWriteAheadLogging(null);
+    assertThat(config.isWriteAheadLogging()).isTrue();
+
+    // Meta-data value overrides the profile.
+    Bundle metaData = new Bundle();
+    metaData.putString("orm.profile", "write_heavy");
+    metaData.putBoolean("orm.walEnabled", false);
+    assertThat(DatabaseConfig.fromMetaData(metaData).isWriteAheadLogging()).isFalse();
+  }
+
+  @Test
+  public void profileTest() {
+    DatabaseConfig config = new DatabaseConfig().setProfile(DatabaseConfig.Profile.LOW_MEMORY);
+    assertThat(config.isWriteAheadLogging()).isFalse();
+    assertThat(config.getStatementCacheSize()).isEqualTo(10);
+    assertThat(config.getSynchronous()).isEqualTo(DatabaseConfig.Synchronous.FULL);
+    assertThat(config.getCacheSize()).isEqualTo(-512);
+    assertThat(config.getMmapSize()).isEqualTo(0L);
+    assertThat(config.getTempStore()).isEqualTo(DatabaseConfig.TempStore.FILE);
+
+    // Explicit values override the profile.
+    config.setWriteAheadLogging(true)
+        .setStatementCacheSize(40)
+        .setSynchronous(DatabaseConfig.Synchronous.NORMAL)
+        .setCacheSize(-4096)
+        .setMmapSize(1024L)
+        .setTempStore(DatabaseConfig.TempStore.MEMORY);
+    assertThat(config.isWriteAheadLogging()).isTrue();
+    assertThat(config.getStatementCacheSize()).isEqualTo(40);
+    assertThat(config.getSynchronous()).isEqualTo(DatabaseConfig.Synchronous.NORMAL);
+    assertThat(config.getCacheSize()).isEqualTo(-4096);
+    assertThat(config.getMmapSize()).isEqualTo(1024L);
+    assertThat(config.getTempStore()).isEqualTo(DatabaseConfig.TempStore.MEMORY);
+
+    // Write-ahead logging profile leaves the primary connection pragmas unset.
+    config = new DatabaseConfig().setProfile(DatabaseConfig.Profile.WRITE_HEAVY);
+    assertThat(config.isWriteAheadLogging()).isTrue();
+    assertThat(config.getSynchronous()).isEqualTo(DatabaseConfig.Synchronous.NORMAL);
+    assertThat(config.getCacheSize()).isNull();
+    assertThat(config.getMmapSize()).isNull();
+
+    // Reads run on the configured connection.
+    config = new DatabaseConfig().setProfile(DatabaseConfig.Profile.READ_HEAVY);
+    assertThat(config.isWriteAheadLogging()).isFalse();
+    assertThat(config.getSynchronous()).isNull();
+    assertThat(config.getCacheSize()).isEqualTo(-8192);
+    assertThat(config.getMmapSize()).isEqualTo(64L * 1024 * 1024);
+    assertThat(config.getTempStore()).isEqualTo(DatabaseConfig.TempStore.MEMORY);
+  }
+}
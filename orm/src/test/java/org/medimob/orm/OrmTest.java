@@ -1,14 +1,35 @@
 package org.medimob.orm;
 
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
 import org.fest.assertions.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.medimob.orm.internal.DateFormatter;
+import org.medimob.orm.internal.SqlUtils;
+import org.medimob.orm.models.AllTypeSummary;
 import org.medimob.orm.models.AllTypeTest;
+import org.medimob.orm.models.DirtyTrackingTest;
+import org.medimob.orm.models.DirtyUnversionedTest;
+import org.medimob.orm.models.ReferenceTest;
+import org.medimob.orm.models.UniqueIgnoreTest;
+import org.medimob.orm.query.Restrictions;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -164,4 +185,833 @@ public class OrmTest {
     assertThat(test).isNull();
   }
 
+  @Test
+  public void criteriaQueryTest() {
+    AllTypeTest test = new AllTypeTest();
+    test.setString("criteria");
+    test.setPrimitiveInt(42);
+    long id = orm.insert(AllTypeTest.class, test);
+
+    List<AllTypeTest> results = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "criteria"))
+        .add(Restrictions.ge("primitiveInt", 42))
+        .orderDesc("id")
+        .query();
+    assertThat(results).isNotEmpty();
+    assertThat(results.get(0).getId()).isEqualTo(id);
+
+    AllTypeTest single = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.idEqual(id))
+        .querySingle();
+    assertThat(single).isNotNull();
+    assertThat(single.getString()).isEqualTo("criteria");
+
+    // Single result query leaves the query's limit unchanged.
+    AllTypeTest other = new AllTypeTest();
+    other.setString("criteria");
+    orm.insert(AllTypeTest.class, other);
+    Query<AllTypeTest> shared = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "criteria"));
+    assertThat(shared.querySingle()).isNotNull();
+    assertThat(shared.query()).hasSize(2);
+
+    // Empty nested composites are skipped.
+    results = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.idEqual(id))
+        .add(Restrictions.disjunction().add(Restrictions.conjunction()))
+        .query();
+    assertThat(results).hasSize(1);
+  }
+
+  @Test
+  public void iteratorTest() {
+    AllTypeTest test = new AllTypeTest();
+    test.setString("iterator");
+    orm.insert(AllTypeTest.class, test);
+    orm.insert(AllTypeTest.class, new AllTypeTest());
+
+    CursorIterator<AllTypeTest> iterator =
+        orm.rawQueryIterator(AllTypeTest.class, "STRING=?", new String[]{"iterator"}, null, null);
+    int count = 0;
+    for (AllTypeTest result : iterator) {
+      assertThat(result.getString()).isEqualTo("iterator");
+      count++;
+    }
+    assertThat(count).isGreaterThan(0);
+    assertThat(iterator.isClosed()).isTrue();
+  }
+
+  @Test
+  public void columnQueryTest() {
+    AllTypeTest test = new AllTypeTest();
+    test.setString("column");
+    test.setPrimitiveLong(7l);
+    test.setPrimitiveDouble(7.5d);
+    long id = orm.insert(AllTypeTest.class, test);
+
+    long[] ids = orm.queryLongColumn(AllTypeTest.class, "id", "STRING=?",
+                                     new String[]{"column"}, null, null);
+    assertThat(ids).contains(id);
+
+    double[] doubles = orm.queryDoubleColumn(AllTypeTest.class, "primitiveDouble", "_id=?",
+                                             new String[]{String.valueOf(id)}, null, null);
+    assertThat(doubles).containsOnly(7.5d);
+  }
+
+  @Test
+  public void insertBatchTest() {
+    List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+    for (int i = 0; i < 120; i++) {
+      AllTypeTest test = new AllTypeTest();
+      test.setPrimitiveInt(i);
+      entities.add(test);
+    }
+    long[] ids = orm.insertBatchInTx(AllTypeTest.class, entities);
+    assertThat(ids).hasSize(120);
+    for (int i = 0; i < ids.length; i++) {
+      AllTypeTest loaded = orm.loadById(AllTypeTest.class, ids[i]);
+      assertThat(loaded).isNotNull();
+      assertThat(loaded.getPrimitiveInt()).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void insertBatchIgnoredTest() {
+    // Ignored rows don't shift the ids of the following rows.
+    String[] codes = {"a", "b", "a", "c", "b", "d"};
+    List<UniqueIgnoreTest> entities = new ArrayList<UniqueIgnoreTest>();
+    for (String code : codes) {
+      UniqueIgnoreTest test = new UniqueIgnoreTest();
+      test.setCode(code);
+      entities.add(test);
+    }
+    long[] ids = orm.insertBatchInTx(UniqueIgnoreTest.class, entities);
+    assertThat(ids).hasSize(codes.length);
+    assertThat(ids[2]).isEqualTo(-1L);
+    assertThat(ids[4]).isEqualTo(-1L);
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != -1L) {
+        UniqueIgnoreTest loaded = orm.loadById(UniqueIgnoreTest.class, ids[i]);
+        assertThat(loaded).isNotNull();
+        assertThat(loaded.getCode()).isEqualTo(codes[i]);
+      }
+    }
+  }
+
+  @Test
+  public void writeQueueTest() throws Exception {
+    WriteQueue queue = orm.getWriteQueue();
+    Future<Long> first = queue.insert(AllTypeTest.class, new AllTypeTest());
+    Future<Long> second = queue.insert(AllTypeTest.class, new AllTypeTest());
+
+    long id = first.get();
+    assertThat(id).isGreaterThan(0);
+    assertThat(second.get()).isGreaterThan(id);
+
+    AllTypeTest loaded = orm.loadById(AllTypeTest.class, id);
+    assertThat(queue.delete(AllTypeTest.class, loaded).get()).isEqualTo(1);
+    assertThat(orm.loadById(AllTypeTest.class, id)).isNull();
+  }
+
+  @Test
+  public void writeQueueShutdownTest() throws Exception {
+    // Large batches : the shutdown interrupts the writer while polling.
+    WriteQueue queue = new WriteQueue(orm, orm.getHelper(), 1000, 1000);
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(queue.insert(AllTypeTest.class, new AllTypeTest()));
+    }
+    queue.shutdown();
+    assertThat(queue.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    for (Future<Long> future : futures) {
+      assertThat(future.isDone()).isTrue();
+      assertThat(future.get()).isGreaterThan(0);
+    }
+    try {
+      queue.insert(AllTypeTest.class, new AllTypeTest());
+      Assertions.failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void strongCacheTest() {
+    orm.configureCache(AllTypeTest.class, new CacheConfig<AllTypeTest>().setMaxSize(1));
+    long first = orm.insert(AllTypeTest.class, new AllTypeTest());
+    long second = orm.insert(AllTypeTest.class, new AllTypeTest());
+
+    CacheStats before = orm.getCacheStats(AllTypeTest.class);
+    orm.loadById(AllTypeTest.class, first);
+    orm.loadById(AllTypeTest.class, second);
+    orm.loadById(AllTypeTest.class, second);
+
+    CacheStats after = orm.getCacheStats(AllTypeTest.class);
+    assertThat(after.getMissCount() - before.getMissCount()).isEqualTo(2);
+    assertThat(after.getHitCount() - before.getHitCount()).isEqualTo(1);
+    assertThat(after.getEvictionCount()).isGreaterThan(before.getEvictionCount());
+    assertThat(after.getSize()).isEqualTo(1);
+    orm.configureCache(AllTypeTest.class, new CacheConfig<AllTypeTest>());
+  }
+
+  @Test
+  public void loadByIdsTest() {
+    long first = orm.insert(AllTypeTest.class, new AllTypeTest());
+    long second = orm.insert(AllTypeTest.class, new AllTypeTest());
+    long third = orm.insert(AllTypeTest.class, new AllTypeTest());
+    AllTypeTest cached = orm.loadById(AllTypeTest.class, first);
+
+    List<AllTypeTest> results = orm.loadByIds(AllTypeTest.class, third, first, -1, second);
+    assertThat(results).hasSize(4);
+    assertThat(results.get(0).getId()).isEqualTo(third);
+    assertThat(results.get(1)).isSameAs(cached);
+    assertThat(results.get(2)).isNull();
+    assertThat(results.get(3).getId()).isEqualTo(second);
+    assertThat(orm.loadById(AllTypeTest.class, second)).isSameAs(results.get(3));
+  }
+
+  @Test
+  public void metricsTest() {
+    InMemoryMetrics metrics = new InMemoryMetrics();
+    orm.setMetrics(metrics);
+    try {
+      long id = orm.insertInTx(AllTypeTest.class, new AllTypeTest());
+      orm.loadById(AllTypeTest.class, id);
+      orm.loadById(AllTypeTest.class, id);
+
+      String table = orm.getRepository(AllTypeTest.class).getTableName();
+      assertThat(metrics.getTables()).containsOnly(table);
+      assertThat(metrics.getLatency(table, OrmMetrics.Operation.INSERT).getCount()).isEqualTo(1);
+      assertThat(metrics.getLatency(table, OrmMetrics.Operation.TRANSACTION).getCount())
+          .isEqualTo(1);
+      assertThat(metrics.getRowCount(table, OrmMetrics.Operation.QUERY)).isEqualTo(1);
+      assertThat(metrics.getSessionMissCount(table)).isEqualTo(1);
+      assertThat(metrics.getSessionHitCount(table)).isEqualTo(1);
+    } finally {
+      orm.setMetrics(null);
+    }
+  }
+
+  @Test
+  public void registryTest() {
+    ModelRegistry registry = new OrmRegistry();
+    int index = registry.indexOf(AllTypeTest.class);
+    assertThat(index).isGreaterThanOrEqualTo(0);
+    assertThat((Object) registry.getEntityClass(index)).isEqualTo(AllTypeTest.class);
+    assertThat(registry.createModel(index).getClass().getName())
+        .isEqualTo(AllTypeTest.class.getName() + "$$Model");
+    assertThat(registry.indexOf(String.class)).isEqualTo(-1);
+  }
+
+  @Test
+  public void warmupTest() throws Exception {
+    long oldest = orm.insert(AllTypeTest.class, new AllTypeTest());
+    long middle = orm.insert(AllTypeTest.class, new AllTypeTest());
+    long newest = orm.insert(AllTypeTest.class, new AllTypeTest());
+    orm.configureCache(AllTypeTest.class, new CacheConfig<AllTypeTest>().setMaxSize(2));
+    orm.clearSession(AllTypeTest.class);
+
+    Executor direct = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    orm.warmup(direct, AllTypeTest.class).get();
+
+    // Only the two most recent rows are primed.
+    CacheStats before = orm.getCacheStats(AllTypeTest.class);
+    assertThat(orm.loadById(AllTypeTest.class, newest)).isNotNull();
+    assertThat(orm.loadById(AllTypeTest.class, middle)).isNotNull();
+    CacheStats after = orm.getCacheStats(AllTypeTest.class);
+    assertThat(after.getHitCount() - before.getHitCount()).isEqualTo(2);
+    assertThat(orm.loadById(AllTypeTest.class, oldest)).isNotNull();
+    assertThat(orm.getCacheStats(AllTypeTest.class).getMissCount() - after.getMissCount())
+        .isEqualTo(1);
+    orm.configureCache(AllTypeTest.class, new CacheConfig<AllTypeTest>());
+  }
+
+  @Test
+  public void dateFormatterTest() throws Exception {
+    DateFormatter iso = DateFormatter.forPattern(DateFormatter.ISO_8601_PATTERN);
+    SimpleDateFormat format = new SimpleDateFormat(DateFormatter.ISO_8601_PATTERN);
+    Date date = new Date(1423735200123L);
+    assertThat(iso.format(date)).isEqualTo(format.format(date));
+    assertThat(iso.parse(format.format(date))).isEqualTo(date);
+    assertThat(DateFormatter.forPattern(DateFormatter.ISO_8601_PATTERN)).isSameAs(iso);
+  }
+
+  @Test
+  public void projectionTest() {
+    AllTypeTest test = new AllTypeTest();
+    test.setString("projection");
+    test.setPrimitiveInt(7);
+    long id = orm.insert(AllTypeTest.class, test);
+
+    List<AllTypeSummary> results = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.idEqual(id))
+        .query(AllTypeSummary.class);
+    assertThat(results).hasSize(1);
+    assertThat(results.get(0).getId()).isEqualTo(id);
+    assertThat(results.get(0).getString()).isEqualTo("projection");
+    assertThat(results.get(0).getPrimitiveInt()).isEqualTo(7);
+
+    results = orm.queryProjection(AllTypeSummary.class, "STRING=?",
+                                  new String[]{"projection"}, null, null);
+    assertThat(results).isNotEmpty();
+  }
+
+  @Test
+  public void dirtyUpdateTest() {
+    DirtyTrackingTest test = new DirtyTrackingTest();
+    test.setCount(3);
+    test.setBytesArray(new byte[]{1, 2, 3});
+    long id = orm.insert(DirtyTrackingTest.class, test);
+
+    final List<String> updates = new ArrayList<String>();
+    orm.setMetrics(new OrmMetrics() {
+      @Override
+      public void onStatement(@NonNull Operation operation, @NonNull String table,
+                              @Nullable String sql, int rows, long nanos) {
+        if (operation == Operation.UPDATE) {
+          updates.add(sql);
+        }
+      }
+
+      @Override
+      public void onTransactionBegin(@NonNull String table) {
+      }
+
+      @Override
+      public void onTransactionEnd(@NonNull String table, long nanos) {
+      }
+
+      @Override
+      public void onSessionHit(@NonNull String table) {
+      }
+
+      @Override
+      public void onSessionMiss(@NonNull String table) {
+      }
+    });
+    test = orm.loadById(DirtyTrackingTest.class, id);
+    test.setString("dirty");
+    orm.update(DirtyTrackingTest.class, test);
+    orm.setMetrics(null);
+
+    assertThat(updates).hasSize(1);
+    assertThat(updates.get(0)).contains("STRING").doesNotContain("BYTESARRAY");
+    test = orm.loadById(DirtyTrackingTest.class, id);
+    assertThat(test.getString()).isEqualTo("dirty");
+    assertThat(test.getCount()).isEqualTo(3);
+    assertThat(test.getBytesArray()).isEqualTo(new byte[]{1, 2, 3});
+  }
+
+  @Test
+  public void dirtyUpdateSessionTest() {
+    long id = orm.insert(DirtyUnversionedTest.class, new DirtyUnversionedTest());
+    DirtyUnversionedTest test = orm.loadById(DirtyUnversionedTest.class, id);
+    test.setString("dirty");
+    assertThat(orm.update(DirtyUnversionedTest.class, test)).isTrue();
+    // Updated session entity stays cached.
+    assertThat(orm.loadById(DirtyUnversionedTest.class, id)).isSameAs(test);
+
+    // Unchanged entity : nothing is written, but the row must exist.
+    assertThat(orm.update(DirtyUnversionedTest.class, test)).isTrue();
+    orm.getHelper().getWritableDatabase().execSQL("DELETE FROM DirtyUnversionedTest");
+    try {
+      orm.update(DirtyUnversionedTest.class, test);
+      Assertions.failBecauseExceptionWasNotThrown(OrmException.class);
+    } catch (OrmException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void upsertTest() {
+    AllTypeTest test = new AllTypeTest();
+    test.setId(424242);
+    test.setString("upsert1");
+    assertThat(orm.upsert(AllTypeTest.class, test)).isEqualTo(424242);
+
+    AllTypeTest loaded = orm.loadById(AllTypeTest.class, 424242);
+    assertThat(loaded.getString()).isEqualTo("upsert1");
+    assertThat(loaded.getVersion()).isEqualTo(0);
+
+    test.setString("upsert2");
+    List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+    entities.add(test);
+    orm.upsertInTx(AllTypeTest.class, entities);
+
+    loaded = orm.loadById(AllTypeTest.class, 424242);
+    assertThat(loaded.getString()).isEqualTo("upsert2");
+    assertThat(loaded.getVersion()).isEqualTo(1);
+  }
+
+  @Test
+  public void closeTest() throws Exception {
+    long id = orm.insert(AllTypeTest.class, new AllTypeTest());
+    Future<Long> pending = orm.getWriteQueue().insert(AllTypeTest.class, new AllTypeTest());
+    orm.close();
+    // Queued writes are committed before the database is closed.
+    assertThat(pending.isDone()).isTrue();
+    assertThat(pending.get()).isGreaterThan(id);
+
+    // Statements are compiled again once the database is reopened.
+    assertThat(orm.insert(AllTypeTest.class, new AllTypeTest())).isGreaterThan(id);
+    assertThat(orm.deleteById(AllTypeTest.class, id)).isEqualTo(1);
+  }
+
+  @Test
+  public void schemaMigrationTest() {
+    AbstractModel<?> model = null;
+    for (AbstractModel<?> m : orm.getModels()) {
+      if (m.getTableName().equals("AllTypeTest")) {
+        model = m;
+      }
+    }
+    assertThat(model).isNotNull();
+    SchemaMigrator migrator = new SchemaMigrator(2);
+    SQLiteDatabase db = SQLiteDatabase.create(null);
+    try {
+      // Old schema without stored fingerprint : missing columns are added.
+      db.execSQL("CREATE TABLE AllTypeTest (_id INTEGER PRIMARY KEY AUTOINCREMENT, STRING TEXT)");
+      db.execSQL("INSERT INTO AllTypeTest (STRING) VALUES ('a')");
+      migrator.createSchemaTable(db);
+      migrator.migrate(db, model, false);
+      assertThat(DatabaseUtils.stringForQuery(
+          db, "SELECT STRING || _VERSION FROM AllTypeTest", null)).isEqualTo("a0");
+
+      // Removed column : table rebuilt by batches on opening.
+      db.execSQL("ALTER TABLE AllTypeTest ADD COLUMN OBSOLETE TEXT");
+      db.execSQL("DELETE FROM " + SchemaMigrator.SCHEMA_TABLE);
+      for (int i = 0; i < 4; i++) {
+        db.execSQL("INSERT INTO AllTypeTest (STRING) VALUES ('b')");
+      }
+      migrator.migrate(db, model, false);
+      assertThat(DatabaseUtils.longForQuery(
+          db, "SELECT REBUILD FROM " + SchemaMigrator.SCHEMA_TABLE, null)).isEqualTo(1);
+      migrator.resumeRebuilds(db, orm);
+      assertThat(DatabaseUtils.longForQuery(db, "SELECT count(*) FROM AllTypeTest", null))
+          .isEqualTo(5);
+      assertThat(DatabaseUtils.stringForQuery(
+          db, "SELECT FINGERPRINT FROM " + SchemaMigrator.SCHEMA_TABLE, null))
+          .isEqualTo(model.getSchemaFingerprint());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void schemaMigrationNotNullTest() {
+    AbstractModel<?> model = null;
+    for (AbstractModel<?> m : orm.getModels()) {
+      if (m.getTableName().equals("ColumnConstraintTest")) {
+        model = m;
+      }
+    }
+    assertThat(model).isNotNull();
+    SchemaMigrator migrator = new SchemaMigrator(2);
+    SQLiteDatabase db = SQLiteDatabase.create(null);
+    try {
+      // New NOT NULL column without default : rows cannot be copied.
+      db.execSQL("CREATE TABLE ColumnConstraintTest (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                 + " int_prop INTEGER)");
+      db.execSQL("INSERT INTO ColumnConstraintTest (int_prop) VALUES (4)");
+      migrator.createSchemaTable(db);
+      try {
+        migrator.migrate(db, model, false);
+        Assertions.failBecauseExceptionWasNotThrown(OrmException.class);
+      } catch (OrmException e) {
+        assertThat(e.getMessage()).contains("NOTNULLSTRING");
+      }
+      // No rebuild scheduled.
+      assertThat(DatabaseUtils.longForQuery(
+          db, "SELECT count(*) FROM " + SchemaMigrator.SCHEMA_TABLE + " WHERE REBUILD=1", null))
+          .isEqualTo(0);
+
+      // Nullable column becoming NOT NULL without default : null values cannot be copied.
+      db.execSQL("DROP TABLE ColumnConstraintTest");
+      db.execSQL("CREATE TABLE ColumnConstraintTest (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                 + " int_prop INTEGER, NOTNULLSTRING TEXT, UNIQUESTRING TEXT, OBSOLETE TEXT)");
+      db.execSQL("INSERT INTO ColumnConstraintTest (int_prop) VALUES (4)");
+      try {
+        migrator.migrate(db, model, false);
+        Assertions.failBecauseExceptionWasNotThrown(OrmException.class);
+      } catch (OrmException e) {
+        assertThat(e.getMessage()).contains("NOTNULLSTRING");
+      }
+      db.execSQL("UPDATE ColumnConstraintTest SET NOTNULLSTRING='a'");
+      migrator.migrate(db, model, false);
+      migrator.resumeRebuilds(db, orm);
+      assertThat(DatabaseUtils.stringForQuery(
+          db, "SELECT NOTNULLSTRING FROM ColumnConstraintTest", null)).isEqualTo("a");
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void schemaMigrationNotNullDefaultTest() {
+    AbstractModel<?> model = null;
+    for (AbstractModel<?> m : orm.getModels()) {
+      if (m.getTableName().equals("AllTypeTest")) {
+        model = m;
+      }
+    }
+    assertThat(model).isNotNull();
+    SchemaMigrator migrator = new SchemaMigrator(2);
+    SQLiteDatabase db = SQLiteDatabase.create(null);
+    try {
+      // Nullable column becoming NOT NULL with a default : null values are copied as default.
+      db.execSQL("CREATE TABLE AllTypeTest (_id INTEGER PRIMARY KEY AUTOINCREMENT, STRING TEXT,"
+                 + " _VERSION INTEGER, OBSOLETE TEXT)");
+      db.execSQL("INSERT INTO AllTypeTest (STRING) VALUES ('a')");
+      migrator.createSchemaTable(db);
+      migrator.migrate(db, model, false);
+      migrator.resumeRebuilds(db, orm);
+      assertThat(DatabaseUtils.stringForQuery(
+          db, "SELECT STRING || _VERSION FROM AllTypeTest", null)).isEqualTo("a0");
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void changeBusTest() {
+    final List<TableChange> changes = new ArrayList<TableChange>();
+    ChangeBus.ChangeListener listener = new ChangeBus.ChangeListener() {
+      @Override
+      public void onChange(@NonNull List<TableChange> tableChanges) {
+        changes.addAll(tableChanges);
+      }
+    };
+    orm.getChangeBus().register(listener, "AllTypeTest");
+    try {
+      List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+      for (int i = 0; i < 3; i++) {
+        entities.add(new AllTypeTest());
+      }
+      // One notification per transaction.
+      long[] ids = orm.insertInTx(AllTypeTest.class, entities);
+      assertThat(changes).hasSize(1);
+      assertThat(changes.get(0).getIds()).isEqualTo(ids);
+
+      AllTypeTest stale = orm.loadById(AllTypeTest.class, ids[0]);
+      orm.update(AllTypeTest.class, stale);
+      assertThat(changes).hasSize(2);
+
+      // Rolled back : not published.
+      List<AllTypeTest> updates = new ArrayList<AllTypeTest>();
+      updates.add(orm.loadById(AllTypeTest.class, ids[1]));
+      updates.add(stale);
+      try {
+        orm.updateInTx(AllTypeTest.class, updates);
+        Assertions.failBecauseExceptionWasNotThrown(OrmException.class);
+      } catch (OrmException e) {
+        assertThat(changes).hasSize(2);
+      }
+    } finally {
+      orm.getChangeBus().unregister(listener);
+    }
+  }
+  @Test
+  public void changeBusOuterTransactionTest() {
+    final List<TableChange> changes = new ArrayList<TableChange>();
+    ChangeBus.ChangeListener listener = new ChangeBus.ChangeListener() {
+      @Override
+      public void onChange(@NonNull List<TableChange> tableChanges) {
+        changes.addAll(tableChanges);
+      }
+    };
+    orm.getChangeBus().register(listener, "AllTypeTest");
+    try {
+      final long[] ids = new long[2];
+      // Outer transaction rolled back : nested writes are not published.
+      try {
+        orm.runInTransaction(new Runnable() {
+          @Override
+          public void run() {
+            ids[0] = orm.insert(AllTypeTest.class, new AllTypeTest());
+            AllTypeTest test = orm.loadById(AllTypeTest.class, ids[0]);
+            orm.updateInTx(AllTypeTest.class, test);
+            throw new IllegalStateException("rollback");
+          }
+        });
+        Assertions.failBecauseExceptionWasNotThrown(IllegalStateException.class);
+      } catch (IllegalStateException e) {
+        assertThat(changes).isEmpty();
+      }
+      orm.clearSession(AllTypeTest.class);
+      assertThat(orm.loadById(AllTypeTest.class, ids[0])).isNull();
+
+      // Committed : published once, after the commit.
+      orm.runInTransaction(new Runnable() {
+        @Override
+        public void run() {
+          ids[0] = orm.insert(AllTypeTest.class, new AllTypeTest());
+          ids[1] = orm.insertInTx(AllTypeTest.class, new AllTypeTest());
+          assertThat(changes).isEmpty();
+        }
+      });
+      assertThat(changes).hasSize(1);
+      assertThat(changes.get(0).getIds()).isEqualTo(ids);
+    } finally {
+      orm.getChangeBus().unregister(listener);
+    }
+  }
+
+
+  @Test
+  public void liveQueryTest() {
+    Executor direct = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    final List<Integer> sizes = new ArrayList<Integer>();
+    LiveQuery<AllTypeTest> liveQuery = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "live"))
+        .observe(direct, new LiveQuery.Observer<AllTypeTest>() {
+          @Override
+          public void onChanged(@NonNull List<AllTypeTest> results) {
+            sizes.add(results.size());
+          }
+        });
+    try {
+      List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+      for (int i = 0; i < 100; i++) {
+        AllTypeTest entity = new AllTypeTest();
+        entity.setString("live");
+        entities.add(entity);
+      }
+      orm.insertInTx(AllTypeTest.class, entities);
+      assertThat(sizes).containsExactly(0, 100);
+    } finally {
+      liveQuery.close();
+    }
+  }
+
+  @Test
+  public void incrementalLiveQueryTest() {
+    Executor direct = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+    for (int i = 0; i < 3; i++) {
+      AllTypeTest entity = new AllTypeTest();
+      entity.setString("diff");
+      entities.add(entity);
+    }
+    long[] ids = orm.insertInTx(AllTypeTest.class, entities);
+    final List<ResultDiff> diffs = new ArrayList<ResultDiff>();
+    final List<List<AllTypeTest>> snapshots = new ArrayList<List<AllTypeTest>>();
+    LiveQuery<AllTypeTest> liveQuery = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "diff"))
+        .orderAsc("id")
+        .observeIncremental(direct, new LiveQuery.DiffObserver<AllTypeTest>() {
+          @Override
+          public void onChanged(@NonNull List<AllTypeTest> results, @NonNull ResultDiff diff) {
+            diffs.add(diff);
+            snapshots.add(new ArrayList<AllTypeTest>(results));
+          }
+        });
+    try {
+      assertThat(diffs.get(0).getInserted()).isEqualTo(new int[]{0, 1, 2});
+
+      AllTypeTest updated = orm.loadById(AllTypeTest.class, ids[1]);
+      updated.setPrimitiveInt(42);
+      orm.updateInTx(AllTypeTest.class, updated);
+      assertThat(diffs).hasSize(2);
+      assertThat(diffs.get(1).getChanged()).isEqualTo(new int[]{1});
+      // Unchanged rows are the same session instances.
+      assertThat(snapshots.get(1).get(0)).isSameAs(snapshots.get(0).get(0));
+      assertThat(snapshots.get(1).get(2)).isSameAs(snapshots.get(0).get(2));
+      assertThat(snapshots.get(1).get(1).getPrimitiveInt()).isEqualTo(42);
+
+      orm.deleteById(AllTypeTest.class, ids[0]);
+      assertThat(diffs).hasSize(3);
+      assertThat(diffs.get(2).getRemoved()).isEqualTo(new int[]{0});
+      assertThat(diffs.get(2).getInserted()).isEmpty();
+    } finally {
+      liveQuery.close();
+    }
+  }
+
+  @Test
+  public void pageTest() {
+    List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+    for (int i = 0; i < 25; i++) {
+      AllTypeTest entity = new AllTypeTest();
+      entity.setString("page");
+      entity.setPrimitiveInt(i % 5);
+      entity.setObjectInt(i % 3 == 0 ? null : i % 4);
+      entities.add(entity);
+    }
+    orm.insertInTx(AllTypeTest.class, entities);
+
+    Query<AllTypeTest> query = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "page"))
+        .orderAsc("primitiveInt");
+    List<AllTypeTest> results = new ArrayList<AllTypeTest>();
+    Page<AllTypeTest> page = query.page(null, 10);
+    results.addAll(page.getResults());
+    while (page.hasNext()) {
+      page = query.page(page.getNextToken(), 10);
+      results.addAll(page.getResults());
+    }
+    assertThat(results).hasSize(25);
+    for (int i = 1; i < results.size(); i++) {
+      AllTypeTest previous = results.get(i - 1);
+      AllTypeTest current = results.get(i);
+      assertThat(previous.getPrimitiveInt() < current.getPrimitiveInt()
+                 || previous.getPrimitiveInt() == current.getPrimitiveInt()
+                    && previous.getId() < current.getId()).isTrue();
+    }
+
+    // Descending order with null keys (sorted last).
+    query = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "page"))
+        .orderDesc("objectInt");
+    results.clear();
+    page = query.page(null, 4);
+    results.addAll(page.getResults());
+    while (page.hasNext()) {
+      page = query.page(page.getNextToken(), 4);
+      results.addAll(page.getResults());
+    }
+    assertThat(results).hasSize(25);
+    assertThat(results.get(0).getObjectInt()).isEqualTo(3);
+    assertThat(results.get(24).getObjectInt()).isNull();
+  }
+
+  @Test
+  public void asyncTest() throws Exception {
+    final List<Runnable> bulkTasks = new ArrayList<Runnable>();
+    Executor direct = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    Executor queued = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        bulkTasks.add(command);
+      }
+    };
+    AsyncOrm async = new AsyncOrm(orm, direct, queued);
+    List<AllTypeTest> entities = new ArrayList<AllTypeTest>();
+    for (int i = 0; i < 10; i++) {
+      AllTypeTest entity = new AllTypeTest();
+      entity.setString("async");
+      entities.add(entity);
+    }
+    Future<long[]> insert = async.insertInTx(AllTypeTest.class, entities);
+    Future<Integer> cancelled = async.deleteByIdInTx(AllTypeTest.class, 1L);
+    assertThat(cancelled.cancel(true)).isTrue();
+    for (Runnable task : bulkTasks) {
+      task.run();
+    }
+    long[] ids = insert.get();
+    assertThat(ids).hasSize(10);
+    assertThat(async.loadById(AllTypeTest.class, ids[0]).get()).isNotNull();
+
+    // Lane priority : a bulk task waits for pending interactive tasks, at most the max delay.
+    final List<Runnable> interactiveTasks = new ArrayList<Runnable>();
+    Executor queuedInteractive = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        interactiveTasks.add(command);
+      }
+    };
+    AsyncOrm lanes = new AsyncOrm(orm, queuedInteractive, direct);
+    Future<AllTypeTest> load = lanes.loadById(AllTypeTest.class, ids[0]);
+    long start = System.nanoTime();
+    Future<Integer> update = lanes.updateInTx(AllTypeTest.class, new ArrayList<AllTypeTest>());
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(
+        TimeUnit.MILLISECONDS.toNanos(AsyncOrm.MAX_BULK_DELAY_MILLIS - 1));
+    assertThat(update.isDone()).isTrue();
+    assertThat(load.isDone()).isFalse();
+    interactiveTasks.get(0).run();
+    assertThat(load.get()).isNotNull();
+    // No pending interactive task : not delayed.
+    start = System.nanoTime();
+    assertThat(lanes.updateInTx(AllTypeTest.class, new ArrayList<AllTypeTest>()).get())
+        .isEqualTo(0);
+    assertThat(System.nanoTime() - start)
+        .isLessThan(TimeUnit.MILLISECONDS.toNanos(AsyncOrm.MAX_BULK_DELAY_MILLIS));
+    // Cancelled interactive tasks don't delay bulk tasks either.
+    lanes.loadById(AllTypeTest.class, ids[0]).cancel(false);
+    start = System.nanoTime();
+    lanes.updateInTx(AllTypeTest.class, new ArrayList<AllTypeTest>()).get();
+    assertThat(System.nanoTime() - start)
+        .isLessThan(TimeUnit.MILLISECONDS.toNanos(AsyncOrm.MAX_BULK_DELAY_MILLIS));
+
+    // Cancellation aborts the iteration.
+    CancellationSignal signal = new CancellationSignal();
+    CursorIterator<AllTypeTest> iterator = orm.createQuery(AllTypeTest.class)
+        .add(Restrictions.eq("string", "async"))
+        .iterate(signal);
+    assertThat(iterator.next()).isNotNull();
+    signal.cancel();
+    try {
+      iterator.next();
+      Assertions.fail("Iteration not cancelled");
+    } catch (OperationCanceledException e) {
+      assertThat(iterator.isClosed()).isTrue();
+    }
+  }
+
+  @Test
+  public void fetchReferencesTest() {
+    // More distinct references than bind arguments : loaded in two chunks.
+    int targetCount = SqlUtils.MAX_BIND_ARGS + 1;
+    List<AllTypeTest> targets = new ArrayList<AllTypeTest>();
+    for (int i = 0; i < targetCount; i++) {
+      targets.add(new AllTypeTest());
+    }
+    long[] targetIds = orm.insertInTx(AllTypeTest.class, targets);
+    List<ReferenceTest> references = new ArrayList<ReferenceTest>();
+    for (int i = 0; i <= targetCount; i++) {
+      ReferenceTest reference = new ReferenceTest();
+      reference.setSimpleReferenceId(i < targetCount ? targetIds[i] : 0);
+      references.add(reference);
+    }
+    orm.insertInTx(ReferenceTest.class, references);
+    // Referenced entities are loaded from db, not from the session.
+    targets = null;
+    orm.clearSession(AllTypeTest.class);
+
+    InMemoryMetrics metrics = new InMemoryMetrics();
+    orm.setMetrics(metrics);
+    List<ReferenceTest> results;
+    try {
+      results = orm.createQuery(ReferenceTest.class)
+          .fetch("simpleReferenceId")
+          .query();
+    } finally {
+      orm.setMetrics(null);
+    }
+    String table = orm.getRepository(AllTypeTest.class).getTableName();
+    assertThat(metrics.getLatency(table, OrmMetrics.Operation.QUERY).getCount()).isEqualTo(2);
+    assertThat(metrics.getRowCount(table, OrmMetrics.Operation.QUERY)).isEqualTo(targetCount);
+    assertThat(metrics.getSessionMissCount(table)).isEqualTo(targetCount);
+
+    assertThat(results).hasSize(targetCount + 1);
+    for (ReferenceTest result : results) {
+      if (result.getSimpleReferenceId() == 0) {
+        assertThat(result.getSimpleReference()).isNull();
+      } else {
+        // Referenced entities are session instances.
+        assertThat(result.getSimpleReference())
+            .isSameAs(orm.loadById(AllTypeTest.class, result.getSimpleReferenceId()));
+      }
+    }
+  }
+
 }
@@ -0,0 +1,132 @@
+package org.medimob.orm.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LongWeakMapTest {
+
+  private static final int MAX_GC_ATTEMPTS = 50;
+
+  // Collects the garbage until the key's value is cleared.
+  private static boolean awaitCollected(LongWeakMap<?> map, long key) {
+    for (int i = 0; i < MAX_GC_ATTEMPTS && map.get(key) != null; i++) {
+      System.gc();
+      System.runFinalization();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return map.get(key) == null;
+  }
+
+  @Test
+  public void putGetTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    List<Object> values = new ArrayList<Object>();
+    // Enough keys to resize the segments.
+    for (long key = 1; key <= 1000; key++) {
+      Object value = new Object();
+      values.add(value);
+      map.put(key, value, "attachment" + key);
+    }
+    assertThat(map.size()).isEqualTo(1000);
+    for (long key = 1; key <= 1000; key++) {
+      Object value = values.get((int) key - 1);
+      assertThat(map.get(key)).isSameAs(value);
+      assertThat(map.getAttachment(key, value)).isEqualTo("attachment" + key);
+    }
+    assertThat(map.get(0)).isNull();
+    assertThat(map.get(-1)).isNull();
+  }
+
+  @Test
+  public void replaceTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    Object first = new Object();
+    Object second = new Object();
+    map.put(1, first, "first");
+    map.put(1, second, "second");
+
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(1)).isSameAs(second);
+    assertThat(map.getAttachment(1, second)).isEqualTo("second");
+    // Attachment of a replaced value is not returned.
+    assertThat(map.getAttachment(1, first)).isNull();
+  }
+
+  @Test
+  public void removeTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    Object first = new Object();
+    Object second = new Object();
+    map.put(1, first);
+    map.put(2, second);
+
+    map.remove(1);
+    map.remove(3);
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(1)).isNull();
+    assertThat(map.get(2)).isSameAs(second);
+
+    map.clear();
+    assertThat(map.size()).isEqualTo(0);
+    assertThat(map.get(2)).isNull();
+  }
+
+  @Test
+  public void collectAndPurgeTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    Object kept = new Object();
+    map.put(1, kept);
+    map.put(2, new Object(), "attachment");
+
+    assertThat(awaitCollected(map, 2)).isTrue();
+    assertThat(map.get(1)).isSameAs(kept);
+    assertThat(map.getAttachment(2, kept)).isNull();
+
+    map.purge();
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(1)).isSameAs(kept);
+  }
+
+  @Test
+  public void removeCollectedTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    Object kept = new Object();
+    map.put(1, kept);
+    map.put(2, new Object());
+    assertThat(awaitCollected(map, 2)).isTrue();
+
+    // Collected entry is removed (or already purged by the remove).
+    map.remove(2);
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(1)).isSameAs(kept);
+
+    // Collected key can be mapped again.
+    Object value = new Object();
+    map.put(2, value);
+    assertThat(map.size()).isEqualTo(2);
+    assertThat(map.get(2)).isSameAs(value);
+  }
+
+  @Test
+  public void putOverCollectedTest() {
+    LongWeakMap<Object> map = new LongWeakMap<Object>();
+    map.put(1, new Object());
+    assertThat(awaitCollected(map, 1)).isTrue();
+
+    Object value = new Object();
+    map.put(1, value);
+    map.purge();
+    // Stale reference purge doesn't drop the new value.
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(1)).isSameAs(value);
+  }
+}
@@ -0,0 +1,52 @@
+package org.medimob.orm.internal;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.medimob.orm.CacheConfig;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SessionTest {
+
+  private static final class Entity {
+
+    List<String> values = new ArrayList<String>();
+  }
+
+  @Test
+  public void mutatedEntityEvictionTest() {
+    Session<Entity> session = new Session<Entity>();
+    session.configure(new CacheConfig<Entity>()
+                          .setMaxSize(10)
+                          .setSizer(new CacheConfig.Sizer<Entity>() {
+                            @Override
+                            public int sizeOf(@NonNull Entity entity) {
+                              return 1 + entity.values.size();
+                            }
+                          }));
+    Entity first = new Entity();
+    session.put(1, first);
+    assertThat(session.getStats().getSize()).isEqualTo(1);
+
+    // Cached entity grows : its size is not recomputed.
+    first.values.add("a");
+    first.values.add("b");
+    List<Entity> kept = new ArrayList<Entity>();
+    for (long key = 2; key <= 12; key++) {
+      Entity entity = new Entity();
+      kept.add(entity);
+      session.put(key, entity);
+    }
+    assertThat(session.getStats().getSize()).isEqualTo(10);
+    assertThat(session.getStats().getEvictionCount()).isEqualTo(2);
+    // Weak identity map still holds the evicted entity.
+    assertThat(session.get(1)).isSameAs(first);
+  }
+}
@@ -0,0 +1,23 @@
+package org.medimob.orm.models;
+
+import org.medimob.orm.annotation.Projection;
+
+@Projection(model = AllTypeTest.class)
+public class AllTypeSummary {
+
+  long id;
+  String string;
+  int primitiveInt;
+
+  public long getId() {
+    return id;
+  }
+
+  public String getString() {
+    return string;
+  }
+
+  public int getPrimitiveInt() {
+    return primitiveInt;
+  }
+}
@@ -0,0 +1,61 @@
+package org.medimob.orm.models;
+
+import org.medimob.orm.annotation.Id;
+import org.medimob.orm.annotation.Model;
+import org.medimob.orm.annotation.Property;
+import org.medimob.orm.annotation.Version;
+
+@Model(dirtyTracking = true)
+public class DirtyTrackingTest {
+
+  @Id
+  long id;
+
+  @Property
+  int count;
+
+  @Property
+  String string;
+
+  @Property
+  byte[] bytesArray;
+
+  @Version
+  long version;
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public String getString() {
+    return string;
+  }
+
+  public void setString(String string) {
+    this.string = string;
+  }
+
+  public byte[] getBytesArray() {
+    return bytesArray;
+  }
+
+  public void setBytesArray(byte[] bytesArray) {
+    this.bytesArray = bytesArray;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+}
@@ -0,0 +1,31 @@
+package org.medimob.orm.models;
+
+import org.medimob.orm.annotation.Id;
+import org.medimob.orm.annotation.Model;
+import org.medimob.orm.annotation.Property;
+
+@Model(dirtyTracking = true)
+public class DirtyUnversionedTest {
+
+  @Id
+  long id;
+
+  @Property
+  String string;
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public String getString() {
+    return string;
+  }
+
+  public void setString(String string) {
+    this.string = string;
+  }
+}
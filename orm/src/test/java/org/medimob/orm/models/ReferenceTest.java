@@ -12,9 +12,11 @@ public class ReferenceTest {
   long id;
 
   @Property
-  @Reference(model = AllTypeTest.class)
+  @Reference(model = AllTypeTest.class, field = "simpleReference")
   long simpleReferenceId;
 
+  AllTypeTest simpleReference;
+
   @Property
   @Reference(model = AllTypeTest.class)
   long cascadeDeleteId;
@@ -35,6 +37,10 @@ public class ReferenceTest {
     this.simpleReferenceId = simpleReferenceId;
   }
 
+  public AllTypeTest getSimpleReference() {
+    return simpleReference;
+  }
+
   public long getCascadeDeleteId() {
     return cascadeDeleteId;
   }
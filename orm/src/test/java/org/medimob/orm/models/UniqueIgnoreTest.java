@@ -0,0 +1,34 @@
+package org.medimob.orm.models;
+
+import org.medimob.orm.annotation.Conflict;
+import org.medimob.orm.annotation.Id;
+import org.medimob.orm.annotation.Model;
+import org.medimob.orm.annotation.Property;
+import org.medimob.orm.annotation.Unique;
+
+@Model
+public class UniqueIgnoreTest {
+
+  @Id
+  long id;
+
+  @Property
+  @Unique(columns = {}, onConflict = Conflict.IGNORE)
+  String code;
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public void setCode(String code) {
+    this.code = code;
+  }
+}